@@ -672,6 +672,7 @@ public class HttpSC
     public final static int UNPROCESSABLE_ENTITY_422 = 422;
     public final static int LOCKED_423 = 423;
     public final static int FAILED_DEPENDENCY_424 = 424;
+    public final static int TOO_MANY_REQUESTS_429 = 429;    // RFC 6585
 
     public final static int INTERNAL_SERVER_ERROR_500 = 500;
     public final static int NOT_IMPLEMENTED_501 = 501;
@@ -809,6 +810,8 @@ public class HttpSC
         LOCKED(LOCKED_423, "Locked"),
         /** <code>424 Failed Dependency</code> */
         FAILED_DEPENDENCY(FAILED_DEPENDENCY_424, "Failed Dependency"),
+        /** <code>429 Too Many Requests</code> */
+        TOO_MANY_REQUESTS(TOO_MANY_REQUESTS_429, "Too Many Requests"),
 
         /*
          * --------------------------------------------------------------------
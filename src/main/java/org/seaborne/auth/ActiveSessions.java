@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.ArrayList ;
+import java.util.Comparator ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.PriorityQueue ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.function.Consumer ;
+import java.util.function.ToLongFunction ;
+
+import org.seaborne.auth.DigestSessionStore.RemovalListener ;
+
+/** The sessions that have completed a challenge-response.
+ * <p>
+ * A session expires when it has not been used for the idle timeout, or when it
+ * reaches its maximum lifetime, whichever comes first.
+ * <p>
+ * Each session is in a {@link TimingWheel} at its expiry time as it was when last
+ * scheduled. Use of a session only records the time of access; when the wheel
+ * delivers the session, the expiry time is recalculated and, if the session has
+ * been used since, it is rescheduled. Request threads never move sessions in the wheel.
+ * Lookups also check the expiry time so a session is never used after it has expired
+ * even if the sweeper is behind.
+ */
+public class ActiveSessions {
+
+    private final Map<String, DigestSession> sessions = new ConcurrentHashMap<>() ;
+    private final TimingWheel<DigestSession> wheel ;
+
+    private volatile long idleTimeoutMillis ;
+    private volatile long maxLifetimeMillis ;
+    private volatile RemovalListener removalListener = null ;
+
+    public ActiveSessions(long idleTimeoutMillis, long maxLifetimeMillis, long tickMillis) {
+        setIdleTimeout(idleTimeoutMillis) ;
+        setMaxLifetime(maxLifetimeMillis) ;
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis()) ;
+    }
+
+    /** Return the unexpired session for {@code opaque}, or null. */
+    public DigestSession get(String opaque) {
+        DigestSession session = sessions.get(opaque) ;
+        if ( session == null )
+            return null ;
+        if ( expiryTime(session) <= System.currentTimeMillis() ) {
+            remove(session) ;
+            return null ;
+        }
+        return session ;
+    }
+
+    public void put(DigestSession session) {
+        session.lastAccess = System.currentTimeMillis() ;
+        DigestSession previous = sessions.put(session.opaque, session) ;
+        if ( previous != null && previous != session )
+            removed(previous) ;
+        wheel.schedule(session, expiryTime(session)) ;
+    }
+
+    /** Add the session unless there is already an unexpired session for the opaque.
+     * @return The session now active for the opaque.
+     */
+    public DigestSession putIfAbsent(DigestSession session) {
+        session.lastAccess = System.currentTimeMillis() ;
+        for (;;) {
+            DigestSession existing = sessions.putIfAbsent(session.opaque, session) ;
+            if ( existing == null ) {
+                wheel.schedule(session, expiryTime(session)) ;
+                return session ;
+            }
+            if ( expiryTime(existing) > System.currentTimeMillis() )
+                return existing ;
+            remove(existing) ;
+        }
+    }
+
+    /** Note a use of the session. */
+    public void touch(DigestSession session, long now) {
+        session.lastAccess = now ;
+    }
+
+    public void remove(String opaque) {
+        DigestSession session = sessions.remove(opaque) ;
+        if ( session != null )
+            removed(session) ;
+    }
+
+    // Remove this session object, if still present.
+    private boolean remove(DigestSession session) {
+        if ( ! sessions.remove(session.opaque, session) )
+            return false ;
+        removed(session) ;
+        return true ;
+    }
+
+    private void removed(DigestSession session) {
+        RemovalListener listener = removalListener ;
+        if ( listener != null )
+            listener.removed(session.opaque, session.username) ;
+    }
+
+    /** Set the listener called when a session is removed, or null for none. */
+    public void setRemovalListener(RemovalListener listener) {
+        this.removalListener = listener ;
+    }
+
+    public int size() {
+        return sessions.size() ;
+    }
+
+    /** Remove up to {@code max} sessions, least recently used first.
+     * This scans all the sessions; it is for when memory is short, not for routine use.
+     * @return number removed
+     */
+    public int evictLeastRecentlyUsed(int max) {
+        int removed = 0 ;
+        for ( DigestSession session : smallest(sessions.values(), max, s -> s.lastAccess) ) {
+            if ( remove(session) )
+                removed++ ;
+        }
+        return removed ;
+    }
+
+    /** The {@code max} sessions with the smallest values of {@code key}, in one pass. */
+    static List<DigestSession> smallest(Iterable<DigestSession> sessions, int max, ToLongFunction<DigestSession> key) {
+        if ( max <= 0 )
+            return new ArrayList<>(0) ;
+        // Largest at the head, so it is the one to drop when a smaller value is found.
+        PriorityQueue<DigestSession> queue = new PriorityQueue<>(Comparator.comparingLong(key).reversed()) ;
+        for ( DigestSession session : sessions ) {
+            if ( queue.size() < max )
+                queue.add(session) ;
+            else if ( key.applyAsLong(session) < key.applyAsLong(queue.peek()) ) {
+                queue.poll() ;
+                queue.add(session) ;
+            }
+        }
+        return new ArrayList<>(queue) ;
+    }
+
+    public void forEach(Consumer<DigestSession> action) {
+        sessions.values().forEach(action) ;
+    }
+
+    /** Remove sessions that have expired by {@code now}.
+     * Must only be called from one thread at a time.
+     */
+    public int sweep(long now) {
+        int[] removed = { 0 } ;
+        wheel.advance(now, session -> {
+            if ( sessions.get(session.opaque) != session )
+                // Already removed.
+                return ;
+            long expiry = expiryTime(session) ;
+            if ( expiry > now ) {
+                // Used since it was last scheduled, or the timeouts have changed.
+                wheel.schedule(session, expiry) ;
+                return ;
+            }
+            if ( remove(session) )
+                removed[0]++ ;
+        }) ;
+        return removed[0] ;
+    }
+
+    private long expiryTime(DigestSession session) {
+        return Math.min(session.lastAccess + idleTimeoutMillis, session.created + maxLifetimeMillis) ;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeoutMillis ;
+    }
+
+    public void setIdleTimeout(long idleTimeoutMillis) {
+        if ( idleTimeoutMillis <= 0 )
+            throw new IllegalArgumentException("Idle timeout must be positive: "+idleTimeoutMillis) ;
+        this.idleTimeoutMillis = idleTimeoutMillis ;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetimeMillis ;
+    }
+
+    public void setMaxLifetime(long maxLifetimeMillis) {
+        if ( maxLifetimeMillis <= 0 )
+            throw new IllegalArgumentException("Maximum lifetime must be positive: "+maxLifetimeMillis) ;
+        this.maxLifetimeMillis = maxLifetimeMillis ;
+    }
+}
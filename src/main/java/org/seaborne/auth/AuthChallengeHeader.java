@@ -28,6 +28,8 @@ public class AuthChallengeHeader {
     public final String uri;
     public final String opaque;
     public final String qop;
+    /** The algorithm, or null if not given (MD5). */
+    public final String algorithm;
     public final Map<String, String> parsed;
     
     // Wikipedia example.
@@ -66,6 +68,7 @@ public class AuthChallengeHeader {
                  this.uri = uri;
                  this.opaque = opaque;
                  this.qop = qop;
+                 this.algorithm = parsed.get(AuthHeader.strAlgorithm);
                  this.parsed = parsed;
                  }
 
@@ -31,6 +31,7 @@ public class AuthHeader {
     public static String strResponse = "response";
     public static String strOpaque   = "opaque";
     public static String strUri      = "uri";
+    public static String strAlgorithm = "algorithm";
 
     
 }
@@ -33,6 +33,8 @@ public class AuthResponseHeader {
     public final String nc;
     public final String cnonce;
     public final String username;
+    /** The algorithm, or null if not given (MD5). */
+    public final String algorithm;
     public final Map<String, String> parsed;
      
     /** Parse "WWW-Authenticate:" challenge message */ 
@@ -100,6 +102,7 @@ public class AuthResponseHeader {
         this.qop = qop;
         this.nc = nc;
         this.cnonce = cnonce;
+        this.algorithm = parsed.get(AuthHeader.strAlgorithm);
         this.parsed = parsed;
     }
 
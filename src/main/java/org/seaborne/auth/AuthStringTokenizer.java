@@ -28,10 +28,11 @@ import java.util.regex.Pattern ;
 public class AuthStringTokenizer {
     
     // Terms:
-    //   "quoted string"
+    //   "quoted string", which may have \-escaped characters (RFC 7230 quoted-pair)
     //   delimiters( , or =) 
     //   an unquoted string, no spaces.
-    private static String regex = "(\"[^\"=]*\"|,|=|[^=, \"]+)";
+    private static String regex = "(\"(?:[^\"\\\\]|\\\\.)*\"|,|=|[^=, \"]+)";
+    private static Pattern quotedPair = Pattern.compile("\\\\(.)") ;
     private static Pattern pattern = Pattern.compile(regex) ;
     private static String nullString = "" ;
     
@@ -128,8 +129,11 @@ public class AuthStringTokenizer {
         word1 = word1.toLowerCase() ; 
         if ( word2 == null )
             word2 = nullString ;
-        else if ( isQuoted(word2) )
+        else if ( isQuoted(word2) ) {
             word2 = word2.substring(1, word2.length()-1) ;
+            if ( word2.indexOf('\\') >= 0 )
+                word2 = quotedPair.matcher(word2).replaceAll("$1") ;
+        }
         
         map.put(word1, word2) ;
     }
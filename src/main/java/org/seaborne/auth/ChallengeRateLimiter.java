@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.concurrent.ThreadLocalRandom ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicLongArray ;
+import java.util.concurrent.atomic.LongAdder ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+/** Limit on the rate of new challenges for each client address.
+ * <p>
+ * Each client has a token bucket of {@code burst} challenges, refilled at {@code rate} per
+ * second. A bucket is one {@code long} (the time at which it will be full again) in a
+ * fixed-size table indexed by a hash of the address, updated with compare-and-set; there
+ * are no locks and no per-client objects, so the table does not grow. Addresses that hash
+ * to the same slot share a bucket. The hash is seeded per instance so a client can not
+ * choose addresses that share the bucket of another client.
+ * <p>
+ * The address is the request's remote address or, if a header is configured, the last
+ * address in that header (for example {@code X-Forwarded-For}), as added by the proxy
+ * in front of the server. Only configure a header when there is such a proxy.
+ */
+public class ChallengeRateLimiter {
+    public static final int DEFAULT_SLOTS = 1 << 16 ;
+
+    private final AtomicLongArray buckets ;
+    private final int mask ;
+    private final long intervalNanos ;
+    private final long burstNanos ;
+    private final String addressHeader ;
+    private final long seed = ThreadLocalRandom.current().nextLong() | 1 ;
+    private final long origin = System.nanoTime() ;
+    private final LongAdder refused = new LongAdder() ;
+
+    /**
+     * @param rate          Challenges per second for one client
+     * @param burst         Challenges a client can have at once
+     * @param addressHeader Header with the client address, or null for the remote address
+     */
+    public ChallengeRateLimiter(double rate, int burst, String addressHeader) {
+        this(rate, burst, addressHeader, DEFAULT_SLOTS) ;
+    }
+
+    public ChallengeRateLimiter(double rate, int burst, String addressHeader, int slots) {
+        if ( !( rate > 0 ) )
+            throw new IllegalArgumentException("Rate must be positive: "+rate) ;
+        if ( burst <= 0 )
+            throw new IllegalArgumentException("Burst must be positive: "+burst) ;
+        if ( slots <= 0 )
+            throw new IllegalArgumentException("Slots must be positive: "+slots) ;
+        int size = Integer.highestOneBit(Math.max(2, slots) - 1) << 1 ;
+        this.buckets = new AtomicLongArray(size) ;
+        this.mask = size - 1 ;
+        this.intervalNanos = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / rate)) ;
+        this.burstNanos = intervalNanos * burst ;
+        this.addressHeader = addressHeader ;
+    }
+
+    /** Take a challenge for the client of this request.
+     * @return 0 if allowed, else the number of seconds until the client may have another.
+     */
+    public long acquire(HttpServletRequest request) {
+        return acquire(clientAddress(request), System.nanoTime()) ;
+    }
+
+    long acquire(String address, long nanoTime) {
+        int slot = slot(address) ;
+        // A bucket holds the time, relative to "origin", at which it will be full again.
+        // Taking a token moves that on by one interval; the bucket is empty when it is
+        // more than the burst ahead of now. A bucket that has never been used (zero) is full.
+        long now = nanoTime - origin ;
+        for (;;) {
+            long full = buckets.get(slot) ;
+            long next = Math.max(full, now) + intervalNanos ;
+            long wait = next - now - burstNanos ;
+            if ( wait > 0 ) {
+                refused.increment() ;
+                return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1)) ;
+            }
+            if ( buckets.compareAndSet(slot, full, next) )
+                return 0 ;
+        }
+    }
+
+    int slot(String address) {
+        long h = seed ;
+        if ( address != null ) {
+            for ( int i = 0 ; i < address.length() ; i++ )
+                h = (h ^ address.charAt(i)) * 0x9E3779B97F4A7C15L ;
+        }
+        h ^= h >>> 29 ;
+        h *= 0xBF58476D1CE4E5B9L ;
+        h ^= h >>> 32 ;
+        return (int)(h & mask) ;
+    }
+
+    String clientAddress(HttpServletRequest request) {
+        return clientAddress(request, addressHeader) ;
+    }
+
+    /** The last address in the header, if set and present, else the remote address. */
+    static String clientAddress(HttpServletRequest request, String addressHeader) {
+        if ( addressHeader != null ) {
+            String x = request.getHeader(addressHeader) ;
+            if ( x != null ) {
+                int idx = x.lastIndexOf(',') ;
+                String addr = ( idx < 0 ? x : x.substring(idx+1) ).trim() ;
+                if ( ! addr.isEmpty() )
+                    return addr ;
+            }
+        }
+        return request.getRemoteAddr() ;
+    }
+
+    /** Number of challenges refused. */
+    public long getRefused() {
+        return refused.sum() ;
+    }
+}
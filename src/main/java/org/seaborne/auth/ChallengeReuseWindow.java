@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.concurrent.atomic.AtomicReferenceArray ;
+import java.util.concurrent.atomic.LongAdder ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+/** The last challenge sent to each client address, so that a burst of unauthenticated
+ * requests from one client, such as the parallel requests of a page load, gets the same
+ * challenge instead of one pending challenge each.
+ * <p>
+ * A challenge is reused for {@code window} milliseconds after it was first sent, and only
+ * while it has not been answered. The table has a fixed number of slots, indexed by a hash
+ * of the address; a new challenge for an address replaces any other address in its slot.
+ * There is one table per engine, so a challenge is only reused for the same realm.
+ * Different users behind one address share a challenge; when one has answered it, a
+ * request from another user with that challenge is sent a new challenge, not refused.
+ * The client address is found as for {@link ChallengeRateLimiter}.
+ */
+public class ChallengeReuseWindow {
+    public static final long DEFAULT_WINDOW = 500 ;
+    public static final int DEFAULT_SLOTS = 1 << 12 ;
+
+    /** A challenge sent to a client. */
+    static final class Challenge {
+        final String address ;
+        final String nonce ;
+        final String opaque ;
+        final long issued ;
+
+        Challenge(String address, String nonce, String opaque, long issued) {
+            this.address = address ;
+            this.nonce = nonce ;
+            this.opaque = opaque ;
+            this.issued = issued ;
+        }
+    }
+
+    private final AtomicReferenceArray<Challenge> slots ;
+    private final int mask ;
+    private final long window ;
+    private final String addressHeader ;
+    private final LongAdder reused = new LongAdder() ;
+
+    /**
+     * @param window        Milliseconds for which a challenge is reused
+     * @param addressHeader Header with the client address, or null for the remote address
+     */
+    public ChallengeReuseWindow(long window, String addressHeader) {
+        this(window, addressHeader, DEFAULT_SLOTS) ;
+    }
+
+    public ChallengeReuseWindow(long window, String addressHeader, int slots) {
+        if ( window <= 0 )
+            throw new IllegalArgumentException("Window must be positive: "+window) ;
+        if ( slots <= 0 )
+            throw new IllegalArgumentException("Slots must be positive: "+slots) ;
+        int size = Integer.highestOneBit(Math.max(2, slots) - 1) << 1 ;
+        this.slots = new AtomicReferenceArray<>(size) ;
+        this.mask = size - 1 ;
+        this.window = window ;
+        this.addressHeader = addressHeader ;
+    }
+
+    String clientAddress(HttpServletRequest request) {
+        return ChallengeRateLimiter.clientAddress(request, addressHeader) ;
+    }
+
+    /** The challenge sent to the address within the window, or null. */
+    Challenge get(String address, long now) {
+        if ( address == null )
+            return null ;
+        Challenge c = slots.get(slot(address)) ;
+        if ( c == null || now - c.issued >= window || ! c.address.equals(address) )
+            return null ;
+        return c ;
+    }
+
+    void put(String address, String nonce, String opaque, long now) {
+        if ( address != null )
+            slots.set(slot(address), new Challenge(address, nonce, opaque, now)) ;
+    }
+
+    /** Forget the challenge, if it is the one recorded for the address. */
+    void remove(Challenge challenge) {
+        slots.compareAndSet(slot(challenge.address), challenge, null) ;
+    }
+
+    void reused() {
+        reused.increment() ;
+    }
+
+    /** Number of challenges sent again instead of making a new one. */
+    public long getReused() {
+        return reused.sum() ;
+    }
+
+    public long getWindow() {
+        return window ;
+    }
+
+    private int slot(String address) {
+        int h = address.hashCode() * 0x9E3779B9 ;
+        return (h ^ (h >>> 16)) & mask ;
+    }
+}
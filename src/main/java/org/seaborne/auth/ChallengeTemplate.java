@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+/** The {@code WWW-Authenticate} value for a realm. The parts that do not change,
+ * including the quoted realm, are built once; a challenge is one string concatenation,
+ * which allocates only the result.
+ */
+class ChallengeTemplate {
+    private final String prefix ;
+
+    ChallengeTemplate(String realm) {
+        this(realm, null) ;
+    }
+
+    /** With an {@code algorithm}, or null to leave it out (MD5). */
+    ChallengeTemplate(String realm, String algorithm) {
+        this.prefix = "Digest realm=\""+escape(realm)+"\", qop=\"auth\", "
+                     +( algorithm == null ? "" : "algorithm="+algorithm+", " )
+                     +"nonce=\"" ;
+    }
+
+    // Realm as the content of a quoted-string.
+    private static String escape(String realm) {
+        return realm.replace("\\", "\\\\").replace("\"", "\\\"") ;
+    }
+
+    /** The header value for a challenge. */
+    String render(String nonce, String opaque, boolean stale) {
+        return stale
+            ? prefix+nonce+"\", opaque=\""+opaque+"\", stale=true"
+            : prefix+nonce+"\", opaque=\""+opaque+"\"" ;
+    }
+}
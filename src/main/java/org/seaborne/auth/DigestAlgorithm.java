@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.nio.charset.StandardCharsets ;
+import java.security.MessageDigest ;
+import java.security.NoSuchAlgorithmException ;
+
+/** The hash functions of HTTP digest authentication (RFC 7616), each using the JDK's
+ * {@link MessageDigest}. The name is the value of the {@code algorithm} parameter;
+ * each also has a session variant, {@code <name>-sess}.
+ * <p>
+ * H(A1) depends on the algorithm, so a stored H(A1) (see {@link HA1Getter}) is for one
+ * algorithm, normally MD5.
+ */
+public enum DigestAlgorithm {
+    MD5("MD5", "MD5"),
+    SHA_256("SHA-256", "SHA-256"),
+    SHA_512_256("SHA-512-256", "SHA-512/256") ;
+
+    private final String name ;
+    private final String jdkName ;
+    private final int hexLength ;
+
+    private DigestAlgorithm(String name, String jdkName) {
+        this.name = name ;
+        this.jdkName = jdkName ;
+        this.hexLength = 2 * newMessageDigest(jdkName).getDigestLength() ;
+    }
+
+    /** The {@code algorithm} parameter value. */
+    public String algorithmName() {
+        return name ;
+    }
+
+    /** The {@code algorithm} parameter value of the session variant. */
+    public String sessName() {
+        return name+"-sess" ;
+    }
+
+    /** Length of a hash, as hex. */
+    public int hexLength() {
+        return hexLength ;
+    }
+
+    /** A new {@link MessageDigest} for the algorithm. */
+    public MessageDigest newMessageDigest() {
+        return newMessageDigest(jdkName) ;
+    }
+
+    /** H(data) as lower case hex. */
+    public String H(String data) {
+        byte[] bytes = newMessageDigest().digest(data.getBytes(StandardCharsets.UTF_8)) ;
+        char[] chars = new char[2*bytes.length] ;
+        for ( int i = 0 ; i < bytes.length ; i++ ) {
+            chars[2*i]   = Character.forDigit((bytes[i] >> 4) & 0xF, 16) ;
+            chars[2*i+1] = Character.forDigit(bytes[i] & 0xF, 16) ;
+        }
+        return new String(chars) ;
+    }
+
+    /** KD(secret, data) = H(secret:data). */
+    public String KD(String secret, String data) {
+        return H(secret+":"+data) ;
+    }
+
+    /** The algorithm of an {@code algorithm} parameter, with or without {@code -sess};
+     * MD5 if null (not given).
+     * @return the algorithm, or null if not known.
+     */
+    public static DigestAlgorithm of(String algorithm) {
+        if ( algorithm == null )
+            return MD5 ;
+        String x = RFC2617.isSess(algorithm) ? algorithm.substring(0, algorithm.length()-5) : algorithm ;
+        for ( DigestAlgorithm a : values() ) {
+            if ( a.name.equalsIgnoreCase(x) )
+                return a ;
+        }
+        return null ;
+    }
+
+    /** Parse a comma separated list of names, such as {@code "SHA-256, MD5"}, in order.
+     * A {@code -sess} suffix is ignored; see {@link #isSessList}.
+     */
+    public static DigestAlgorithm[] parseList(String names) {
+        String[] parts = names.split(",") ;
+        DigestAlgorithm[] algorithms = new DigestAlgorithm[parts.length] ;
+        for ( int i = 0 ; i < parts.length ; i++ ) {
+            String x = parts[i].trim() ;
+            algorithms[i] = x.isEmpty() ? null : of(x) ;
+            if ( algorithms[i] == null )
+                throw new IllegalArgumentException("Unknown digest algorithm: '"+x+"'") ;
+        }
+        return algorithms ;
+    }
+
+    /** Whether the names in a list are session variants, such as {@code "SHA-256-sess, MD5-sess"}.
+     * Either all or none must be.
+     */
+    public static boolean isSessList(String names) {
+        int sess = 0 ;
+        String[] parts = names.split(",") ;
+        for ( String x : parts ) {
+            if ( RFC2617.isSess(x.trim()) )
+                sess++ ;
+        }
+        if ( sess != 0 && sess != parts.length )
+            throw new IllegalArgumentException("Some but not all algorithms are '-sess': '"+names+"'") ;
+        return sess != 0 ;
+    }
+
+    @Override
+    public String toString() {
+        return name ;
+    }
+
+    private static MessageDigest newMessageDigest(String jdkName) {
+        try { return MessageDigest.getInstance(jdkName) ; }
+        catch (NoSuchAlgorithmException ex) { throw new IllegalStateException("No "+jdkName+" in this JDK", ex) ; }
+    }
+}
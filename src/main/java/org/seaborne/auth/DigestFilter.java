@@ -22,9 +22,22 @@ import java.io.BufferedInputStream ;
 import java.io.FileInputStream ;
 import java.io.IOException ;
 import java.io.InputStream ;
+import java.io.OutputStream ;
+import java.io.UncheckedIOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.Paths ;
+import java.nio.file.StandardCopyOption ;
+import java.util.Enumeration ;
 import java.util.HashMap ;
+import java.util.HashSet ;
+import java.util.Locale ;
 import java.util.Map ;
 import java.util.Properties ;
+import java.util.Set ;
+import java.util.concurrent.TimeUnit ;
+import java.util.function.Consumer ;
+import java.util.function.Function ;
 import java.util.regex.Pattern ;
 
 import javax.servlet.* ;
@@ -37,14 +50,83 @@ import org.slf4j.LoggerFactory ;
 public class DigestFilter implements Filter {
     private static Logger log = LoggerFactory.getLogger(DigestFilter.class) ;
     public static String passwordFileInit = "password-file" ;
+    /** File of {@code username:realm:H(A1)} lines, as written by Apache {@code htdigest},
+     * instead of a password file; see {@link HtDigestFile}.
+     */
+    public static String ha1FileInit = "ha1-file" ;
     public static String realmInit = "realm" ;
     public static String urlPatternInit = "urlPattern" ;
+    /** Session store type: see {@link DigestSessionStores}.
+     * The other init-params are passed to the store as its settings.
+     */
+    public static String sessionStoreInit = "session-store" ;
+    /** File holding a secret for stateless challenges; see {@link StatelessNonces}. */
+    public static String nonceSecretFileInit = "nonce-secret-file" ;
+    /** File holding the secret in use before {@code nonce-secret-file}, while changing secret. */
+    public static String noncePreviousSecretFileInit = "nonce-previous-secret-file" ;
+    /** Seconds a stateless challenge is valid for. */
+    public static String nonceLifetimeInit = "nonce-lifetime" ;
+    /** Maximum number of active sessions for one user; see {@link DigestHttp#setMaxSessionsPerUser}. */
+    public static String maxSessionsPerUserInit = "max-sessions-per-user" ;
+    /** File to load sessions from at start up, and save them to at shutdown. */
+    public static String sessionSnapshotFileInit = "session-snapshot-file" ;
+    /** Local socket to fetch sessions from a running instance at start up, and then to serve them from. */
+    public static String sessionSnapshotSocketInit = "session-snapshot-socket" ;
+    /** Seconds a session's nonce is used before a {@code stale=true} challenge; see {@link DigestHttp#setNonceMaxAge}. */
+    public static String nonceMaxAgeInit = "nonce-max-age" ;
+    /** Requests per nonce before a {@code stale=true} challenge; see {@link DigestHttp#setNonceMaxUses}. */
+    public static String nonceMaxUsesInit = "nonce-max-uses" ;
+    /** New challenges per second for one client; see {@link ChallengeRateLimiter}. */
+    public static String challengeRateInit = "challenge-rate" ;
+    /** Challenges a client can have at once, default {@value #DEFAULT_CHALLENGE_BURST}. */
+    public static String challengeBurstInit = "challenge-burst" ;
+    /** Header with the client address, for example "X-Forwarded-For", when behind a proxy. */
+    public static String clientAddressHeaderInit = "client-address-header" ;
+    public static final int DEFAULT_CHALLENGE_BURST = 10 ;
+    /** Digest algorithms offered, most preferred first, such as "SHA-256, MD5"; the default is "MD5".
+     * Names ending "-sess", such as "SHA-256-sess, MD5-sess", offer the session variants.
+     * An "ha1-file" has MD5 only.
+     * @see DigestHttp#setAlgorithms
+     * @see DigestHttp#setSessionAlgorithm
+     */
+    public static String algorithmInit = "algorithm" ;
+    /** Milliseconds for which a client is sent the same unanswered challenge; see {@link ChallengeReuseWindow}. */
+    public static String challengeReuseWindowInit = "challenge-reuse-window" ;
+    /** Number of users whose H(A1) is cached, default {@value HA1Cache#DEFAULT_SIZE}; 0 for no cache.
+     * The credentials do not change while the filter is running, so the cache is on by default.
+     */
+    public static String ha1CacheSizeInit = "ha1-cache-size" ;
+    /** Failed logins at which a username or client address is locked out; see {@link FailureThrottle}. */
+    public static String failureThresholdInit = "failure-threshold" ;
+    /** Seconds for the count of failed logins to halve, default 300. */
+    public static String failureHalfLifeInit = "failure-half-life" ;
+    /** Number of nonce values to generate ahead of time; see {@link NoncePool}. */
+    public static String noncePoolInit = "nonce-pool" ;
+    /** Serve one realm per host ("host") or per first path segment ("path"), instead of
+     * the single {@code realm}; see {@link DigestHttpRegistry}. Each realm has its own
+     * session store of the {@code session-store} type and settings. The realms are listed in {@code realms}.
+     */
+    public static String realmRoutingInit = "realm-routing" ;
+    /** Comma separated list of the realms served with {@code realm-routing}; required with it.
+     * Host names are compared in lower case. A request for any other realm gets 404.
+     */
+    public static String realmsInit = "realms" ;
+    /** The most routed realms with an engine at once; see {@link DigestHttpRegistry#setMaxEngines}. */
+    public static String maxRealmsInit = "max-realms" ;
+    /** Seconds without a request after which the engine for a routed realm is closed. */
+    public static String realmIdleTimeoutInit = "realm-idle-timeout" ;
     
     private Map<String, String> credential;
     private Pattern urlPattern = null ;
     private DigestHttp engine ;
+    private DigestHttpRegistry registry = null ;
+    private NoncePool noncePool = null ;
+    // One of these is set.
     private Map<String, String> credentials;
+    private HtDigestFile ha1File = null ;
     private String realm; 
+    private Path snapshotFile = null ;
+    private SessionSnapshotServer snapshotServer = null ;
 
     public DigestFilter() { }
     
@@ -52,10 +134,7 @@ public class DigestFilter implements Filter {
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         log.info("DigestFilter.init"); 
-        String fn = filterConfig.getInitParameter(passwordFileInit) ;
-        if ( fn == null )
-            throw new ServletException("No 'passwordFile") ;
-        this.credentials = parsePasswordfile(fn) ;
+        initCredentials(filterConfig) ;
         String urlPatternStr = filterConfig.getInitParameter(urlPatternInit) ;
         if ( urlPatternStr != null )
             this.urlPattern = Pattern.compile(urlPatternStr) ;
@@ -64,8 +143,281 @@ public class DigestFilter implements Filter {
             log.warn("Init-param 'realm' not found: defaults to 'Login'");
             this.realm = "Login" ; 
         }
-        
-        this.engine = new DigestHttp(null, realm, (x,u)->credentials.get(u)) ;
+
+        // Applied to each engine, including each engine of a routed realm.
+        Consumer<DigestHttp> setup = parseNoncePool(filterConfig)
+            .andThen(parseChallengeRateLimiter(filterConfig))
+            .andThen(parseFailureThrottle(filterConfig))
+            .andThen(parseHA1Cache(filterConfig))
+            .andThen(parseAlgorithms(filterConfig))
+            .andThen(parseChallengeReuseWindow(filterConfig))
+            .andThen(parseSessionLimits(filterConfig))
+            .andThen(parseStatelessNonces(filterConfig)) ;
+
+        String routing = filterConfig.getInitParameter(realmRoutingInit) ;
+        if ( routing != null ) {
+            initRegistry(filterConfig, routing.trim(), setup) ;
+            return ;
+        }
+
+        DigestSessionStore sessionStore = createSessionStore(filterConfig) ;
+        if ( ha1File != null ) {
+            if ( ! ha1File.hasRealm(realm) )
+                log.warn("No users for realm '"+realm+"' in '"+ha1FileInit+"'") ;
+            this.engine = new DigestHttp(null, realm, ha1File, sessionStore) ;
+        } else
+            this.engine = new DigestHttp(null, realm, (x,u)->credentials.get(u), sessionStore) ;
+        setup.accept(engine) ;
+        initSnapshots(filterConfig) ;
+    }
+
+    private void initCredentials(FilterConfig filterConfig) throws ServletException {
+        String fn = filterConfig.getInitParameter(passwordFileInit) ;
+        String ha1Fn = filterConfig.getInitParameter(ha1FileInit) ;
+        if ( fn == null && ha1Fn == null )
+            throw new ServletException("No '"+passwordFileInit+"' or '"+ha1FileInit+"'") ;
+        if ( fn != null && ha1Fn != null )
+            throw new ServletException("Only one of '"+passwordFileInit+"' and '"+ha1FileInit+"'") ;
+        if ( fn != null )
+            this.credentials = parsePasswordfile(fn) ;
+        else
+            this.ha1File = parseHA1file(ha1Fn) ;
+    }
+
+    private Consumer<DigestHttp> parseNoncePool(FilterConfig filterConfig) throws ServletException {
+        String noncePoolStr = filterConfig.getInitParameter(noncePoolInit) ;
+        if ( noncePoolStr == null )
+            return e -> {} ;
+        try {
+            this.noncePool = new NoncePool(NonceGenerators.DEFAULT, Integer.parseInt(noncePoolStr.trim())) ;
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException("Init-param '"+noncePoolInit+"': "+ex.getMessage()) ;
+        }
+        NoncePool pool = noncePool ;
+        return e -> e.setNonceGenerator(pool) ;
+    }
+
+    private static Consumer<DigestHttp> parseChallengeRateLimiter(FilterConfig filterConfig) throws ServletException {
+        String rateStr = filterConfig.getInitParameter(challengeRateInit) ;
+        if ( rateStr == null )
+            return e -> {} ;
+        long burst = longInitParam(filterConfig, challengeBurstInit, DEFAULT_CHALLENGE_BURST) ;
+        ChallengeRateLimiter limiter ;
+        try {
+            limiter = new ChallengeRateLimiter(Double.parseDouble(rateStr.trim()), (int)Math.min(Integer.MAX_VALUE, burst),
+                                               filterConfig.getInitParameter(clientAddressHeaderInit)) ;
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException("Init-param '"+challengeRateInit+"': "+ex.getMessage()) ;
+        }
+        return e -> e.setChallengeRateLimiter(limiter) ;
+    }
+
+    private static Consumer<DigestHttp> parseFailureThrottle(FilterConfig filterConfig) throws ServletException {
+        long failureThreshold = longInitParam(filterConfig, failureThresholdInit, -1) ;
+        if ( failureThreshold < 0 )
+            return e -> {} ;
+        long halfLife = longInitParam(filterConfig, failureHalfLifeInit, TimeUnit.MILLISECONDS.toSeconds(FailureThrottle.DEFAULT_HALF_LIFE)) ;
+        FailureThrottle throttle ;
+        try {
+            throttle = new FailureThrottle((int)Math.min(Integer.MAX_VALUE, failureThreshold), TimeUnit.SECONDS.toMillis(halfLife),
+                                           filterConfig.getInitParameter(clientAddressHeaderInit)) ;
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException("Init-param '"+failureHalfLifeInit+"': "+ex.getMessage()) ;
+        }
+        // One throttle for all realms, so a client is locked out of all of them.
+        return e -> e.setFailureThrottle(throttle) ;
+    }
+
+    private static Consumer<DigestHttp> parseHA1Cache(FilterConfig filterConfig) throws ServletException {
+        long ha1CacheSize = longInitParam(filterConfig, ha1CacheSizeInit, HA1Cache.DEFAULT_SIZE) ;
+        if ( ha1CacheSize == 0 )
+            return e -> {} ;
+        HA1Cache ha1Cache = new HA1Cache((int)Math.min(Integer.MAX_VALUE, ha1CacheSize)) ;
+        return e -> e.setHA1Cache(ha1Cache) ;
+    }
+
+    private static Consumer<DigestHttp> parseAlgorithms(FilterConfig filterConfig) throws ServletException {
+        String algorithm = filterConfig.getInitParameter(algorithmInit) ;
+        if ( algorithm == null )
+            return e -> {} ;
+        DigestAlgorithm[] algorithms ;
+        boolean sess ;
+        try {
+            algorithms = DigestAlgorithm.parseList(algorithm) ;
+            sess = DigestAlgorithm.isSessList(algorithm) ;
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException("Init-param '"+algorithmInit+"': "+ex.getMessage()) ;
+        }
+        return e -> {
+            e.setAlgorithms(algorithms) ;
+            if ( sess )
+                e.setSessionAlgorithm(true) ;
+        } ;
+    }
+
+    private static Consumer<DigestHttp> parseChallengeReuseWindow(FilterConfig filterConfig) throws ServletException {
+        long reuseWindow = longInitParam(filterConfig, challengeReuseWindowInit, 0) ;
+        if ( reuseWindow == 0 )
+            return e -> {} ;
+        String clientAddressHeader = filterConfig.getInitParameter(clientAddressHeaderInit) ;
+        return e -> e.setChallengeReuseWindow(new ChallengeReuseWindow(reuseWindow, clientAddressHeader)) ;
+    }
+
+    private static Consumer<DigestHttp> parseSessionLimits(FilterConfig filterConfig) throws ServletException {
+        long maxSessionsPerUser = longInitParam(filterConfig, maxSessionsPerUserInit, -1) ;
+        if ( maxSessionsPerUser > Integer.MAX_VALUE )
+            throw new ServletException("Init-param '"+maxSessionsPerUserInit+"': too large: "+maxSessionsPerUser) ;
+        long nonceMaxAge = longInitParam(filterConfig, nonceMaxAgeInit, -1) ;
+        long nonceMaxUses = longInitParam(filterConfig, nonceMaxUsesInit, -1) ;
+        return e -> {
+            if ( maxSessionsPerUser >= 0 )
+                e.setMaxSessionsPerUser((int)maxSessionsPerUser) ;
+            if ( nonceMaxAge >= 0 )
+                e.setNonceMaxAge(TimeUnit.SECONDS.toMillis(nonceMaxAge)) ;
+            if ( nonceMaxUses >= 0 )
+                e.setNonceMaxUses(nonceMaxUses) ;
+        } ;
+    }
+
+    private static Consumer<DigestHttp> parseStatelessNonces(FilterConfig filterConfig) throws ServletException {
+        String secretFile = filterConfig.getInitParameter(nonceSecretFileInit) ;
+        if ( secretFile == null )
+            return e -> {} ;
+        long lifetime = longInitParam(filterConfig, nonceLifetimeInit, TimeUnit.MILLISECONDS.toSeconds(DigestSessionStores.DEFAULT_PENDING_TIMEOUT)) ;
+        String previousFile = filterConfig.getInitParameter(noncePreviousSecretFileInit) ;
+        StatelessNonces stateless ;
+        try {
+            stateless = StatelessNonces.fromFile(Paths.get(secretFile), previousFile == null ? null : Paths.get(previousFile),
+                                                 TimeUnit.SECONDS.toMillis(lifetime)) ;
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new ServletException("Nonce secret: "+ex.getMessage(), ex) ;
+        }
+        return e -> e.setStatelessNonces(stateless) ;
+    }
+
+    // Sessions from a previous instance, loaded before any request is seen.
+    private void initSnapshots(FilterConfig filterConfig) throws ServletException {
+        String snapshotFileStr = filterConfig.getInitParameter(sessionSnapshotFileInit) ;
+        if ( snapshotFileStr != null ) {
+            this.snapshotFile = Paths.get(snapshotFileStr.trim()) ;
+            if ( Files.exists(snapshotFile) ) {
+                try ( InputStream in = Files.newInputStream(snapshotFile) ) {
+                    engine.importSessions(in) ;
+                } catch (IOException ex) {
+                    log.warn("Session snapshot "+snapshotFile+": "+ex.getMessage()) ;
+                }
+            }
+        }
+        String snapshotSocketStr = filterConfig.getInitParameter(sessionSnapshotSocketInit) ;
+        if ( snapshotSocketStr != null ) {
+            Path socket = Paths.get(snapshotSocketStr.trim()) ;
+            try {
+                SessionSnapshotServer.fetch(engine, socket) ;
+            } catch (IOException ex) {
+                log.warn("Session snapshot "+socket+": "+ex.getMessage()) ;
+            }
+            try {
+                this.snapshotServer = SessionSnapshotServer.start(engine, socket) ;
+            } catch (IOException ex) {
+                throw new ServletException("Session snapshot socket: "+ex.getMessage(), ex) ;
+            }
+        }
+    }
+
+    private void initRegistry(FilterConfig filterConfig, String routing, Consumer<DigestHttp> setup) throws ServletException {
+        DigestHttpRegistry.Router router ;
+        switch (routing) {
+            case "host" : router = DigestHttpRegistry.byHost() ; break ;
+            case "path" : router = DigestHttpRegistry.byPathPrefix() ; break ;
+            default :
+                throw new ServletException("Init-param '"+realmRoutingInit+"': expected 'host' or 'path': "+routing) ;
+        }
+        // Only configured realms get an engine; the realm comes from the request.
+        String realmsStr = filterConfig.getInitParameter(realmsInit) ;
+        if ( realmsStr == null )
+            throw new ServletException("Init-param '"+realmsInit+"' is required with '"+realmRoutingInit+"'") ;
+        Set<String> realms = new HashSet<>() ;
+        for ( String r : realmsStr.split(",") ) {
+            r = r.trim() ;
+            if ( ! r.isEmpty() )
+                realms.add( routing.equals("host") ? r.toLowerCase(Locale.ROOT) : r ) ;
+        }
+        if ( realms.isEmpty() )
+            throw new ServletException("Init-param '"+realmsInit+"': no realms") ;
+        long maxRealms = longInitParam(filterConfig, maxRealmsInit, DigestHttpRegistry.DEFAULT_MAX_ENGINES) ;
+        if ( maxRealms == 0 || maxRealms > Integer.MAX_VALUE )
+            throw new ServletException("Init-param '"+maxRealmsInit+"': out of range: "+maxRealms) ;
+        if ( DigestSessionStores.typeMapped.equals(filterConfig.getInitParameter(sessionStoreInit)) )
+            throw new ServletException("Session store '"+DigestSessionStores.typeMapped+"' can not be used with '"+realmRoutingInit+"'") ;
+        if ( filterConfig.getInitParameter(sessionSnapshotFileInit) != null || filterConfig.getInitParameter(sessionSnapshotSocketInit) != null )
+            log.warn("Session snapshots are not supported with '"+realmRoutingInit+"': ignored") ;
+        // Check the settings now rather than on the first request for a realm.
+        checkSessionStore(filterConfig) ;
+        Function<String, DigestSessionStore> stores = r -> {
+            try { return createSessionStore(filterConfig) ; }
+            catch (ServletException ex) { throw new IllegalStateException(ex.getMessage(), ex) ; }
+        } ;
+        if ( ha1File != null ) {
+            HtDigestFile ha1s = ha1File ;
+            this.registry = DigestHttpRegistry.withHA1(router, r -> ha1s, stores) ;
+        } else {
+            PasswordGetter passwords = (x,u)->credentials.get(u) ;
+            this.registry = new DigestHttpRegistry(router, r -> passwords, stores) ;
+        }
+        registry.setEngineSetup(setup) ;
+        registry.setAllowedRealms(realms) ;
+        registry.setMaxEngines((int)maxRealms) ;
+        String idleStr = filterConfig.getInitParameter(realmIdleTimeoutInit) ;
+        if ( idleStr != null ) {
+            try {
+                registry.setIdleTimeout(TimeUnit.SECONDS.toMillis(Long.parseLong(idleStr.trim()))) ;
+            } catch (IllegalArgumentException ex) {
+                throw new ServletException("Init-param '"+realmIdleTimeoutInit+"': "+ex.getMessage()) ;
+            }
+        }
+    }
+
+    // A non-negative number, or the default if not set.
+    private static long longInitParam(FilterConfig filterConfig, String name, long dft) throws ServletException {
+        String str = filterConfig.getInitParameter(name) ;
+        if ( str == null )
+            return dft ;
+        try {
+            long x = Long.parseLong(str.trim()) ;
+            if ( x < 0 )
+                throw new ServletException("Init-param '"+name+"': negative: "+str) ;
+            return x ;
+        } catch (NumberFormatException ex) {
+            throw new ServletException("Init-param '"+name+"': not a number: "+str) ;
+        }
+    }
+
+    private static DigestSessionStore createSessionStore(FilterConfig filterConfig) throws ServletException {
+        Map<String, String> settings = storeSettings(filterConfig) ;
+        try {
+            return DigestSessionStores.create(settings.get(sessionStoreInit), settings) ;
+        } catch (IllegalArgumentException | UncheckedIOException ex) {
+            throw new ServletException("Session store: "+ex.getMessage(), ex) ;
+        }
+    }
+
+    private static void checkSessionStore(FilterConfig filterConfig) throws ServletException {
+        Map<String, String> settings = storeSettings(filterConfig) ;
+        try {
+            DigestSessionStores.check(settings.get(sessionStoreInit), settings) ;
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException("Session store: "+ex.getMessage(), ex) ;
+        }
+    }
+
+    private static Map<String, String> storeSettings(FilterConfig filterConfig) {
+        Map<String, String> settings = new HashMap<>() ;
+        Enumeration<String> names = filterConfig.getInitParameterNames() ;
+        while(names.hasMoreElements()) {
+            String name = names.nextElement() ;
+            settings.put(name, filterConfig.getInitParameter(name)) ;
+        }
+        return settings ;
     }
 
     @Override
@@ -77,6 +429,12 @@ public class DigestFilter implements Filter {
         String url = httpRequest.getRequestURI() ;
         //httpRequest.getRequestURL() ;
         if ( urlPattern == null || urlPattern.matcher(url).matches() ) {
+            DigestHttp engine = ( registry != null ) ? registry.engineFor(httpRequest) : this.engine ;
+            if ( engine == null ) {
+                log.info("No realm "+url) ;
+                httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND) ;
+                return ;
+            }
             DigestHttp.AccessStatus status = engine.accessYesOrNo(httpRequest, httpResponse) ;
             log.info("Check "+url+" "+status);
             switch(status) {
@@ -95,8 +453,52 @@ public class DigestFilter implements Filter {
         chain.doFilter(request, response);
     }
 
+    /** End all active sessions of a user, in all realms. See {@link DigestHttp#revokeSessions}. */
+    public int revokeSessions(String username) {
+        return ( registry != null ) ? registry.revokeSessions(username) : engine.revokeSessions(username) ;
+    }
+
+    /** End all active sessions of a user in a routed realm, if that realm's engine is open. */
+    public int revokeSessions(String realm, String username) {
+        if ( registry == null )
+            return realm.equals(this.realm) ? engine.revokeSessions(username) : 0 ;
+        return registry.revokeSessions(realm, username) ;
+    }
+
     @Override
-    public void destroy() {}
+    public void destroy() {
+        if ( snapshotServer != null )
+            snapshotServer.close() ;
+        if ( engine != null && snapshotFile != null )
+            saveSessions(snapshotFile) ;
+        if ( engine != null )
+            engine.close() ;
+        if ( registry != null )
+            registry.close() ;
+        if ( noncePool != null )
+            noncePool.close() ;
+    }
+
+    // Write to a temporary file and move it into place so a reader never sees part of a snapshot.
+    private void saveSessions(Path file) {
+        Path tmp = file.resolveSibling(file.getFileName()+".tmp") ;
+        try {
+            try ( OutputStream out = Files.newOutputStream(tmp) ) {
+                engine.exportSessions(out) ;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+        } catch (IOException ex) {
+            log.warn("Session snapshot "+file+": "+ex.getMessage(), ex) ;
+        }
+    }
+
+    private static HtDigestFile parseHA1file(String fn) throws ServletException {
+        try {
+            return HtDigestFile.read(Paths.get(fn)) ;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ServletException("Failed to read H(A1) file: "+e.getMessage(), e) ;
+        }
+    }
 
     private static Map<String, String> parsePasswordfile(String fn) throws ServletException {
         Properties properties = new Properties();
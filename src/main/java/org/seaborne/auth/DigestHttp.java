@@ -21,15 +21,22 @@ package org.seaborne.auth;
 import static org.seaborne.auth.RFC2617.*;
 
 import java.io.IOException ;
+import java.io.InputStream ;
+import java.io.OutputStream ;
+import java.util.List ;
 import java.util.Map ;
 import java.util.Objects ;
-import java.util.UUID ;
 import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ScheduledFuture ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicLong ;
 
 import javax.servlet.ServletContext ;
 import javax.servlet.http.HttpServletRequest ;
 import javax.servlet.http.HttpServletResponse ;
 
+import dev.jetty.HttpNames ;
+import dev.jetty.HttpSC ;
 import org.apache.commons.lang3.StringUtils ;
 import org.slf4j.Logger ;
 import org.slf4j.LoggerFactory ;
@@ -52,7 +59,7 @@ import org.slf4j.LoggerFactory ;
  * </ol>
  * The advantage over basic authentication is that the password does not go over the network
  * in a way that an evesdropper can recover.  It is combined with other information and hashed
- * with MD5 or other comparable non-reversible hash function. (Only MD5 supported here.)
+ * with MD5 or other comparable non-reversible hash function (see {@link DigestAlgorithm}).
  * <p>
  * This class does not concern itself with how the password is obtained.
  * See operation {@link #getPassword(ServletContext, String)}.
@@ -62,6 +69,9 @@ import org.slf4j.LoggerFactory ;
  */
 
 public class DigestHttp {
+    /** Outcome of {@link DigestHttp#accessYesOrNo}: NO is followed by {@link DigestHttp#sendChallenge};
+     * for BAD, the response (400 or 429) has already been set.
+     */
     public enum AccessStatus { YES, NO, BAD }
 
     /** Log on a provided logger. */
@@ -73,21 +83,66 @@ public class DigestHttp {
     /** HTTP Authentication header, equal to <code>WWW-Authenticate</code> */
     protected static final String AUTHENTICATE_HEADER = "WWW-Authenticate";
 
+    /** HTTP header for information about a successful authentication, equal to <code>Authentication-Info</code> */
+    protected static final String AUTHENTICATION_INFO_HEADER = "Authentication-Info";
+
     /** The name of the scheme */
     private static String DIGEST_AUTH = HttpServletRequest.DIGEST_AUTH ;
 
-    // XXX Concurrency.
-
-    // Map from the opaque to valid credentials.
-    private Map<String, DigestSession> activeSessions = new ConcurrentHashMap<>() ;
+    // How often expired state is removed.
+    private static final long SWEEP_PERIOD = DigestSessionStores.TICK ;
 
     // The incomplete credentials are registered when the challenge is made.
-    // These are moved to the  activeSessions when first sucessfully used.
-    private Map<String, DigestSession> pendingSessions = new ConcurrentHashMap<>() ;
+    // These are made active when first sucessfully used.
+    // Active sessions are keyed by the opaque.
+    private final DigestSessionStore sessions ;
+
+    private final ScheduledFuture<?> sweeper ;
+
+    // Active sessions by username.
+    private final UserSessionIndex userSessions = new UserSessionIndex() ;
+
+    // Zero for no limit.
+    private volatile int maxSessionsPerUser = 0 ;
+
+    /** Default fraction of sessions removed when memory is short. */
+    public static final double DEFAULT_SHED_FRACTION = 0.25 ;
+
+    private final MemoryPressure.Registration<DigestHttp> memoryPressure ;
+    private volatile double shedFraction = DEFAULT_SHED_FRACTION ;
+    private final AtomicLong shedCount = new AtomicLong(0) ;
+
+    // If set, challenges are self-validating and are not recorded.
+    private volatile StatelessNonces statelessNonces = null ;
+    // Stateless sessions that have ended, and when their nonces stop being accepted.
+    // A captured response for one of these must not start the session again.
+    private final Map<String, Long> endedStateless = new ConcurrentHashMap<>() ;
+
+    private volatile NonceGenerator nonceGenerator = NonceGenerators.DEFAULT ;
+
+    /** Default time a session's nonce can be used before the client is asked to use a new one. */
+    public static final long DEFAULT_NONCE_MAX_AGE = TimeUnit.MINUTES.toMillis(10) ;
+    private volatile long nonceMaxAge = DEFAULT_NONCE_MAX_AGE ;
+    private volatile long nonceMaxUses = 0 ;
+    private volatile boolean nextNonceEnabled = true ;
+
+    private volatile ChallengeRateLimiter rateLimiter = null ;
+    private volatile FailureThrottle failureThrottle = null ;
+    private volatile ChallengeReuseWindow challengeReuse = null ;
+    private volatile HA1Cache ha1Cache = null ;
+
+    /** Request attribute: the session whose nonce was out of date, for {@link #sendChallenge}. */
+    private static final String STALE_ATTRIBUTE = DigestHttp.class.getName()+".stale" ;
 
     private final String realm ;
+    // Offered algorithms, in order of preference, and a challenge for each.
+    private volatile DigestAlgorithm[] algorithms = { DigestAlgorithm.MD5 } ;
+    private volatile boolean sessionAlgorithm = false ;
+    private volatile ChallengeTemplate[] challengeTemplates ;
 
+    // One of these is set.
     private final PasswordGetter passwordGetter;
+    private final HA1Getter ha1Getter ;
     /** Create a HTTP digest authentication engine : subclass must implement
      * {@link #getPassword} and {@link #getRealm}
      */
@@ -103,13 +158,338 @@ public class DigestHttp {
      * {@link #getPassword} and {@link #getRealm}
      */
     public DigestHttp(Logger log, String realm, PasswordGetter pwGetter) {
+        this(log, realm, pwGetter, DigestSessionStores.create()) ;
+    }
+
+    /** Create a HTTP digest authentication engine with a specific session store.
+     * @see DigestSessionStores
+     */
+    public DigestHttp(Logger log, String realm, PasswordGetter pwGetter, DigestSessionStore sessionStore) {
+        this(log, realm, pwGetter, sessionStore, true) ;
+    }
+
+    /** Create an engine; if {@code housekeeping} is false, the caller is responsible for
+     * calling {@link #sweep} periodically and {@link #shed} when memory is short.
+     * @see DigestHttpRegistry
+     */
+    DigestHttp(Logger log, String realm, PasswordGetter pwGetter, DigestSessionStore sessionStore, boolean housekeeping) {
+        this(log, realm, Objects.requireNonNull(pwGetter), null, sessionStore, housekeeping) ;
+    }
+
+    /** Create a HTTP digest authentication engine that checks requests against a stored H(A1)
+     * instead of a password.
+     * @see HtDigestFile
+     */
+    public DigestHttp(Logger log, String realm, HA1Getter ha1Getter, DigestSessionStore sessionStore) {
+        this(log, realm, ha1Getter, sessionStore, true) ;
+    }
+
+    DigestHttp(Logger log, String realm, HA1Getter ha1Getter, DigestSessionStore sessionStore, boolean housekeeping) {
+        this(log, realm, null, Objects.requireNonNull(ha1Getter), sessionStore, housekeeping) ;
+    }
+
+    private DigestHttp(Logger log, String realm, PasswordGetter pwGetter, HA1Getter ha1Getter, DigestSessionStore sessionStore, boolean housekeeping) {
         if ( log == null )
             log = LoggerFactory.getLogger(DigestHttp.class) ;
-        Objects.requireNonNull(pwGetter) ;
         Objects.requireNonNull(realm) ;
+        Objects.requireNonNull(sessionStore) ;
         this.realm = realm ;
+        this.challengeTemplates = new ChallengeTemplate[] { new ChallengeTemplate(realm) } ;
         this.passwordGetter = pwGetter ;
+        this.ha1Getter = ha1Getter ;
         this.log = log ;
+        this.sessions = sessionStore ;
+        sessions.setRemovalListener(this::removed) ;
+        // The store may already have sessions (e.g. a persistent store).
+        sessions.forEach(s -> userSessions.add(s.username, s.opaque, 0)) ;
+        this.sweeper = housekeeping ? Sweeper.schedule(this, DigestHttp::sweep, SWEEP_PERIOD) : null ;
+        this.memoryPressure = housekeeping ? MemoryPressure.register(this, DigestHttp::shed) : null ;
+    }
+
+    /** Stop background housekeeping for this engine and release the session store. */
+    public void close() {
+        if ( sweeper != null )
+            sweeper.cancel(false) ;
+        if ( memoryPressure != null )
+            memoryPressure.cancel() ;
+        sessions.close() ;
+    }
+
+    // Called when the heap is nearly full: remove pending challenges, then the
+    // least recently used sessions.
+    void shed() {
+        double fraction = shedFraction ;
+        if ( fraction <= 0 )
+            return ;
+        int target = (int)Math.ceil((sessions.pendingSize() + sessions.activeSize()) * fraction) ;
+        int pending = sessions.shedPending(target) ;
+        int active = sessions.shedActive(target - pending) ;
+        shedCount.addAndGet(pending + active) ;
+        if ( pending + active > 0 )
+            log.warn("Memory low: removed "+pending+" pending challenges and "+active+" active sessions") ;
+    }
+
+    // The store's removal listener: called with store locks held, so quick and no store calls.
+    private void removed(String opaque, String username) {
+        userSessions.remove(username, opaque) ;
+        StatelessNonces stateless = statelessNonces ;
+        if ( stateless != null )
+            endedStateless.put(opaque, stateless.acceptedUntil(System.currentTimeMillis())) ;
+    }
+
+    void sweep() {
+        long now = System.currentTimeMillis() ;
+        endedStateless.values().removeIf(until -> until < now) ;
+        int n = sessions.sweep(now) ;
+        if ( log.isDebugEnabled() && n > 0 )
+            log.debug("Expired "+n+" sessions and challenges") ;
+    }
+
+    public DigestSessionStore getSessionStore() {
+        return sessions ;
+    }
+
+    /** Use self-validating challenges: no server state is kept until a challenge is correctly answered,
+     * and a response can be checked by any engine with the same secret.
+     * Set to null to record challenges in the session store (the default).
+     */
+    public void setStatelessNonces(StatelessNonces statelessNonces) {
+        this.statelessNonces = statelessNonces ;
+    }
+
+    public StatelessNonces getStatelessNonces() {
+        return statelessNonces ;
+    }
+
+    /** Set how long, in milliseconds, the nonce of a session can be used. After that, a request
+     * with a correct digest gets a new challenge for the same session with {@code stale=true},
+     * which clients answer without asking the user again. Zero means no limit.
+     */
+    public void setNonceMaxAge(long millis) {
+        if ( millis < 0 )
+            throw new IllegalArgumentException("Negative nonce age: "+millis) ;
+        this.nonceMaxAge = millis ;
+    }
+
+    public long getNonceMaxAge() {
+        return nonceMaxAge ;
+    }
+
+    /** Set how many requests (by nonce count) can use one nonce; see {@link #setNonceMaxAge}.
+     * Zero means no limit. Requests without a nonce count (RFC 2069) are not limited.
+     */
+    public void setNonceMaxUses(long maxUses) {
+        if ( maxUses < 0 )
+            throw new IllegalArgumentException("Negative nonce uses: "+maxUses) ;
+        this.nonceMaxUses = maxUses ;
+    }
+
+    public long getNonceMaxUses() {
+        return nonceMaxUses ;
+    }
+
+    /** Whether to send a {@code nextnonce} in an {@code Authentication-Info} header once a nonce
+     * is half way to its maximum age or uses, so that clients that support it change nonce
+     * without a {@code stale=true} challenge. The default is true.
+     */
+    public void setNextNonce(boolean nextNonce) {
+        this.nextNonceEnabled = nextNonce ;
+    }
+
+    public boolean getNextNonce() {
+        return nextNonceEnabled ;
+    }
+
+    /** Limit the rate of new challenges for each client; null for no limit (the default).
+     * A client over the limit is sent 429 with {@code Retry-After}.
+     */
+    public void setChallengeRateLimiter(ChallengeRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter ;
+    }
+
+    public ChallengeRateLimiter getChallengeRateLimiter() {
+        return rateLimiter ;
+    }
+
+    /** Offer the session variants ({@code MD5-sess} etc.) of the algorithms. The session key is
+     * calculated when the challenge is answered and kept with the session, so later requests of
+     * the session are checked without the password (for session stores that keep the session
+     * object in memory). Clients that answer with the plain algorithm are still accepted.
+     */
+    public synchronized void setSessionAlgorithm(boolean sess) {
+        this.sessionAlgorithm = sess ;
+        this.challengeTemplates = challengeTemplates(realm, algorithms, sess) ;
+    }
+
+    public boolean getSessionAlgorithm() {
+        return sessionAlgorithm ;
+    }
+
+    /** Set the algorithms offered, most preferred first; there is one {@code WWW-Authenticate}
+     * header for each, in that order. The default is MD5 alone. A session is checked with the
+     * algorithm the client chose when answering the challenge.
+     */
+    public synchronized void setAlgorithms(DigestAlgorithm... algorithms) {
+        if ( algorithms.length == 0 )
+            throw new IllegalArgumentException("No digest algorithms") ;
+        DigestAlgorithm[] x = algorithms.clone() ;
+        for ( DigestAlgorithm a : x )
+            Objects.requireNonNull(a) ;
+        this.algorithms = x ;
+        this.challengeTemplates = challengeTemplates(realm, x, sessionAlgorithm) ;
+    }
+
+    public DigestAlgorithm[] getAlgorithms() {
+        return algorithms.clone() ;
+    }
+
+    private static ChallengeTemplate[] challengeTemplates(String realm, DigestAlgorithm[] algorithms, boolean sess) {
+        ChallengeTemplate[] templates = new ChallengeTemplate[algorithms.length] ;
+        for ( int i = 0 ; i < algorithms.length ; i++ ) {
+            DigestAlgorithm a = algorithms[i] ;
+            // Plain MD5 is the default when there is no "algorithm"; some old clients do not expect it.
+            String name = sess ? a.sessName() : ( a == DigestAlgorithm.MD5 ) ? null : a.algorithmName() ;
+            templates[i] = new ChallengeTemplate(realm, name) ;
+        }
+        return templates ;
+    }
+
+    private boolean offered(DigestAlgorithm algorithm) {
+        for ( DigestAlgorithm a : algorithms ) {
+            if ( a == algorithm )
+                return true ;
+        }
+        return false ;
+    }
+
+    /** Cache H(A1) for each user, so that the password is not fetched for every request; null for
+     * no cache (the default). Whatever supplies passwords must tell the cache when one changes.
+     * {@link #revokeSessions} also removes the user's entry.
+     */
+    public void setHA1Cache(HA1Cache ha1Cache) {
+        this.ha1Cache = ha1Cache ;
+    }
+
+    public HA1Cache getHA1Cache() {
+        return ha1Cache ;
+    }
+
+    /** Send the same challenge to a client for a short time, while it has not been answered,
+     * instead of a new challenge for each request; null to always send a new one (the default).
+     */
+    public void setChallengeReuseWindow(ChallengeReuseWindow challengeReuse) {
+        this.challengeReuse = challengeReuse ;
+    }
+
+    public ChallengeReuseWindow getChallengeReuseWindow() {
+        return challengeReuse ;
+    }
+
+    /** Lock out usernames and client addresses after repeated failed logins; null for no
+     * lockout (the default). A request that is locked out is sent 429 with {@code Retry-After}
+     * without the password being looked up.
+     */
+    public void setFailureThrottle(FailureThrottle failureThrottle) {
+        this.failureThrottle = failureThrottle ;
+    }
+
+    public FailureThrottle getFailureThrottle() {
+        return failureThrottle ;
+    }
+
+    /** Set the source of nonce and opaque values for challenges recorded in the session store.
+     * @throws IllegalArgumentException if the session store can not record the generator's values.
+     * @see DigestSessionStore#acceptsKey
+     */
+    public void setNonceGenerator(NonceGenerator nonceGenerator) {
+        Objects.requireNonNull(nonceGenerator) ;
+        String sample = nonceGenerator.generate() ;
+        if ( ! sessions.acceptsKey(sample) )
+            throw new IllegalArgumentException("Session store does not accept values from the nonce generator: '"+sample+"'") ;
+        this.nonceGenerator = nonceGenerator ;
+    }
+
+    public NonceGenerator getNonceGenerator() {
+        return nonceGenerator ;
+    }
+
+    /** Set the fraction of sessions removed each time the heap is nearly full.
+     * Zero turns this off. See {@link MemoryPressure} for when the heap is nearly full.
+     */
+    public void setShedFraction(double fraction) {
+        if ( fraction < 0 || fraction > 1 )
+            throw new IllegalArgumentException("Fraction must be between 0 and 1: "+fraction) ;
+        this.shedFraction = fraction ;
+    }
+
+    public double getShedFraction() {
+        return shedFraction ;
+    }
+
+    /** Total number of pending challenges and active sessions removed because memory was short. */
+    public long getShedCount() {
+        return shedCount.get() ;
+    }
+
+    /** Limit the number of active sessions of each user. When a user starts another
+     * session over the limit, their oldest sessions are ended. Zero means no limit.
+     */
+    public void setMaxSessionsPerUser(int maxSessionsPerUser) {
+        if ( maxSessionsPerUser < 0 )
+            throw new IllegalArgumentException("Negative session limit: "+maxSessionsPerUser) ;
+        this.maxSessionsPerUser = maxSessionsPerUser ;
+    }
+
+    public int getMaxSessionsPerUser() {
+        return maxSessionsPerUser ;
+    }
+
+    /** End all active sessions of a user, for example after the password has changed or
+     * the account has been disabled, and forget any cached H(A1). The user must answer a new challenge.
+     * @return the number of sessions ended.
+     */
+    public int revokeSessions(String username) {
+        HA1Cache cache = ha1Cache ;
+        if ( cache != null )
+            cache.invalidate(username, realm) ;
+        List<String> opaques = userSessions.removeAll(username) ;
+        opaques.forEach(sessions::remove) ;
+        if ( log.isDebugEnabled() && ! opaques.isEmpty() )
+            log.debug("Revoked "+opaques.size()+" sessions for "+username) ;
+        return opaques.size() ;
+    }
+
+    /** Write the active sessions to {@code out}, for {@link #importSessions} in another process.
+     * This runs on the caller's thread and does not stop requests.
+     * @return number of sessions written.
+     * @see SessionSnapshot
+     */
+    public long exportSessions(OutputStream out) throws IOException {
+        long n = SessionSnapshot.write(sessions, out) ;
+        log.info("Exported "+n+" sessions") ;
+        return n ;
+    }
+
+    /** Add the sessions written by {@link #exportSessions}.
+     * Sessions that the store already has, or can not take, are skipped.
+     * @return number of sessions added.
+     */
+    public long importSessions(InputStream in) throws IOException {
+        long[] added = { 0 } ;
+        long n = SessionSnapshot.read(in, session -> {
+            DigestSession active = sessions.activate(session) ;
+            if ( active != null && active.username.equals(session.username) ) {
+                userSessions.add(active.username, active.opaque, 0) ;
+                added[0]++ ;
+            }
+        }) ;
+        log.info("Imported "+added[0]+" of "+n+" sessions") ;
+        return added[0] ;
+    }
+
+    /** The opaques of the active sessions of a user, oldest first. */
+    public List<String> getSessions(String username) {
+        return userSessions.get(username) ;
     }
 
     /** The RFC 2617 algorithm for determining whether a request is acceptable or not.
@@ -148,18 +528,22 @@ public class DigestHttp {
             return AccessStatus.BAD ;
         }
 
-        // XXX CONCURRENECY
-
         String opaque = authHeader.opaque ;
 
-        DigestSession digestSession = null ;
-
-        if ( activeSessions.containsKey(opaque) ) {
-            digestSession = activeSessions.get(opaque) ;
-        } else if ( pendingSessions.containsKey(opaque) ) {
-            // This might be null due to another request
+        DigestSession digestSession = sessions.get(opaque) ;
+        StatelessNonces stateless = statelessNonces ;
+        if ( digestSession == null ) {
+            // A response to a challenge.
+            // This might be null due to another request or expiry
             // but we check below for null.
-            digestSession = pendingSessions.remove(opaque) ;
+            if ( stateless != null )
+                digestSession = fromStatelessChallenge(stateless, authHeader, request) ;
+            else {
+                digestSession = sessions.getPending(opaque) ;
+                // A concurrent request may have promoted it since the first lookup.
+                if ( digestSession == null )
+                    digestSession = sessions.get(opaque) ;
+            }
         }
 
         if ( digestSession == null ) {
@@ -177,6 +561,10 @@ public class DigestHttp {
         if ( ! digestSession.username.isEmpty() && ! digestSession.username.equals(authHeader.username) ) {
             if ( log.isDebugEnabled() )
                 log.debug("Username change: header="+authHeader.username+" : expected"+ digestSession.username) ;
+            // With a reuse window, users behind one address (NAT, proxy) can be sent the same
+            // challenge; all but the first to answer it get a challenge of their own.
+            if ( challengeReuse != null )
+                return AccessStatus.NO ;
             badRequest(request, response, "Different username in 'Authorization' header") ;
             return AccessStatus.BAD ;
         }
@@ -209,36 +597,191 @@ public class DigestHttp {
             return AccessStatus.NO ;
         }
 
-        String password = getPassword(servletContext, username) ;
-        if ( password == null ) {
+        // The nonce count. Without qop (RFC 2069) there is no nc.
+        long nc = -1 ;
+        if ( authHeader.qop != null ) {
+            nc = NonceCountWindow.parse(authHeader.nc) ;
+            if ( nc <= 0 ) {
+                if ( log.isDebugEnabled() )
+                    log.debug("Bad nc: "+authHeader.nc) ;
+                badRequest(request, response, "Bad 'nc' in 'Authorization' header") ;
+                return AccessStatus.BAD ;
+            }
+        }
+
+        // One of the algorithms offered, or its -sess variant if that is what is offered.
+        DigestAlgorithm algorithm = DigestAlgorithm.of(authHeader.algorithm) ;
+        boolean sess = isSess(authHeader.algorithm) ;
+        if ( algorithm == null || ! offered(algorithm) || ( sess && ! sessionAlgorithm ) ) {
             if ( log.isDebugEnabled() )
-                log.debug("No password for user '"+username+"'");
-            return AccessStatus.NO ;
+                log.debug("Unsupported algorithm: "+authHeader.algorithm) ;
+            badRequest(request, response, "Unsupported 'algorithm' in 'Authorization' header") ;
+            return AccessStatus.BAD ;
+        }
+        // The session's H(A1) and session key are for the algorithm it started with.
+        DigestAlgorithm sessionAlg = digestSession.algorithm ;
+        if ( sessionAlg != null && sessionAlg != algorithm ) {
+            if ( log.isDebugEnabled() )
+                log.debug("Algorithm changed: "+sessionAlg+" to "+algorithm) ;
+            badRequest(request, response, "Different 'algorithm' in 'Authorization' header") ;
+            return AccessStatus.BAD ;
         }
 
-        if ( log.isDebugEnabled() )
-            //log.debug("Attempt: User = " + username + " : Password = " + password);
-            log.debug("Attempt: User = " + username);
+        FailureThrottle throttle = failureThrottle ;
+        String clientAddress = ( throttle == null ) ? null : throttle.clientAddress(request) ;
+        // Refuse a locked out user or client before any password lookup or hashing.
+        if ( throttle != null ) {
+            long retryAfter = throttle.lockedFor(username, clientAddress) ;
+            if ( retryAfter > 0 ) {
+                if ( log.isDebugEnabled() )
+                    log.debug("Locked out: "+username+" from "+clientAddress) ;
+                response.setHeader(HttpNames.hRetryAfter, Long.toString(retryAfter)) ;
+                noBody(response, HttpSC.TOO_MANY_REQUESTS_429) ;
+                return AccessStatus.BAD ;
+            }
+        }
 
-        String digestCalc = calcDigestResponse(authHeader, password) ;
-        String digestRequest = authHeader.response ;
+        // An out of date nonce is handled without looking up the password.
+        boolean challengeResponse = StringUtils.isEmpty(digestSession.username) ;
+        // The client has started using the nextnonce sent with an earlier response.
+        boolean usesNextNonce = false ;
+        String currentNonce = digestSession.nonce ;
+        if ( ! currentNonce.equals(authHeader.nonce) ) {
+            if ( challengeResponse ) {
+                if ( log.isDebugEnabled() )
+                    log.debug("accessYesOrNo: Nonce does not match challenge") ;
+                return AccessStatus.NO ;
+            }
+            if ( ! authHeader.nonce.equals(digestSession.nextNonce) )
+                return staleNonce(request, digestSession, authHeader, algorithm, throttle, clientAddress) ;
+            usesNextNonce = true ;
+        }
+        if ( ! challengeResponse && ! usesNextNonce && nonceExpired(digestSession, nc, System.currentTimeMillis()) )
+            return staleNonce(request, digestSession, authHeader, algorithm, throttle, clientAddress) ;
 
-        if ( ! digestCalc.equals(digestRequest) ) {
-            // Remove all.
-            pendingSessions.remove(opaque) ;
-            activeSessions.remove(opaque) ;
-            if ( log.isDebugEnabled() )
-                log.debug("Digest does not match");
-            return AccessStatus.NO ;
+        String ha1 ;
+        // MD5-sess after the first request: the session key is known, or calculated from the
+        // session's H(A1), and the password is not needed.
+        String sessionHA1 = ( sess && ! challengeResponse ) ? digestSession.ha1 : null ;
+        if ( sessionHA1 != null ) {
+            // RFC 2617 3.2.2.2: the session key is calculated once, with the nonce and cnonce of the
+            // first request for a nonce; later requests with that nonce use it, whatever their cnonce.
+            // Some clients calculate it again for each cnonce, so that is tried as well.
+            DigestSession.SessionKey key = digestSession.sessionKey ;
+            boolean verified = ( key != null && key.isFor(authHeader.nonce) )
+                ? DigestVerifier.verifySessionKey(authHeader, key.key)
+                  || ( ! key.cnonce.equals(authHeader.cnonce) && DigestVerifier.verifyHA1(authHeader, sessionHA1) )
+                : DigestVerifier.verifyHA1(authHeader, sessionHA1) ;
+            if ( ! verified )
+                return digestMismatch(opaque, username, throttle, clientAddress) ;
+            ha1 = sessionHA1 ;
+        } else {
+            // With a cached H(A1), the password is not needed.
+            HA1Cache cache = ha1Cache ;
+            ha1 = ( cache == null ) ? null : cache.get(username, authHeader.realm, algorithm) ;
+            if ( ha1 == null || ! DigestVerifier.verifyHA1(authHeader, ha1) ) {
+                // Not cached, or cached from a password that has since changed.
+                long generation = ( cache == null ) ? 0 : cache.generation() ;
+                String stored = null ;
+                String password = null ;
+                if ( ha1Getter != null )
+                    stored = getHA1(servletContext, username, authHeader.realm, algorithm) ;
+                else
+                    password = getPassword(servletContext, username) ;
+                if ( stored == null && password == null ) {
+                    if ( throttle != null )
+                        throttle.failure(username, clientAddress) ;
+                    if ( log.isDebugEnabled() )
+                        log.debug("No password for user '"+username+"'");
+                    return AccessStatus.NO ;
+                }
+
+                if ( log.isDebugEnabled() )
+                    //log.debug("Attempt: User = " + username + " : Password = " + password);
+                    log.debug("Attempt: User = " + username);
+
+                boolean verified = ( stored != null ) ? DigestVerifier.verifyHA1(authHeader, stored)
+                                                      : DigestVerifier.verify(authHeader, password) ;
+                if ( ! verified )
+                    return digestMismatch(opaque, username, throttle, clientAddress) ;
+                if ( stored != null )
+                    ha1 = stored ;
+                else {
+                    // H(A1) from the verify above, on this thread. A new string only when it has changed.
+                    DigestVerifier verifier = DigestVerifier.forAlgorithm(algorithm) ;
+                    ha1 = verifier.ha1Equals(digestSession.ha1) ? digestSession.ha1 : verifier.ha1() ;
+                }
+                if ( cache != null )
+                    cache.put(username, authHeader.realm, algorithm, ha1, generation) ;
+            }
         }
 
-        boolean challengeResponse = StringUtils.isEmpty(digestSession.username) ;
         if ( challengeResponse ) {
             // First time - complete digestSession details.
-            digestSession.username = username ;
-            activeSessions.put(opaque, digestSession) ;
+            // The session is indexed before it is activated, so that a removal or revokeSessions
+            // while it is being activated finds it. End the user's oldest sessions if this one
+            // takes them over the limit.
+            List<String> evicted = userSessions.add(username, opaque, maxSessionsPerUser) ;
+            evicted.forEach(sessions::remove) ;
+            if ( stateless != null ) {
+                digestSession.username = username ;
+                digestSession = sessions.activate(digestSession) ;
+                if ( digestSession != null && ! username.equals(digestSession.username) )
+                    digestSession = null ;
+                else if ( digestSession != null && endedStateless.containsKey(opaque) ) {
+                    // Ended since the lookup.
+                    sessions.remove(opaque) ;
+                    digestSession = null ;
+                }
+            } else
+                digestSession = sessions.promote(opaque, username) ;
+            if ( digestSession == null ) {
+                // Expired, or removed by another request, since the lookup.
+                // Undo the index entry unless a concurrent request activated the session.
+                DigestSession current = sessions.get(opaque) ;
+                if ( current == null || ! username.equals(current.username) )
+                    userSessions.remove(username, opaque) ;
+                if ( log.isDebugEnabled() )
+                    log.debug("accessYesOrNo: Challenge no longer pending");
+                return AccessStatus.NO ;
+            }
+            if ( ! userSessions.contains(username, opaque) ) {
+                // Revoked, or ended by a newer session of the user, while being activated.
+                sessions.remove(opaque) ;
+                if ( log.isDebugEnabled() )
+                    log.debug("accessYesOrNo: Session ended while being activated");
+                return AccessStatus.NO ;
+            }
+        }
+
+        // Switch to the next nonce, which starts a new nonce count. A concurrent request may
+        // have already switched.
+        if ( usesNextNonce )
+            sessions.renewNonce(digestSession, currentNonce, authHeader.nonce, System.currentTimeMillis()) ;
+
+        // Replay check, after the digest so that a bad request can not use up nc values.
+        if ( nc > 0 && ! sessions.acceptNonceCount(digestSession, nc) ) {
+            if ( log.isDebugEnabled() )
+                log.debug("accessYesOrNo: nc already used: "+authHeader.nc) ;
+            return AccessStatus.NO ;
         }
 
+        if ( ! challengeResponse )
+            sessions.touch(digestSession, System.currentTimeMillis()) ;
+        if ( ! ha1.equals(digestSession.ha1) )
+            digestSession.ha1 = ha1 ;
+        if ( sessionAlg == null )
+            digestSession.algorithm = algorithm ;
+        if ( sess ) {
+            // The session key was calculated by the verify above, on this thread, unless it was already
+            // known for this nonce. It is replaced only when the nonce changes.
+            DigestSession.SessionKey key = digestSession.sessionKey ;
+            if ( key == null || ! key.isFor(authHeader.nonce) )
+                digestSession.sessionKey = new DigestSession.SessionKey(authHeader.nonce, authHeader.cnonce, DigestVerifier.forAlgorithm(algorithm).sessionKey()) ;
+        }
+        if ( nextNonceEnabled && ! usesNextNonce )
+            sendNextNonce(digestSession, nc, response) ;
+
         if ( log.isDebugEnabled() ) {
             //log.debug("request: "+httpRequest.getRequestURI());
             log.debug("User "+digestSession.username+" authorized") ;
@@ -246,6 +789,97 @@ public class DigestHttp {
         return AccessStatus.YES ;
     }
 
+    private AccessStatus digestMismatch(String opaque, String username, FailureThrottle throttle, String clientAddress) {
+        // Remove all. Not for stateless challenges: the opaque and nonce would still be valid, and
+        // the session would be built again, with no record of the nonce counts already used.
+        if ( statelessNonces == null )
+            sessions.remove(opaque) ;
+        if ( throttle != null )
+            throttle.failure(username, clientAddress) ;
+        if ( log.isDebugEnabled() )
+            log.debug("Digest does not match");
+        return AccessStatus.NO ;
+    }
+
+    // Past half its life, the nonce is followed by a "nextnonce" for the client to change to
+    // before it expires, which saves the round trip of a stale=true challenge.
+    private void sendNextNonce(DigestSession session, long nc, HttpServletResponse response) {
+        long maxAge = nonceMaxAge ;
+        long maxUses = nonceMaxUses ;
+        boolean halfLife = ( maxAge > 0 && System.currentTimeMillis() - session.nonceIssued >= maxAge/2 )
+                        || ( maxUses > 0 && nc >= (maxUses+1)/2 ) ;
+        if ( ! halfLife )
+            return ;
+        String next = session.nextNonce ;
+        if ( next == null )
+            next = sessions.offerNextNonce(session, session.nonce, nonceGenerator.generate()) ;
+        if ( next != null )
+            response.setHeader(AUTHENTICATION_INFO_HEADER, "nextnonce=\""+next+"\"") ;
+    }
+
+    private boolean nonceExpired(DigestSession session, long nc, long now) {
+        long maxAge = nonceMaxAge ;
+        long maxUses = nonceMaxUses ;
+        return ( maxAge > 0 && now - session.nonceIssued >= maxAge )
+            || ( maxUses > 0 && nc > maxUses ) ;
+    }
+
+    // The nonce is out of date, or has been replaced, but the request is otherwise for this session.
+    // The digest is checked with the H(A1) of the last good request when the session has it,
+    // otherwise (a store that does not keep H(A1)) with the user's H(A1) or password, so only a
+    // client with the credentials is told to retry. sendChallenge then issues a new nonce with stale=true.
+    private AccessStatus staleNonce(HttpServletRequest request, DigestSession session, AuthResponseHeader authHeader,
+                                    DigestAlgorithm algorithm, FailureThrottle throttle, String clientAddress) {
+        String ha1 = session.ha1 ;
+        // A -sess client that kept the session key for the old nonce.
+        DigestSession.SessionKey key = session.sessionKey ;
+        boolean verified = ( key != null && key.isFor(authHeader.nonce) && DigestVerifier.verifySessionKey(authHeader, key.key) )
+                           || ( ( ha1 != null ) ? DigestVerifier.verifyHA1(authHeader, ha1)
+                                                : verifyCredentials(request.getServletContext(), authHeader, algorithm) ) ;
+        if ( ! verified ) {
+            if ( throttle != null )
+                throttle.failure(authHeader.username, clientAddress) ;
+            if ( log.isDebugEnabled() )
+                log.debug("accessYesOrNo: Stale nonce, digest does not match") ;
+            return AccessStatus.NO ;
+        }
+        if ( log.isDebugEnabled() )
+            log.debug("accessYesOrNo: Stale nonce") ;
+        request.setAttribute(STALE_ATTRIBUTE, session) ;
+        return AccessStatus.NO ;
+    }
+
+    // Check the digest with the user's cached or stored H(A1), or password.
+    // False if the user has none.
+    private boolean verifyCredentials(ServletContext servletContext, AuthResponseHeader authHeader, DigestAlgorithm algorithm) {
+        HA1Cache cache = ha1Cache ;
+        String cached = ( cache == null ) ? null : cache.get(authHeader.username, authHeader.realm, algorithm) ;
+        if ( cached != null && DigestVerifier.verifyHA1(authHeader, cached) )
+            return true ;
+        if ( ha1Getter != null ) {
+            String stored = getHA1(servletContext, authHeader.username, authHeader.realm, algorithm) ;
+            return stored != null && DigestVerifier.verifyHA1(authHeader, stored) ;
+        }
+        String password = getPassword(servletContext, authHeader.username) ;
+        return password != null && DigestVerifier.verify(authHeader, password) ;
+    }
+
+    // The session for a response to a stateless challenge, or null if the opaque and nonce are not valid.
+    private DigestSession fromStatelessChallenge(StatelessNonces stateless, AuthResponseHeader authHeader, HttpServletRequest request) {
+        if ( ! stateless.verify(getRealm(), authHeader.opaque, authHeader.nonce, System.currentTimeMillis()) ) {
+            if ( log.isDebugEnabled() )
+                log.debug("accessYesOrNo: Stateless challenge not valid");
+            return null ;
+        }
+        if ( endedStateless.containsKey(authHeader.opaque) ) {
+            if ( log.isDebugEnabled() )
+                log.debug("accessYesOrNo: Stateless session has ended");
+            return null ;
+        }
+        long issued = StatelessNonces.issueTime(authHeader.nonce) ;
+        return new DigestSession(authHeader.opaque, "", getRealm(), request.getMethod(), request.getRequestURI(), authHeader.nonce, issued) ;
+    }
+
     /** Return the session credentials keyed by {@code opaque}.
      * This is valid only after the first response to a challenga has been validated.
      * It does not return partial credentials.
@@ -253,13 +887,17 @@ public class DigestHttp {
      * @return DigestSession
      */
     public DigestSession getCredentials(String opaque) {
-        return activeSessions.get(opaque) ;
+        return sessions.get(opaque) ;
     }
 
     protected String getPassword(ServletContext servletContext, String username) {
         return passwordGetter.getPassword(servletContext, username) ;
     }
 
+    protected String getHA1(ServletContext servletContext, String username, String realm, DigestAlgorithm algorithm) {
+        return ha1Getter.getHA1(servletContext, username, realm, algorithm) ;
+    }
+
     private String getRealm() {
         return realm ;
     }
@@ -269,24 +907,109 @@ public class DigestHttp {
         if (log.isDebugEnabled()) {
             log.debug("Sending 401 authentication challenge response.");
         }
-        String newNonce = genString() ;
-        String newOpaque = genString() ;
+        Object stale = request.getAttribute(STALE_ATTRIBUTE) ;
+        if ( stale instanceof DigestSession && sendStaleChallenge((DigestSession)stale, response) )
+            return ;
+        StatelessNonces stateless = statelessNonces ;
+        ChallengeReuseWindow reuse = challengeReuse ;
+        String clientAddress = null ;
+        if ( reuse != null ) {
+            clientAddress = reuse.clientAddress(request) ;
+            ChallengeReuseWindow.Challenge recent = reuse.get(clientAddress, System.currentTimeMillis()) ;
+            if ( recent != null ) {
+                // Not if it has been answered, or the pending challenge has gone.
+                boolean unanswered = ( stateless != null ) ? sessions.get(recent.opaque) == null
+                                                           : sessions.getPending(recent.opaque) != null ;
+                if ( unanswered ) {
+                    reuse.reused() ;
+                    setChallenge(response, recent.nonce, recent.opaque, false) ;
+                    return ;
+                }
+                reuse.remove(recent) ;
+            }
+        }
+        ChallengeRateLimiter limiter = rateLimiter ;
+        if ( limiter != null ) {
+            long retryAfter = limiter.acquire(request) ;
+            if ( retryAfter > 0 ) {
+                if ( log.isDebugEnabled() )
+                    log.debug("Too many challenges: 429") ;
+                response.setHeader(HttpNames.hRetryAfter, Long.toString(retryAfter)) ;
+                noBody(response, HttpSC.TOO_MANY_REQUESTS_429) ;
+                return ;
+            }
+        }
+        if ( stateless != null ) {
+            long now = System.currentTimeMillis() ;
+            String newOpaque = stateless.newOpaque(getRealm()) ;
+            String newNonce = stateless.newNonce(getRealm(), newOpaque, now) ;
+            if ( reuse != null )
+                reuse.put(clientAddress, newNonce, newOpaque, now) ;
+            setChallenge(response, newNonce, newOpaque, false) ;
+            return ;
+        }
+
+        NonceGenerator generator = nonceGenerator ;
+        String newNonce = generator.generate() ;
+        String newOpaque = generator.generate() ;
 
         // This is what we are expecting.
         // No user or password at this point.
         DigestSession perm = new DigestSession(newOpaque, getRealm(), request.getMethod(), request.getRequestURI(), newNonce) ;
-        pendingSessions.put(newOpaque, perm) ;
+        if ( ! sessions.putPending(perm) ) {
+            // Full, and configured not to drop older challenges.
+            if ( log.isDebugEnabled() )
+                log.debug("Pending challenge table full: 503") ;
+            response.setHeader(HttpNames.hRetryAfter, Long.toString(retryAfterSeconds())) ;
+            noBody(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE) ;
+            return ;
+        }
+        if ( reuse != null )
+            reuse.put(clientAddress, perm.nonce, perm.opaque, System.currentTimeMillis()) ;
+        setChallenge(response, perm.nonce, perm.opaque, false) ;
+    }
 
-        String x = "Digest realm="+perm.realm
-            +       " , qop=\"auth\""
-            +       " , nonce=\""+perm.nonce+"\""
-            +       " , opaque=\""+perm.opaque+"\""
-            ;
-        if ( log.isDebugEnabled() )
-            log.debug("Challenge: "+x);
+    // Challenge with a new nonce for an existing session.
+    // Returns false if the session has gone, in which case a new session is needed.
+    private boolean sendStaleChallenge(DigestSession session, HttpServletResponse response) {
+        long now = System.currentTimeMillis() ;
+        String nonce = session.nonce ;
+        // If another request has already renewed the nonce, the client is sent that one.
+        long nextNc = (session.nonceCounts.get() >>> 32) + 1 ;
+        if ( nonceExpired(session, nextNc, now) ) {
+            String newNonce = nonceGenerator.generate() ;
+            if ( sessions.renewNonce(session, nonce, newNonce, now) )
+                nonce = newNonce ;
+            else {
+                DigestSession current = sessions.get(session.opaque) ;
+                if ( current == null )
+                    return false ;
+                nonce = current.nonce ;
+            }
+        }
+        setChallenge(response, nonce, session.opaque, true) ;
+        return true ;
+    }
 
-        response.setHeader(AUTHENTICATE_HEADER, x) ;
-        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+    private void setChallenge(HttpServletResponse response, String nonce, String opaque, boolean stale) {
+        ChallengeTemplate[] templates = challengeTemplates ;
+        for ( int i = 0 ; i < templates.length ; i++ ) {
+            String x = templates[i].render(nonce, opaque, stale) ;
+            if ( log.isDebugEnabled() )
+                log.debug("Challenge: "+x);
+            if ( i == 0 )
+                response.setHeader(AUTHENTICATE_HEADER, x) ;
+            else
+                response.addHeader(AUTHENTICATE_HEADER, x) ;
+        }
+        noBody(response, HttpServletResponse.SC_UNAUTHORIZED) ;
+    }
+
+    // A response with no body, not passed to the container's error page handling,
+    // so that it is small and the connection is kept open.
+    private static void noBody(HttpServletResponse response, int status) {
+        response.setStatus(status) ;
+        response.setContentLength(0) ;
     }
 
     /** From the challenge response ("Authorization" header), and password, calculate the response.field.
@@ -295,37 +1018,57 @@ public class DigestHttp {
      * Method and URI are taken from the AuthHeader
      */
     public static String calcDigestResponse(AuthResponseHeader auth, String password) {
-        String a1 = A1_MD5(auth.username, auth.realm, password) ;
+        return calcDigestResponseHA1(auth, algorithm(auth.algorithm).H(A1_MD5(auth.username, auth.realm, password))) ;
+    }
+
+    /** As {@link #calcDigestResponse}, given H(username:realm:password) instead of the password. */
+    public static String calcDigestResponseHA1(AuthResponseHeader auth, String ha1) {
+        DigestAlgorithm alg = algorithm(auth.algorithm) ;
+        if ( isSess(auth.algorithm) )
+            ha1 = alg.H(ha1+":"+auth.nonce+":"+auth.cnonce) ;
         if ( auth.qop == null ) {
             // RFC 2069
             // Firefox seems to prefer this form??
-            return KD(H(a1), auth.nonce+":"+H(A2_auth(auth.method, auth.uri))) ;
+            return alg.KD(ha1, auth.nonce+":"+alg.H(A2_auth(auth.method, auth.uri))) ;
         }
         else {
             Objects.nonNull(auth.cnonce) ;
             Objects.nonNull(auth.nc) ;
-            return KD(H(a1),
-                      auth.nonce+":"+auth.nc+":"+auth.cnonce+":"+auth.qop+":"+H(A2_auth(auth.method, auth.uri))
-                    ) ;
+            return alg.KD(ha1,
+                          auth.nonce+":"+auth.nc+":"+auth.cnonce+":"+auth.qop+":"+alg.H(A2_auth(auth.method, auth.uri))
+                        ) ;
         }
     }
     /** From the challenge, username and password, calculate the response.field. */
     public static String calcDigestChallengeResponse(AuthChallengeHeader auth, String username, String password, String cnonce, String nc, String authType) {
-        String a1 = A1_MD5(username, auth.realm, password) ;
+        DigestAlgorithm alg = algorithm(auth.algorithm) ;
+        String ha1 = alg.H(A1_MD5(username, auth.realm, password)) ;
+        if ( isSess(auth.algorithm) ) {
+            Objects.requireNonNull(auth.nonce) ;
+            Objects.requireNonNull(cnonce) ;
+            ha1 = alg.H(ha1+":"+auth.nonce+":"+cnonce) ;
+        }
         if ( auth.qop == null ) {
             // RFC 2069
             // Firefox seems to prefer this form??
-            return KD(H(a1), auth.nonce+":"+H(A2_auth(auth.method, auth.uri))) ;
+            return alg.KD(ha1, auth.nonce+":"+alg.H(A2_auth(auth.method, auth.uri))) ;
         }
         else {
             Objects.nonNull(cnonce) ;
             Objects.nonNull(nc) ;
-            return KD(H(a1),
-                      auth.nonce+":"+nc+":"+cnonce+":"+authType+":"+H(A2_auth(auth.method, auth.uri))
-                    ) ;
+            return alg.KD(ha1,
+                          auth.nonce+":"+nc+":"+cnonce+":"+authType+":"+alg.H(A2_auth(auth.method, auth.uri))
+                        ) ;
         }
     }
 
+    private static DigestAlgorithm algorithm(String name) {
+        DigestAlgorithm alg = DigestAlgorithm.of(name) ;
+        if ( alg == null )
+            throw new IllegalArgumentException("Unsupported digest algorithm: "+name) ;
+        return alg ;
+    }
+
     /**
      * Returns the {@link #AUTHORIZATION_HEADER AUTHORIZATION_HEADER} from the specified HttpServletRequest.
      */
@@ -333,13 +1076,15 @@ public class DigestHttp {
         return request.getHeader(AUTHORIZATION_HEADER);
     }
 
-    // Generate unguessable hex strings
-    private static String genString() { return  UUID.randomUUID().toString().replaceAll("-",  "") ; }
+    // When the oldest outstanding challenge will have expired.
+    private long retryAfterSeconds() {
+        long millis = sessions.retryAfter(System.currentTimeMillis()) ;
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999)) ;
+    }
 
     private void badRequest(HttpServletRequest request, HttpServletResponse response, String message) {
-        try { response.sendError(HttpServletResponse.SC_BAD_REQUEST, message); }
-        catch (IOException e) {
-            log.warn("Exception on sending 400: "+e.getMessage());
-        }
+        if ( log.isDebugEnabled() )
+            log.debug("400: "+message) ;
+        noBody(response, HttpServletResponse.SC_BAD_REQUEST) ;
     }
 }
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Locale ;
+import java.util.Objects ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ScheduledFuture ;
+import java.util.concurrent.TimeUnit ;
+import java.util.function.Consumer ;
+import java.util.function.Function ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Digest engines for many realms, one per realm.
+ * <p>
+ * A {@link Router} picks the realm for a request, for example from the host name or
+ * the first path segment. The engine for a realm is created on first use and closed
+ * again when it has not been used for the idle timeout and has no active sessions.
+ * The realm comes from the request, so only the {@link #setAllowedRealms allowed realms}
+ * get an engine, and there are at most {@link #setMaxEngines maxEngines} at once;
+ * otherwise a request for a made-up realm would cost a session store.
+ * <p>
+ * The engines do not schedule their own housekeeping: the registry sweeps all of
+ * them in one task and sheds sessions from all of them when memory is short, so an
+ * engine costs its session store and little else.
+ */
+public class DigestHttpRegistry implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DigestHttpRegistry.class) ;
+
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(1) ;
+    public static final int DEFAULT_MAX_ENGINES = 1000 ;
+
+    /** Choose the realm for a request. */
+    @FunctionalInterface
+    public interface Router {
+        /** The realm, or null if the request is not for any realm. */
+        String realm(HttpServletRequest request) ;
+    }
+
+    /** Route by the host name of the request, in lower case. */
+    public static Router byHost() {
+        return request -> {
+            String host = request.getServerName() ;
+            return ( host == null || host.isEmpty() ) ? null : host.toLowerCase(Locale.ROOT) ;
+        } ;
+    }
+
+    /** Route by the first path segment after the context path: {@code /tenant/...} is realm "tenant". */
+    public static Router byPathPrefix() {
+        return request -> {
+            String path = request.getRequestURI() ;
+            String context = request.getContextPath() ;
+            if ( path == null )
+                return null ;
+            if ( context != null && path.startsWith(context) )
+                path = path.substring(context.length()) ;
+            int start = path.startsWith("/") ? 1 : 0 ;
+            int end = path.indexOf('/', start) ;
+            String segment = ( end < 0 ) ? path.substring(start) : path.substring(start, end) ;
+            return segment.isEmpty() ? null : segment ;
+        } ;
+    }
+
+    private static class Entry {
+        final DigestHttp engine ;
+        volatile long lastUsed ;
+
+        Entry(DigestHttp engine, long now) {
+            this.engine = engine ;
+            this.lastUsed = now ;
+        }
+    }
+
+    private final Router router ;
+    // One of these is set.
+    private final Function<String, PasswordGetter> passwords ;
+    private final Function<String, HA1Getter> ha1s ;
+    private final Function<String, DigestSessionStore> stores ;
+    private final ConcurrentHashMap<String, Entry> engines = new ConcurrentHashMap<>() ;
+    private volatile Consumer<DigestHttp> setup = null ;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT ;
+    private volatile Set<String> allowedRealms = Collections.emptySet() ;
+    private volatile int maxEngines = DEFAULT_MAX_ENGINES ;
+    private final ScheduledFuture<?> sweeper ;
+    private final MemoryPressure.Registration<DigestHttpRegistry> memoryPressure ;
+
+    /**
+     * @param router     Realm for a request
+     * @param passwords  Password lookup for a realm
+     * @param stores     New session store for a realm
+     */
+    public DigestHttpRegistry(Router router, Function<String, PasswordGetter> passwords, Function<String, DigestSessionStore> stores) {
+        this(router, Objects.requireNonNull(passwords), null, stores) ;
+    }
+
+    /** A registry whose engines check requests against a stored H(A1); see {@link HA1Getter}.
+     * @param router     Realm for a request
+     * @param ha1s       H(A1) lookup for a realm
+     * @param stores     New session store for a realm
+     */
+    public static DigestHttpRegistry withHA1(Router router, Function<String, HA1Getter> ha1s, Function<String, DigestSessionStore> stores) {
+        return new DigestHttpRegistry(router, null, Objects.requireNonNull(ha1s), stores) ;
+    }
+
+    private DigestHttpRegistry(Router router, Function<String, PasswordGetter> passwords, Function<String, HA1Getter> ha1s,
+                               Function<String, DigestSessionStore> stores) {
+        this.router = router ;
+        this.passwords = passwords ;
+        this.ha1s = ha1s ;
+        this.stores = stores ;
+        this.sweeper = Sweeper.schedule(this, DigestHttpRegistry::sweep, DigestSessionStores.TICK) ;
+        this.memoryPressure = MemoryPressure.register(this, DigestHttpRegistry::shed) ;
+    }
+
+    /** Called with each new engine before it is used, for example to set a shared
+     * {@link StatelessNonces} (the realm is part of each nonce, so one can serve all realms).
+     */
+    public void setEngineSetup(Consumer<DigestHttp> setup) {
+        this.setup = setup ;
+    }
+
+    /** The realms that may have an engine; a request for any other realm gets none.
+     * There are none until this is called. Null allows every realm, limited only by {@link #setMaxEngines}.
+     */
+    public void setAllowedRealms(Set<String> realms) {
+        this.allowedRealms = ( realms == null ) ? null : Collections.unmodifiableSet(new HashSet<>(realms)) ;
+    }
+
+    /** The allowed realms, or null for any. */
+    public Set<String> getAllowedRealms() {
+        return allowedRealms ;
+    }
+
+    /** The most engines open at once; a request for a new realm beyond this gets none. */
+    public void setMaxEngines(int maxEngines) {
+        if ( maxEngines <= 0 )
+            throw new IllegalArgumentException("Maximum engines must be positive: "+maxEngines) ;
+        this.maxEngines = maxEngines ;
+    }
+
+    public int getMaxEngines() {
+        return maxEngines ;
+    }
+
+    /** Close an engine after this long without a request, if it has no active sessions. */
+    public void setIdleTimeout(long millis) {
+        if ( millis <= 0 )
+            throw new IllegalArgumentException("Idle timeout must be positive: "+millis) ;
+        this.idleTimeout = millis ;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout ;
+    }
+
+    /** The engine for a request, or null if the router gives no realm, or no engine can be had for it. */
+    public DigestHttp engineFor(HttpServletRequest request) {
+        String realm = router.realm(request) ;
+        return ( realm == null ) ? null : engine(realm) ;
+    }
+
+    /** The engine for a realm, created if necessary.
+     * @return the engine, or null if the realm is not allowed or there are already {@link #getMaxEngines} engines.
+     */
+    public DigestHttp engine(String realm) {
+        Set<String> allowed = allowedRealms ;
+        if ( allowed != null && ! allowed.contains(realm) ) {
+            if ( log.isDebugEnabled() )
+                log.debug("Realm "+realm+": not allowed") ;
+            return null ;
+        }
+        long now = System.currentTimeMillis() ;
+        Entry entry = engines.get(realm) ;
+        if ( entry == null ) {
+            entry = engines.computeIfAbsent(realm, r -> ( engines.size() >= maxEngines ) ? null : new Entry(create(r), now)) ;
+            if ( entry == null ) {
+                log.warn("Realm "+realm+": already "+engines.size()+" engines") ;
+                return null ;
+            }
+        }
+        if ( entry.lastUsed != now )
+            entry.lastUsed = now ;
+        return entry.engine ;
+    }
+
+    private DigestHttp create(String realm) {
+        DigestHttp engine = ( passwords != null )
+            ? new DigestHttp(null, realm, passwords.apply(realm), stores.apply(realm), false)
+            : new DigestHttp(null, realm, ha1s.apply(realm), stores.apply(realm), false) ;
+        Consumer<DigestHttp> s = setup ;
+        if ( s != null )
+            s.accept(engine) ;
+        log.debug("Realm "+realm+": engine created") ;
+        return engine ;
+    }
+
+    /** Number of engines currently open. */
+    public int size() {
+        return engines.size() ;
+    }
+
+    /** End all active sessions of a user in one realm. */
+    public int revokeSessions(String realm, String username) {
+        Entry entry = engines.get(realm) ;
+        return ( entry == null ) ? 0 : entry.engine.revokeSessions(username) ;
+    }
+
+    /** End all active sessions of a user in every realm. */
+    public int revokeSessions(String username) {
+        int n = 0 ;
+        for ( Entry entry : engines.values() )
+            n += entry.engine.revokeSessions(username) ;
+        return n ;
+    }
+
+    void sweep() {
+        long now = System.currentTimeMillis() ;
+        long idle = idleTimeout ;
+        List<DigestHttp> closed = new ArrayList<>() ;
+        engines.forEach((realm, entry) -> {
+            entry.engine.sweep() ;
+            if ( now - entry.lastUsed < idle )
+                return ;
+            // Remove only if still idle; a request may have arrived meanwhile.
+            Entry e = engines.computeIfPresent(realm, (r, x) ->
+                ( x == entry && now - x.lastUsed >= idle && x.engine.getSessionStore().activeSize() == 0 ) ? null : x) ;
+            if ( e == null )
+                closed.add(entry.engine) ;
+        }) ;
+        for ( DigestHttp engine : closed )
+            engine.close() ;
+        if ( ! closed.isEmpty() )
+            log.debug("Closed "+closed.size()+" idle engines") ;
+    }
+
+    void shed() {
+        engines.values().forEach(entry -> entry.engine.shed()) ;
+    }
+
+    /** Close all engines and stop housekeeping. */
+    @Override
+    public void close() {
+        sweeper.cancel(false) ;
+        memoryPressure.cancel() ;
+        engines.values().forEach(entry -> entry.engine.close()) ;
+        engines.clear() ;
+    }
+}
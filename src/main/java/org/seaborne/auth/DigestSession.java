@@ -27,22 +27,92 @@ public class DigestSession {
     public String method ;
     // XXX remove
     public String uri ;
-    public final String nonce;
+    /** The current nonce; replaced by {@link #renewNonce}. */
+    public volatile String nonce;
+    /** Time the current nonce was issued, in milliseconds. */
+    public volatile long nonceIssued ;
+    /** The nonce sent to the client as {@code nextnonce}, or null. Accepted as well as the current nonce. */
+    public volatile String nextNonce = null ;
+    /** Time of the challenge, in milliseconds. */
+    public final long created ;
+    /** Time of the last successful use, in milliseconds. */
+    public volatile long lastAccess ;
+    /** Nonce counts seen, to reject replayed requests. */
+    public final NonceCountWindow nonceCounts = new NonceCountWindow() ;
+    /** H(A1) from the last successful request, used to check a response to an old nonce.
+     * Held only in memory; null if not known.
+     */
+    public volatile String ha1 = null ;
+    /** The algorithm of the last successful request; null if not known. Memory only. */
+    public volatile DigestAlgorithm algorithm = null ;
+    /** For {@code MD5-sess}, the session key H(A1), calculated by the first successful request
+     * with the nonce (RFC 2617 section 3.2.2.2). Memory only.
+     */
+    public volatile SessionKey sessionKey = null ;
+
+    /** A session key and the nonce and cnonce it was calculated with. */
+    public static final class SessionKey {
+        public final String nonce ;
+        public final String cnonce ;
+        public final String key ;
+
+        public SessionKey(String nonce, String cnonce, String key) {
+            this.nonce = nonce ;
+            this.cnonce = cnonce ;
+            this.key = key ;
+        }
+
+        /** Whether this is the key for a nonce. The key is for all cnonces with that nonce. */
+        public boolean isFor(String nonce) {
+            return this.nonce.equals(nonce) ;
+        }
+    }
     
     public DigestSession(String opaque, String realm, String method, String uri, String nonce) {
         this(opaque, "", realm, method, uri, nonce) ;
     }
     
     public DigestSession(DigestSession other) {
-        this(other.opaque, other.username, other.realm, other.method, other.uri, other.nonce) ;
+        this(other.opaque, other.username, other.realm, other.method, other.uri, other.nonce, other.created) ;
     }
     
     public DigestSession(String opaque, String username, String realm, String method, String uri, String nonce) {
+        this(opaque, username, realm, method, uri, nonce, System.currentTimeMillis()) ;
+    }
+
+    public DigestSession(String opaque, String username, String realm, String method, String uri, String nonce, long created) {
         this.opaque = opaque;
         this.username = username;
         this.realm = realm;
         this.method = method;
         this.uri = uri;
         this.nonce = nonce;
+        this.created = created ;
+        this.lastAccess = created ;
+        this.nonceIssued = created ;
+    }
+
+    /** Replace the nonce, if it is still {@code expected}, and start a new nonce count.
+     * @return false if the nonce has already been replaced.
+     */
+    public synchronized boolean renewNonce(String expected, String newNonce, long now) {
+        if ( ! nonce.equals(expected) )
+            return false ;
+        nonce = newNonce ;
+        nonceIssued = now ;
+        nextNonce = null ;
+        nonceCounts.set(0) ;
+        return true ;
+    }
+
+    /** Set the next nonce, if the nonce is still {@code expected} and there is no next nonce already.
+     * @return the next nonce, which may have been set by another call, or null if the nonce has been replaced.
+     */
+    public synchronized String offerNextNonce(String expected, String next) {
+        if ( ! nonce.equals(expected) )
+            return null ;
+        if ( nextNonce == null )
+            nextNonce = next ;
+        return nextNonce ;
     }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.function.Consumer ;
+
+/** Storage for the state of digest authentication, keyed by opaque.
+ * <p>
+ * A session is "pending" from when the challenge is sent until the first correct
+ * response, then it is "active". Only active sessions carry a username.
+ * <p>
+ * Implementations must be safe for concurrent use by request threads.
+ * {@link #sweep} is called periodically by a single background thread.
+ * <p>
+ * Implementations that do not keep {@link DigestSession} objects return a new object
+ * from each lookup. The fields held only in memory ({@link DigestSession#ha1},
+ * {@link DigestSession#algorithm} and {@link DigestSession#sessionKey}) are then not kept
+ * between requests, so each request is checked with the password (or stored H(A1)):
+ * there is no check of a stale nonce from the session's H(A1), and no reuse of an
+ * {@code MD5-sess} session key.
+ *
+ * @see DigestSessionStores
+ */
+public interface DigestSessionStore {
+
+    /** Notification that an active session has been removed from a store, for any reason:
+     * {@link DigestSessionStore#remove}, expiry, or to make space.
+     * It may be called with store locks held and on the sweeper thread,
+     * so it must be quick and must not call the store.
+     */
+    @FunctionalInterface
+    public interface RemovalListener {
+        public void removed(String opaque, String username) ;
+    }
+
+    /** Whether the store can record {@code value} as an opaque or nonce. Values from the
+     * generators in {@link NonceGenerators} and from {@link StatelessNonces} are always accepted.
+     */
+    public default boolean acceptsKey(String value) {
+        return true ;
+    }
+
+    /** Record a new challenge.
+     * @return false if the challenge could not be recorded (the store is full).
+     */
+    public boolean putPending(DigestSession session) ;
+
+    /** Return the unexpired pending session for {@code opaque}, or null. The session stays pending. */
+    public DigestSession getPending(String opaque) ;
+
+    /** Atomically move the pending session for {@code opaque} to being active for {@code username}.
+     * <p>
+     * Concurrent calls for the same opaque and username all return the one active session:
+     * a client may send several requests in parallel as soon as it has the challenge.
+     * There must be no point during the transition at which the session is neither
+     * pending nor active.
+     * @return The active session, or null if there was no pending or active session
+     *     for the opaque, or the active session is for a different username.
+     */
+    public DigestSession promote(String opaque, String username) ;
+
+    /** Make a session active without it having been pending, as happens with stateless challenges.
+     * If there is already an active session for the opaque, that session is returned instead.
+     * @return The active session, or null if it could not be recorded.
+     */
+    public DigestSession activate(DigestSession session) ;
+
+    /** Return the unexpired active session for {@code opaque}, or null. */
+    public DigestSession get(String opaque) ;
+
+    /** Record the nonce count of a request on an active session.
+     * <p>
+     * The heap stores update the session's {@link NonceCountWindow} by compare-and-set, with no lock.
+     * The off-heap and mapped stores update the window in the session's record under the
+     * segment lock that finds the record, because records move within a segment when others
+     * are deleted. That lock is held only for the lookup and a single word update, and does
+     * not block requests on other segments. An implementation must not hold a lock for a
+     * session while the request is processed.
+     * @return false if {@code nc} has been used before, or is too old to tell.
+     * @see NonceCountWindow
+     */
+    public default boolean acceptNonceCount(DigestSession session, long nc) {
+        return session.nonceCounts.accept(nc) ;
+    }
+
+    /** Give an active session a new nonce, as {@link DigestSession#renewNonce}.
+     * @return false if the session's nonce is no longer {@code expected}, or the session has gone.
+     */
+    public default boolean renewNonce(DigestSession session, String expected, String newNonce, long now) {
+        return session.renewNonce(expected, newNonce, now) ;
+    }
+
+    /** Set the next nonce of an active session, as {@link DigestSession#offerNextNonce}.
+     * @return the next nonce, or null if the session's nonce is no longer {@code expected}.
+     */
+    public default String offerNextNonce(DigestSession session, String expected, String next) {
+        return session.offerNextNonce(expected, next) ;
+    }
+
+    /** Note a successful use of an active session. */
+    public void touch(DigestSession session, long now) ;
+
+    /** Remove a session, pending or active. */
+    public void remove(String opaque) ;
+
+    public int pendingSize() ;
+
+    public int activeSize() ;
+
+    /** Apply {@code action} to each active session.
+     * This is weakly consistent: sessions added or removed during the iteration may or may not be seen.
+     */
+    public void forEach(Consumer<DigestSession> action) ;
+
+    /** Remove expired sessions.
+     * @return number removed
+     */
+    public int sweep(long now) ;
+
+    /** Remove up to {@code max} pending sessions, oldest first, because memory is short.
+     * Stores that do not keep sessions in the Java heap need not do anything.
+     * @return number removed
+     */
+    public default int shedPending(int max) {
+        return 0 ;
+    }
+
+    /** Remove up to {@code max} active sessions, least recently used first, because memory is short.
+     * Stores that do not keep sessions in the Java heap need not do anything.
+     * @return number removed
+     */
+    public default int shedActive(int max) {
+        return 0 ;
+    }
+
+    /** Set the listener for removal of active sessions, replacing any previous listener.
+     * Null for none.
+     */
+    public void setRemovalListener(RemovalListener listener) ;
+
+    /** When to suggest retrying after {@link #putPending} has refused a challenge, in milliseconds. */
+    public default long retryAfter(long now) {
+        return 1000 ;
+    }
+
+    /** Release any resources. */
+    public default void close() {}
+}
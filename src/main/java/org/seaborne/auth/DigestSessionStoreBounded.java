@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.function.Consumer ;
+
+import org.seaborne.auth.PendingSessions.OverflowPolicy ;
+
+/** In-heap session store where challenges time out, the number of outstanding
+ * challenges is capped, and sessions expire when idle or too old.
+ * This is the default store.
+ *
+ * @see PendingSessions
+ * @see ActiveSessions
+ */
+public class DigestSessionStoreBounded implements DigestSessionStore {
+    private final PendingSessions pendingSessions ;
+    private final ActiveSessions activeSessions ;
+
+    public DigestSessionStoreBounded(long pendingTimeoutMillis, int pendingCapacity, OverflowPolicy overflowPolicy,
+                                     long idleTimeoutMillis, long maxLifetimeMillis, long tickMillis) {
+        this.pendingSessions = new PendingSessions(pendingTimeoutMillis, pendingCapacity, overflowPolicy) ;
+        this.activeSessions = new ActiveSessions(idleTimeoutMillis, maxLifetimeMillis, tickMillis) ;
+    }
+
+    @Override
+    public boolean putPending(DigestSession session) {
+        return pendingSessions.put(session) ;
+    }
+
+    @Override
+    public DigestSession getPending(String opaque) {
+        return pendingSessions.get(opaque) ;
+    }
+
+    @Override
+    public DigestSession promote(String opaque, String username) {
+        DigestSession pending = pendingSessions.get(opaque) ;
+        DigestSession session ;
+        if ( pending == null )
+            // Already promoted by a concurrent request, or unknown.
+            session = activeSessions.get(opaque) ;
+        else {
+            DigestSession promoted = new DigestSession(pending) ;
+            promoted.username = username ;
+            // The first request to add the active session wins. The pending session is
+            // removed afterwards so there is always one or the other.
+            session = activeSessions.putIfAbsent(promoted) ;
+            pendingSessions.remove(opaque) ;
+        }
+        if ( session == null || ! username.equals(session.username) )
+            return null ;
+        return session ;
+    }
+
+    @Override
+    public DigestSession activate(DigestSession session) {
+        return activeSessions.putIfAbsent(session) ;
+    }
+
+    @Override
+    public DigestSession get(String opaque) {
+        return activeSessions.get(opaque) ;
+    }
+
+    @Override
+    public void touch(DigestSession session, long now) {
+        activeSessions.touch(session, now) ;
+    }
+
+    @Override
+    public void remove(String opaque) {
+        pendingSessions.remove(opaque) ;
+        activeSessions.remove(opaque) ;
+    }
+
+    @Override
+    public int pendingSize() {
+        return pendingSessions.size() ;
+    }
+
+    @Override
+    public int activeSize() {
+        return activeSessions.size() ;
+    }
+
+    @Override
+    public void forEach(Consumer<DigestSession> action) {
+        activeSessions.forEach(action) ;
+    }
+
+    @Override
+    public int sweep(long now) {
+        return pendingSessions.sweep(now) + activeSessions.sweep(now) ;
+    }
+
+    @Override
+    public int shedPending(int max) {
+        return pendingSessions.evictOldest(max) ;
+    }
+
+    @Override
+    public int shedActive(int max) {
+        return activeSessions.evictLeastRecentlyUsed(max) ;
+    }
+
+    @Override
+    public void setRemovalListener(RemovalListener listener) {
+        activeSessions.setRemovalListener(listener) ;
+    }
+
+    @Override
+    public long retryAfter(long now) {
+        return pendingSessions.timeToNextExpiry(now) ;
+    }
+
+    public PendingSessions getPendingSessions() {
+        return pendingSessions ;
+    }
+
+    public ActiveSessions getActiveSessions() {
+        return activeSessions ;
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.EOFException ;
+import java.io.IOException ;
+import java.io.RandomAccessFile ;
+import java.io.UncheckedIOException ;
+import java.nio.ByteBuffer ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.channels.FileChannel.MapMode ;
+import java.nio.channels.FileLock ;
+import java.nio.channels.OverlappingFileLockException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.StandardOpenOption ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.TimeUnit ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Session store in a memory-mapped file, so that sessions survive a restart.
+ * <p>
+ * The table is the same as {@link DigestSessionStoreOffHeap}, with the segments mapped
+ * from the file. Each record carries a checksum and its state word is written last, so a
+ * record being written when the process stopped is detected and dropped when the file is
+ * reopened. Usernames and realms are appended to a second file, {@code <file>.names},
+ * before any record refers to them. That file is also locked while the store is open,
+ * so only one process uses the store at a time.
+ * <p>
+ * The OS writes the mapped file back to disk; the store also forces it to disk every
+ * few seconds and on {@link #close}. Sessions changed in that time may be lost if the
+ * machine, rather than the process, stops.
+ * <p>
+ * If the file was created with a different capacity, the sessions are copied into a
+ * new file of the configured capacity. Any other existing file, other than an empty one,
+ * is an error and is left as it is.
+ */
+public class DigestSessionStoreMapped extends DigestSessionStoreOffHeap {
+    private static final Logger log = LoggerFactory.getLogger(DigestSessionStoreMapped.class) ;
+
+    // File header.
+    private static final long MAGIC   = 0x4447535354303032L ;  // "DGSST002"
+    private static final int HEADER   = 64 ;
+    private static final int H_MAGIC  = 0 ;     // long
+    private static final int H_SEGS   = 8 ;     // int : number of segments
+    private static final int H_BYTES  = 12 ;    // int : bytes per segment
+
+    private static final long FORCE_INTERVAL = TimeUnit.SECONDS.toMillis(5) ;
+
+    private final FileChannel channel ;
+    private final MappedByteBuffer[] maps ;
+    private final NameFile nameFile ;
+    private long lastForce = System.currentTimeMillis() ;
+
+    /** Open, or create, the store in {@code file}.
+     * Existing unexpired sessions are available immediately.
+     */
+    public static DigestSessionStoreMapped open(Path file, int capacity, long pendingTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis) throws IOException {
+        int numSegments = numSegments(capacity) ;
+        int segmentBytes = segmentBytes(capacity) ;
+        // Before the names file is created next to it.
+        if ( Files.exists(file) && ! isSessionFile(file) )
+            throw new IOException("Session store "+file+": not a session file") ;
+        NameFile nameFile = NameFile.open(file.resolveSibling(file.getFileName()+".names")) ;
+        try {
+            NameTable names = new NameTable(nameFile.names, nameFile::append) ;
+            List<ByteBuffer> previous = null ;
+            if ( Files.exists(file) && Files.size(file) > 0 && ! hasGeometry(file, numSegments, segmentBytes) ) {
+                previous = readSegments(file) ;
+                Files.delete(file) ;
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) ;
+            try {
+                MappedByteBuffer[] maps = map(channel, numSegments, segmentBytes) ;
+                DigestSessionStoreMapped store =
+                    new DigestSessionStoreMapped(channel, maps, nameFile, names, pendingTimeoutMillis, idleTimeoutMillis, maxLifetimeMillis) ;
+                long now = System.currentTimeMillis() ;
+                int dropped = store.recover(now) ;
+                if ( previous != null ) {
+                    for ( ByteBuffer seg : previous ) {
+                        for ( int base = 0 ; base < seg.capacity() ; base += RECORD ) {
+                            if ( isValid(seg, base) && ! store.load(seg, base, now) )
+                                dropped++ ;
+                        }
+                    }
+                }
+                store.force() ;
+                log.info("Session store "+file+": "+store.activeSize()+" active, "+store.pendingSize()+" pending, "+dropped+" dropped") ;
+                return store ;
+            } catch (IOException | RuntimeException ex) {
+                channel.close() ;
+                throw ex ;
+            }
+        } catch (IOException | RuntimeException ex) {
+            nameFile.close() ;
+            throw ex ;
+        }
+    }
+
+    private DigestSessionStoreMapped(FileChannel channel, MappedByteBuffer[] maps, NameFile nameFile, NameTable names,
+                                     long pendingTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis) {
+        super(maps, names, pendingTimeoutMillis, idleTimeoutMillis, maxLifetimeMillis) ;
+        this.channel = channel ;
+        this.maps = maps ;
+        this.nameFile = nameFile ;
+    }
+
+    // A session file, possibly of another capacity, or an empty file.
+    private static boolean isSessionFile(Path file) throws IOException {
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+            if ( channel.size() == 0 )
+                return true ;
+            if ( channel.size() < HEADER )
+                return false ;
+            ByteBuffer header = ByteBuffer.allocate(HEADER) ;
+            while ( header.hasRemaining() && channel.read(header) >= 0 ) {}
+            return header.getLong(H_MAGIC) == MAGIC ;
+        }
+    }
+
+    private static boolean hasGeometry(Path file, int numSegments, int segmentBytes) throws IOException {
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+            if ( channel.size() != HEADER + (long)numSegments * segmentBytes )
+                return false ;
+            ByteBuffer header = ByteBuffer.allocate(HEADER) ;
+            while ( header.hasRemaining() && channel.read(header) >= 0 ) {}
+            return header.getLong(H_MAGIC) == MAGIC
+                && header.getInt(H_SEGS) == numSegments
+                && header.getInt(H_BYTES) == segmentBytes ;
+        }
+    }
+
+    /** Segments of an existing file with some other geometry, copied into the heap.
+     * @throws IOException if the file is not a well-formed session file.
+     */
+    private static List<ByteBuffer> readSegments(Path file) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<>() ;
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+            if ( channel.size() < HEADER )
+                throw new IOException("Session store "+file+": not a session file") ;
+            MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER) ;
+            int numSegments = header.getInt(H_SEGS) ;
+            int segmentBytes = header.getInt(H_BYTES) ;
+            if ( header.getLong(H_MAGIC) != MAGIC || numSegments <= 0 || segmentBytes <= 0 || segmentBytes % RECORD != 0
+                || channel.size() != HEADER + (long)numSegments * segmentBytes ) {
+                throw new IOException("Session store "+file+": not a session file") ;
+            }
+            for ( int i = 0 ; i < numSegments ; i++ ) {
+                ByteBuffer seg = ByteBuffer.allocate(segmentBytes) ;
+                seg.put(channel.map(MapMode.READ_ONLY, HEADER + (long)i * segmentBytes, segmentBytes)) ;
+                segments.add(seg) ;
+            }
+        }
+        return segments ;
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, int numSegments, int segmentBytes) throws IOException {
+        MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER) ;
+        if ( header.getLong(H_MAGIC) != MAGIC ) {
+            header.putInt(H_SEGS, numSegments) ;
+            header.putInt(H_BYTES, segmentBytes) ;
+            header.putLong(H_MAGIC, MAGIC) ;
+            header.force() ;
+        }
+        // Each segment is mapped separately so the file can be larger than 2G.
+        MappedByteBuffer[] maps = new MappedByteBuffer[numSegments] ;
+        for ( int i = 0 ; i < numSegments ; i++ )
+            maps[i] = channel.map(MapMode.READ_WRITE, HEADER + (long)i * segmentBytes, segmentBytes) ;
+        return maps ;
+    }
+
+    private void force() {
+        for ( MappedByteBuffer map : maps )
+            map.force() ;
+        lastForce = System.currentTimeMillis() ;
+    }
+
+    @Override
+    public int sweep(long now) {
+        int removed = super.sweep(now) ;
+        if ( now - lastForce >= FORCE_INTERVAL )
+            force() ;
+        return removed ;
+    }
+
+    @Override
+    public void close() {
+        try {
+            force() ;
+            channel.close() ;
+        } catch (IOException ex) {
+            log.warn("Session store: close: "+ex.getMessage(), ex) ;
+        } finally {
+            nameFile.close() ;
+        }
+    }
+
+    /** Append-only file of names, in id order, written with {@code writeUTF}. */
+    private static class NameFile {
+        final RandomAccessFile file ;
+        final FileLock lock ;
+        final List<String> names ;
+
+        static NameFile open(Path path) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw") ;
+            try {
+                FileLock lock ;
+                try { lock = file.getChannel().tryLock() ; }
+                catch (OverlappingFileLockException ex) { lock = null ; }
+                if ( lock == null )
+                    throw new IOException("Session store in use by another process: "+path) ;
+                List<String> names = new ArrayList<>() ;
+                long position = 0 ;
+                try {
+                    for (;;) {
+                        position = file.getFilePointer() ;
+                        names.add(file.readUTF()) ;
+                    }
+                } catch (EOFException ex) {
+                    // Normal end, or a name partly written when the process stopped.
+                    file.setLength(position) ;
+                }
+                return new NameFile(file, lock, names) ;
+            } catch (IOException | RuntimeException ex) {
+                file.close() ;
+                throw ex ;
+            }
+        }
+
+        private NameFile(RandomAccessFile file, FileLock lock, List<String> names) {
+            this.file = file ;
+            this.lock = lock ;
+            this.names = names ;
+        }
+
+        // Called with the NameTable locked.
+        void append(String name) {
+            try { file.writeUTF(name) ; }
+            catch (IOException ex) { throw new UncheckedIOException(ex) ; }
+        }
+
+        void close() {
+            try {
+                lock.release() ;
+                file.close() ;
+            } catch (IOException ex) {
+                log.warn("Session store: close: "+ex.getMessage(), ex) ;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.Map ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.function.Consumer ;
+
+/** Unbounded in-heap session store. Nothing expires.
+ * Suitable for development and for a small, known, set of clients.
+ */
+public class DigestSessionStoreMem implements DigestSessionStore {
+    private final Map<String, DigestSession> activeSessions = new ConcurrentHashMap<>() ;
+    private final Map<String, DigestSession> pendingSessions = new ConcurrentHashMap<>() ;
+    private volatile RemovalListener removalListener = null ;
+
+    public DigestSessionStoreMem() {}
+
+    @Override
+    public boolean putPending(DigestSession session) {
+        pendingSessions.put(session.opaque, session) ;
+        return true ;
+    }
+
+    @Override
+    public DigestSession getPending(String opaque) {
+        return pendingSessions.get(opaque) ;
+    }
+
+    @Override
+    public DigestSession promote(String opaque, String username) {
+        DigestSession pending = pendingSessions.get(opaque) ;
+        DigestSession session ;
+        if ( pending == null )
+            session = activeSessions.get(opaque) ;
+        else {
+            DigestSession promoted = new DigestSession(pending) ;
+            promoted.username = username ;
+            // Active before not pending: see DigestSessionStoreBounded.promote.
+            DigestSession existing = activeSessions.putIfAbsent(opaque, promoted) ;
+            session = ( existing != null ) ? existing : promoted ;
+            pendingSessions.remove(opaque) ;
+        }
+        if ( session == null || ! username.equals(session.username) )
+            return null ;
+        return session ;
+    }
+
+    @Override
+    public DigestSession activate(DigestSession session) {
+        DigestSession existing = activeSessions.putIfAbsent(session.opaque, session) ;
+        return existing != null ? existing : session ;
+    }
+
+    @Override
+    public DigestSession get(String opaque) {
+        return activeSessions.get(opaque) ;
+    }
+
+    @Override
+    public void touch(DigestSession session, long now) {
+        session.lastAccess = now ;
+    }
+
+    @Override
+    public void remove(String opaque) {
+        pendingSessions.remove(opaque) ;
+        DigestSession session = activeSessions.remove(opaque) ;
+        RemovalListener listener = removalListener ;
+        if ( session != null && listener != null )
+            listener.removed(session.opaque, session.username) ;
+    }
+
+    @Override
+    public int pendingSize() {
+        return pendingSessions.size() ;
+    }
+
+    @Override
+    public int activeSize() {
+        return activeSessions.size() ;
+    }
+
+    @Override
+    public void forEach(Consumer<DigestSession> action) {
+        activeSessions.values().forEach(action) ;
+    }
+
+    @Override
+    public int sweep(long now) {
+        return 0 ;
+    }
+
+    @Override
+    public int shedPending(int max) {
+        int removed = 0 ;
+        for ( DigestSession session : ActiveSessions.smallest(pendingSessions.values(), max, s -> s.created) ) {
+            if ( pendingSessions.remove(session.opaque, session) )
+                removed++ ;
+        }
+        return removed ;
+    }
+
+    @Override
+    public int shedActive(int max) {
+        int removed = 0 ;
+        for ( DigestSession session : ActiveSessions.smallest(activeSessions.values(), max, s -> s.lastAccess) ) {
+            if ( activeSessions.remove(session.opaque, session) ) {
+                removed++ ;
+                RemovalListener listener = removalListener ;
+                if ( listener != null )
+                    listener.removed(session.opaque, session.username) ;
+            }
+        }
+        return removed ;
+    }
+
+    @Override
+    public void setRemovalListener(RemovalListener listener) {
+        this.removalListener = listener ;
+    }
+}
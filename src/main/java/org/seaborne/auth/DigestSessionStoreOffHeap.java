@@ -0,0 +1,697 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.nio.ByteBuffer ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.function.Consumer ;
+
+/** Session store held in direct memory, outside the Java heap.
+ * <p>
+ * The store is a fixed-capacity open-addressing hash table, split into segments
+ * each with its own lock. The opaque and nonce must be 128 bit values written as
+ * 32 hex characters (as generated by {@link DigestHttp} and {@link StatelessNonces});
+ * they are held as pairs of longs. Usernames and realms are held as ids in a
+ * {@link NameTable}, which has one heap entry per distinct name.
+ * A record is 128 bytes and there are no heap objects per session, so the number of
+ * sessions does not affect garbage collection.
+ * <p>
+ * Lookups return a new {@link DigestSession} each time, so changes to a returned
+ * session are not seen by the store except through the store operations.
+ * <p>
+ * Expired sessions are rejected on lookup and reclaimed by an incremental scan from
+ * {@link #sweep}, which visits a part of the table on each call.
+ */
+public class DigestSessionStoreOffHeap implements DigestSessionStore {
+
+    // Record layout.
+    private static final int STATE      = 0 ;      // int
+    private static final int USERNAME   = 4 ;      // int : NameTable id
+    private static final int OPAQUE_HI  = 8 ;      // long
+    private static final int OPAQUE_LO  = 16 ;     // long
+    private static final int NONCE_HI   = 24 ;     // long
+    private static final int NONCE_LO   = 32 ;     // long
+    private static final int CREATED    = 40 ;     // long
+    private static final int LASTACCESS = 48 ;     // long
+    private static final int REALM      = 56 ;     // int : NameTable id
+    private static final int CHECK      = 60 ;     // int : checksum of the state and the fixed fields
+    private static final int NC_WINDOW  = 64 ;     // long : NonceCountWindow
+    private static final int NONCE_TIME = 72 ;     // long : time the nonce was issued
+    private static final int NEXT_HI    = 80 ;     // long : next nonce, or zero
+    private static final int NEXT_LO    = 88 ;     // long
+    // 96-127 unused
+    static final int RECORD             = 128 ;
+
+    private static final int EMPTY   = 0 ;
+    private static final int PENDING = 1 ;
+    private static final int ACTIVE  = 2 ;
+
+    private static final double LOAD_FACTOR = 0.75 ;
+    private static final int MAX_SEGMENTS = 256 ;
+
+    private static class Segment {
+        final ByteBuffer buf ;
+        final int mask ;
+        final int limit ;
+        int count = 0 ;
+        int pending = 0 ;
+
+        Segment(ByteBuffer buf) {
+            int slots = buf.capacity() / RECORD ;
+            this.buf = buf ;
+            this.mask = slots - 1 ;
+            this.limit = (int)(slots * LOAD_FACTOR) ;
+        }
+    }
+
+    private final Segment[] segments ;
+    private final int segmentShift ;
+    private final NameTable names ;
+    private final long pendingTimeoutMillis ;
+    private final long idleTimeoutMillis ;
+    private final long maxLifetimeMillis ;
+    private final int sweepBudget ;
+    private volatile RemovalListener removalListener = null ;
+
+    // Sweep position; only used by the sweeper thread.
+    private int sweepSegment = 0 ;
+    private int sweepSlot = 0 ;
+
+    public DigestSessionStoreOffHeap(int capacity, long pendingTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis) {
+        this(allocate(capacity), new NameTable(), pendingTimeoutMillis, idleTimeoutMillis, maxLifetimeMillis) ;
+    }
+
+    /** Use the given segment buffers, which must all be the same power-of-two number of records,
+     * initially zero or filled by {@link #load}.
+     */
+    DigestSessionStoreOffHeap(ByteBuffer[] buffers, NameTable names, long pendingTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis) {
+        if ( Integer.bitCount(buffers.length) != 1 || buffers.length > MAX_SEGMENTS )
+            throw new IllegalArgumentException("Bad number of segments: "+buffers.length) ;
+        this.segments = new Segment[buffers.length] ;
+        for ( int i = 0 ; i < buffers.length ; i++ )
+            segments[i] = new Segment(buffers[i]) ;
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(buffers.length) ;
+        this.names = names ;
+        this.pendingTimeoutMillis = pendingTimeoutMillis ;
+        this.idleTimeoutMillis = idleTimeoutMillis ;
+        this.maxLifetimeMillis = maxLifetimeMillis ;
+        // Visit the whole table about once a minute.
+        long slots = (long)buffers.length * (segments[0].mask + 1) ;
+        this.sweepBudget = (int)Math.max(4096, slots / 60) ;
+    }
+
+    /** Number of segments for a capacity. */
+    static int numSegments(int capacity) {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException("Capacity must be positive: "+capacity) ;
+        return Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, capacity / 4096))) ;
+    }
+
+    /** Size in bytes of each segment for a capacity. */
+    static int segmentBytes(int capacity) {
+        int perSegment = (int)Math.ceil(capacity / (double)numSegments(capacity) / LOAD_FACTOR) ;
+        int slots = Integer.highestOneBit(Math.max(2, perSegment-1)) << 1 ;
+        if ( (long)slots * RECORD > Integer.MAX_VALUE )
+            throw new IllegalArgumentException("Capacity too large: "+capacity) ;
+        return slots * RECORD ;
+    }
+
+    private static ByteBuffer[] allocate(int capacity) {
+        ByteBuffer[] buffers = new ByteBuffer[numSegments(capacity)] ;
+        int bytes = segmentBytes(capacity) ;
+        for ( int i = 0 ; i < buffers.length ; i++ )
+            buffers[i] = ByteBuffer.allocateDirect(bytes) ;
+        return buffers ;
+    }
+
+    // ---- 128 bit keys
+
+    /** Parse 32 hex characters into two longs.
+     * @return false if the string is not 128 bits of hex.
+     */
+    private static boolean parseHex128(String s, long[] dest) {
+        if ( s == null || s.length() != 32 )
+            return false ;
+        long hi = 0 ;
+        long lo = 0 ;
+        for ( int i = 0 ; i < 16 ; i++ ) {
+            int d1 = DigestVerifier.hexDigit(s.charAt(i)) ;
+            int d2 = DigestVerifier.hexDigit(s.charAt(i+16)) ;
+            if ( (d1 | d2) < 0 )
+                return false ;
+            hi = (hi << 4) | d1 ;
+            lo = (lo << 4) | d2 ;
+        }
+        dest[0] = hi ;
+        dest[1] = lo ;
+        return true ;
+    }
+
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray() ;
+
+    static String hex128(long hi, long lo) {
+        char[] chars = new char[32] ;
+        for ( int i = 15 ; i >= 0 ; i-- ) {
+            chars[i] = hexDigits[(int)(hi & 0xF)] ;
+            chars[i+16] = hexDigits[(int)(lo & 0xF)] ;
+            hi >>>= 4 ;
+            lo >>>= 4 ;
+        }
+        return new String(chars) ;
+    }
+
+    private static long[] key(String opaque) {
+        long[] key = new long[2] ;
+        return parseHex128(opaque, key) ? key : null ;
+    }
+
+    private static long[] requireKey(String field, String value) {
+        long[] key = key(value) ;
+        if ( key == null )
+            throw new IllegalArgumentException("Off-heap store: "+field+" is not 32 hex characters: "+value) ;
+        return key ;
+    }
+
+    private static int hash(long hi, long lo) {
+        // The values are random so mixing is only to fold 128 bits to 32.
+        long h = hi ^ (lo * 0x9E3779B97F4A7C15L) ;
+        return (int)(h ^ (h >>> 32)) ;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift] ;
+    }
+
+    // ---- Table operations. Call with the segment lock held.
+
+    // Slot holding the key, or -1.
+    private static int find(Segment seg, int hash, long hi, long lo) {
+        int slot = hash & seg.mask ;
+        for (;;) {
+            int base = slot * RECORD ;
+            if ( seg.buf.getInt(base+STATE) == EMPTY )
+                return -1 ;
+            if ( seg.buf.getLong(base+OPAQUE_HI) == hi && seg.buf.getLong(base+OPAQUE_LO) == lo )
+                return slot ;
+            slot = (slot + 1) & seg.mask ;
+        }
+    }
+
+    private static int home(Segment seg, int base) {
+        return hash(seg.buf.getLong(base+OPAQUE_HI), seg.buf.getLong(base+OPAQUE_LO)) & seg.mask ;
+    }
+
+    // Backward-shift deletion: no tombstones.
+    private static void delete(Segment seg, int slot) {
+        if ( seg.buf.getInt(slot*RECORD+STATE) == PENDING )
+            seg.pending-- ;
+        seg.count-- ;
+        int hole = slot ;
+        int j = slot ;
+        for (;;) {
+            j = (j + 1) & seg.mask ;
+            int base = j * RECORD ;
+            if ( seg.buf.getInt(base+STATE) == EMPTY )
+                break ;
+            int home = home(seg, base) ;
+            // Move j into the hole if its home is not cyclically in (hole, j].
+            if ( ((j - home) & seg.mask) >= ((j - hole) & seg.mask) ) {
+                seg.buf.put(hole * RECORD, seg.buf, base, RECORD) ;
+                hole = j ;
+            }
+        }
+        seg.buf.putInt(hole*RECORD+STATE, EMPTY) ;
+    }
+
+    private static int freeSlot(Segment seg, int hash) {
+        int slot = hash & seg.mask ;
+        while ( seg.buf.getInt(slot*RECORD+STATE) != EMPTY )
+            slot = (slot + 1) & seg.mask ;
+        return slot ;
+    }
+
+    // Delete a record, telling the listener if it was an active session.
+    private void removeRecord(Segment seg, int slot) {
+        int base = slot * RECORD ;
+        RemovalListener listener = removalListener ;
+        if ( listener != null && seg.buf.getInt(base+STATE) == ACTIVE ) {
+            String opaque = hex128(seg.buf.getLong(base+OPAQUE_HI), seg.buf.getLong(base+OPAQUE_LO)) ;
+            listener.removed(opaque, names.get(seg.buf.getInt(base+USERNAME))) ;
+        }
+        delete(seg, slot) ;
+    }
+
+    // Requires a free slot.
+    private void insert(Segment seg, int hash, long[] opaque, long[] nonce, DigestSession session, int state) {
+        int base = freeSlot(seg, hash) * RECORD ;
+        seg.buf.putInt(base+USERNAME, names.intern(session.username)) ;
+        seg.buf.putLong(base+OPAQUE_HI, opaque[0]) ;
+        seg.buf.putLong(base+OPAQUE_LO, opaque[1]) ;
+        seg.buf.putLong(base+NONCE_HI, nonce[0]) ;
+        seg.buf.putLong(base+NONCE_LO, nonce[1]) ;
+        seg.buf.putLong(base+CREATED, session.created) ;
+        seg.buf.putLong(base+LASTACCESS, session.lastAccess) ;
+        seg.buf.putInt(base+REALM, names.intern(session.realm)) ;
+        seg.buf.putLong(base+NC_WINDOW, session.nonceCounts.get()) ;
+        seg.buf.putLong(base+NONCE_TIME, session.nonceIssued) ;
+        long[] next = ( session.nextNonce == null ) ? null : key(session.nextNonce) ;
+        seg.buf.putLong(base+NEXT_HI, ( next == null ) ? 0 : next[0]) ;
+        seg.buf.putLong(base+NEXT_LO, ( next == null ) ? 0 : next[1]) ;
+        seg.buf.putInt(base+CHECK, checksum(seg.buf, base, state)) ;
+        // The state is written last: a partially written record is not in use.
+        seg.buf.putInt(base+STATE, state) ;
+        seg.count++ ;
+        if ( state == PENDING )
+            seg.pending++ ;
+    }
+
+    private static int checksum(ByteBuffer buf, int base, int state) {
+        long h = state ;
+        h = h * 31 + buf.getInt(base+USERNAME) ;
+        h = h * 31 + buf.getLong(base+OPAQUE_HI) ;
+        h = h * 31 + buf.getLong(base+OPAQUE_LO) ;
+        h = h * 31 + buf.getLong(base+NONCE_HI) ;
+        h = h * 31 + buf.getLong(base+NONCE_LO) ;
+        h = h * 31 + buf.getLong(base+CREATED) ;
+        h = h * 31 + buf.getInt(base+REALM) ;
+        h *= 0x9E3779B97F4A7C15L ;
+        return (int)(h ^ (h >>> 32)) ;
+    }
+
+    /** Whether the record at {@code base} is in use and intact. */
+    static boolean isValid(ByteBuffer buf, int base) {
+        int state = buf.getInt(base+STATE) ;
+        if ( state != PENDING && state != ACTIVE )
+            return false ;
+        return buf.getInt(base+CHECK) == checksum(buf, base, state) ;
+    }
+
+    /** Add a record copied from another table, such as a file being recovered.
+     * Records that are not valid, have expired, or are for an opaque already present are skipped.
+     * The name ids in the record must be ids in this store's {@link NameTable}.
+     * @return whether the record was added.
+     */
+    boolean load(ByteBuffer src, int srcBase, long now) {
+        if ( ! isIntact(src, srcBase, now) )
+            return false ;
+        long hi = src.getLong(srcBase+OPAQUE_HI) ;
+        long lo = src.getLong(srcBase+OPAQUE_LO) ;
+        int hash = hash(hi, lo) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            if ( seg.count >= seg.limit || find(seg, hash, hi, lo) >= 0 )
+                return false ;
+            int base = freeSlot(seg, hash) * RECORD ;
+            seg.buf.put(base+4, src, srcBase+4, RECORD-4) ;
+            int state = src.getInt(srcBase+STATE) ;
+            seg.buf.putInt(base+STATE, state) ;
+            seg.count++ ;
+            if ( state == PENDING )
+                seg.pending++ ;
+            return true ;
+        }
+    }
+
+    /** Make the table consistent after reopening buffers that were being written when the
+     * process stopped. Records that are torn, expired, duplicated by an interrupted deletion,
+     * or that refer to names not in the {@link NameTable} are removed, and the counts are rebuilt.
+     * @return number of records removed.
+     */
+    int recover(long now) {
+        int removed = 0 ;
+        for ( Segment seg : segments ) {
+            synchronized(seg) {
+                seg.count = 0 ;
+                seg.pending = 0 ;
+                for ( int slot = 0 ; slot <= seg.mask ; slot++ ) {
+                    int state = seg.buf.getInt(slot*RECORD+STATE) ;
+                    if ( state != EMPTY )
+                        seg.count++ ;
+                    if ( state == PENDING )
+                        seg.pending++ ;
+                }
+                // Deletion shifts records back into the slot, so look at it again.
+                for ( int slot = 0 ; slot <= seg.mask ; ) {
+                    int base = slot * RECORD ;
+                    if ( seg.buf.getInt(base+STATE) != EMPTY && ! isIntact(seg.buf, base, now) ) {
+                        delete(seg, slot) ;
+                        removed++ ;
+                        continue ;
+                    }
+                    slot++ ;
+                }
+                for ( int slot = 0 ; slot <= seg.mask ; ) {
+                    int base = slot * RECORD ;
+                    if ( seg.buf.getInt(base+STATE) != EMPTY ) {
+                        long hi = seg.buf.getLong(base+OPAQUE_HI) ;
+                        long lo = seg.buf.getLong(base+OPAQUE_LO) ;
+                        if ( find(seg, hash(hi, lo), hi, lo) != slot ) {
+                            delete(seg, slot) ;
+                            removed++ ;
+                            continue ;
+                        }
+                    }
+                    slot++ ;
+                }
+            }
+        }
+        return removed ;
+    }
+
+    private boolean isIntact(ByteBuffer buf, int base, long now) {
+        return isValid(buf, base) && ! isExpired(buf, base, now)
+            && names.get(buf.getInt(base+USERNAME)) != null && names.get(buf.getInt(base+REALM)) != null ;
+    }
+
+    private boolean isExpired(ByteBuffer buf, int base, long now) {
+        int state = buf.getInt(base+STATE) ;
+        long created = buf.getLong(base+CREATED) ;
+        if ( state == PENDING )
+            return created + pendingTimeoutMillis <= now ;
+        long lastAccess = buf.getLong(base+LASTACCESS) ;
+        return Math.min(lastAccess + idleTimeoutMillis, created + maxLifetimeMillis) <= now ;
+    }
+
+    private DigestSession read(ByteBuffer buf, int base) {
+        String opaque = hex128(buf.getLong(base+OPAQUE_HI), buf.getLong(base+OPAQUE_LO)) ;
+        String nonce = hex128(buf.getLong(base+NONCE_HI), buf.getLong(base+NONCE_LO)) ;
+        String username = names.get(buf.getInt(base+USERNAME)) ;
+        String realm = names.get(buf.getInt(base+REALM)) ;
+        DigestSession session = new DigestSession(opaque, username, realm, null, null, nonce, buf.getLong(base+CREATED)) ;
+        session.lastAccess = buf.getLong(base+LASTACCESS) ;
+        session.nonceCounts.set(buf.getLong(base+NC_WINDOW)) ;
+        session.nonceIssued = buf.getLong(base+NONCE_TIME) ;
+        long nextHi = buf.getLong(base+NEXT_HI) ;
+        long nextLo = buf.getLong(base+NEXT_LO) ;
+        if ( (nextHi | nextLo) != 0 )
+            session.nextNonce = hex128(nextHi, nextLo) ;
+        return session ;
+    }
+
+    // ---- DigestSessionStore
+
+    /** Only 32 hex characters (128 bits) are accepted. */
+    @Override
+    public boolean acceptsKey(String value) {
+        return key(value) != null ;
+    }
+
+    @Override
+    public boolean putPending(DigestSession session) {
+        long[] opaque = requireKey("opaque", session.opaque) ;
+        long[] nonce = requireKey("nonce", session.nonce) ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            if ( seg.count >= seg.limit || find(seg, hash, opaque[0], opaque[1]) >= 0 )
+                return false ;
+            insert(seg, hash, opaque, nonce, session, PENDING) ;
+            return true ;
+        }
+    }
+
+    private DigestSession lookup(String opaqueStr, int wantedState) {
+        long[] opaque = key(opaqueStr) ;
+        if ( opaque == null )
+            return null ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot < 0 )
+                return null ;
+            int base = slot * RECORD ;
+            if ( isExpired(seg.buf, base, System.currentTimeMillis()) ) {
+                removeRecord(seg, slot) ;
+                return null ;
+            }
+            if ( seg.buf.getInt(base+STATE) != wantedState )
+                return null ;
+            return read(seg.buf, base) ;
+        }
+    }
+
+    @Override
+    public DigestSession getPending(String opaque) {
+        return lookup(opaque, PENDING) ;
+    }
+
+    @Override
+    public DigestSession get(String opaque) {
+        return lookup(opaque, ACTIVE) ;
+    }
+
+    @Override
+    public DigestSession promote(String opaqueStr, String username) {
+        long[] opaque = key(opaqueStr) ;
+        if ( opaque == null )
+            return null ;
+        int userId = names.intern(username) ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot < 0 )
+                return null ;
+            int base = slot * RECORD ;
+            if ( seg.buf.getInt(base+STATE) == ACTIVE )
+                // Promoted by a concurrent request.
+                return seg.buf.getInt(base+USERNAME) == userId ? read(seg.buf, base) : null ;
+            if ( isExpired(seg.buf, base, System.currentTimeMillis()) ) {
+                removeRecord(seg, slot) ;
+                return null ;
+            }
+            seg.buf.putInt(base+USERNAME, userId) ;
+            seg.buf.putLong(base+LASTACCESS, System.currentTimeMillis()) ;
+            seg.buf.putInt(base+CHECK, checksum(seg.buf, base, ACTIVE)) ;
+            seg.buf.putInt(base+STATE, ACTIVE) ;
+            seg.pending-- ;
+            return read(seg.buf, base) ;
+        }
+    }
+
+    @Override
+    public DigestSession activate(DigestSession session) {
+        long[] opaque = key(session.opaque) ;
+        long[] nonce = key(session.nonce) ;
+        if ( opaque == null || nonce == null )
+            return null ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            long now = System.currentTimeMillis() ;
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot >= 0 ) {
+                int base = slot * RECORD ;
+                if ( isExpired(seg.buf, base, now) )
+                    removeRecord(seg, slot) ;
+                else if ( seg.buf.getInt(base+STATE) == ACTIVE )
+                    return read(seg.buf, base) ;
+                else
+                    return null ;
+            }
+            if ( seg.count >= seg.limit )
+                return null ;
+            session.lastAccess = now ;
+            insert(seg, hash, opaque, nonce, session, ACTIVE) ;
+            return session ;
+        }
+    }
+
+    @Override
+    public boolean renewNonce(DigestSession session, String expected, String newNonce, long now) {
+        long[] opaque = key(session.opaque) ;
+        long[] old = key(expected) ;
+        long[] nonce = requireKey("nonce", newNonce) ;
+        if ( opaque == null || old == null )
+            return false ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot < 0 )
+                return false ;
+            int base = slot * RECORD ;
+            if ( seg.buf.getInt(base+STATE) != ACTIVE
+                 || seg.buf.getLong(base+NONCE_HI) != old[0] || seg.buf.getLong(base+NONCE_LO) != old[1] )
+                return false ;
+            seg.buf.putLong(base+NONCE_HI, nonce[0]) ;
+            seg.buf.putLong(base+NONCE_LO, nonce[1]) ;
+            seg.buf.putLong(base+NONCE_TIME, now) ;
+            seg.buf.putLong(base+NEXT_HI, 0) ;
+            seg.buf.putLong(base+NEXT_LO, 0) ;
+            seg.buf.putLong(base+NC_WINDOW, 0) ;
+            seg.buf.putInt(base+CHECK, checksum(seg.buf, base, ACTIVE)) ;
+        }
+        session.renewNonce(expected, newNonce, now) ;
+        return true ;
+    }
+
+    @Override
+    public String offerNextNonce(DigestSession session, String expected, String next) {
+        long[] opaque = key(session.opaque) ;
+        long[] current = key(expected) ;
+        long[] nonce = requireKey("nonce", next) ;
+        if ( opaque == null || current == null )
+            return null ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot < 0 )
+                return null ;
+            int base = slot * RECORD ;
+            if ( seg.buf.getInt(base+STATE) != ACTIVE
+                 || seg.buf.getLong(base+NONCE_HI) != current[0] || seg.buf.getLong(base+NONCE_LO) != current[1] )
+                return null ;
+            long nextHi = seg.buf.getLong(base+NEXT_HI) ;
+            long nextLo = seg.buf.getLong(base+NEXT_LO) ;
+            if ( (nextHi | nextLo) != 0 )
+                return hex128(nextHi, nextLo) ;
+            seg.buf.putLong(base+NEXT_HI, nonce[0]) ;
+            seg.buf.putLong(base+NEXT_LO, nonce[1]) ;
+        }
+        session.offerNextNonce(expected, next) ;
+        return next ;
+    }
+
+    // The record is only updated with the segment lock held, which the table needs anyway
+    // to find the record, and which is not held for the rest of the request.
+    @Override
+    public boolean acceptNonceCount(DigestSession session, long nc) {
+        long[] opaque = key(session.opaque) ;
+        if ( opaque == null )
+            return false ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        // The record can be moved by a deletion, so it is found and updated under the lock.
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot < 0 )
+                return false ;
+            int base = slot * RECORD ;
+            long w = NonceCountWindow.update(seg.buf.getLong(base+NC_WINDOW), nc) ;
+            if ( w == NonceCountWindow.REJECT )
+                return false ;
+            seg.buf.putLong(base+NC_WINDOW, w) ;
+            session.nonceCounts.set(w) ;
+            return true ;
+        }
+    }
+
+    @Override
+    public void touch(DigestSession session, long now) {
+        session.lastAccess = now ;
+        long[] opaque = key(session.opaque) ;
+        if ( opaque == null )
+            return ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot >= 0 )
+                seg.buf.putLong(slot*RECORD+LASTACCESS, now) ;
+        }
+    }
+
+    @Override
+    public void remove(String opaqueStr) {
+        long[] opaque = key(opaqueStr) ;
+        if ( opaque == null )
+            return ;
+        int hash = hash(opaque[0], opaque[1]) ;
+        Segment seg = segmentFor(hash) ;
+        synchronized(seg) {
+            int slot = find(seg, hash, opaque[0], opaque[1]) ;
+            if ( slot >= 0 )
+                removeRecord(seg, slot) ;
+        }
+    }
+
+    @Override
+    public int pendingSize() {
+        int n = 0 ;
+        for ( Segment seg : segments ) {
+            synchronized(seg) { n += seg.pending ; }
+        }
+        return n ;
+    }
+
+    @Override
+    public int activeSize() {
+        int n = 0 ;
+        for ( Segment seg : segments ) {
+            synchronized(seg) { n += seg.count - seg.pending ; }
+        }
+        return n ;
+    }
+
+    @Override
+    public void forEach(Consumer<DigestSession> action) {
+        long now = System.currentTimeMillis() ;
+        for ( Segment seg : segments ) {
+            // Do not call out while holding the lock.
+            List<DigestSession> sessions = new ArrayList<>() ;
+            synchronized(seg) {
+                for ( int slot = 0 ; slot <= seg.mask ; slot++ ) {
+                    int base = slot * RECORD ;
+                    if ( seg.buf.getInt(base+STATE) == ACTIVE && ! isExpired(seg.buf, base, now) )
+                        sessions.add(read(seg.buf, base)) ;
+                }
+            }
+            sessions.forEach(action) ;
+        }
+    }
+
+    @Override
+    public void setRemovalListener(RemovalListener listener) {
+        this.removalListener = listener ;
+    }
+
+    @Override
+    public int sweep(long now) {
+        int removed = 0 ;
+        int budget = sweepBudget ;
+        while ( budget > 0 ) {
+            Segment seg = segments[sweepSegment] ;
+            synchronized(seg) {
+                int end = Math.min(seg.mask + 1, sweepSlot + budget) ;
+                budget -= (end - sweepSlot) ;
+                int slot = sweepSlot ;
+                while ( slot < end ) {
+                    int base = slot * RECORD ;
+                    if ( seg.buf.getInt(base+STATE) != EMPTY && isExpired(seg.buf, base, now) ) {
+                        // The slot may now hold a record shifted back; look at it again.
+                        removeRecord(seg, slot) ;
+                        removed++ ;
+                        continue ;
+                    }
+                    slot++ ;
+                }
+                sweepSlot = end ;
+                if ( sweepSlot > seg.mask ) {
+                    sweepSlot = 0 ;
+                    sweepSegment = (sweepSegment + 1) % segments.length ;
+                }
+            }
+        }
+        return removed ;
+    }
+}
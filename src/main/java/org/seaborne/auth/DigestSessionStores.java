@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.IOException ;
+import java.io.UncheckedIOException ;
+import java.nio.file.Paths ;
+import java.util.Collections ;
+import java.util.Locale ;
+import java.util.Map ;
+import java.util.concurrent.TimeUnit ;
+
+import org.seaborne.auth.PendingSessions.OverflowPolicy ;
+
+/** Create {@link DigestSessionStore DigestSessionStores} by name, with settings
+ * given as strings (servlet init-params, Shiro ini properties).
+ * <p>
+ * Store types:
+ * <ul>
+ * <li>{@code memory} - {@link DigestSessionStoreMem}: unbounded, nothing expires.
+ * <li>{@code bounded} - {@link DigestSessionStoreBounded}: the default.
+ * <li>{@code offheap} - {@link DigestSessionStoreOffHeap}: fixed capacity, outside the Java heap.
+ * <li>{@code mapped} - {@link DigestSessionStoreMapped}: as {@code offheap}, in a file that survives restarts.
+ * </ul>
+ * Settings (times in seconds):
+ * <ul>
+ * <li>{@code pending-timeout}, {@code pending-capacity}, {@code pending-overflow} ("evict" or "reject")
+ * <li>{@code session-idle-timeout}, {@code session-lifetime}
+ * <li>{@code capacity} - total sessions, for the off-heap and mapped stores.
+ * <li>{@code file} - the file for the mapped store.
+ * </ul>
+ */
+public class DigestSessionStores {
+
+    public static final String typeMemory   = "memory" ;
+    public static final String typeBounded  = "bounded" ;
+    public static final String typeOffHeap  = "offheap" ;
+    public static final String typeMapped   = "mapped" ;
+
+    public static final String pPendingTimeout      = "pending-timeout" ;
+    public static final String pPendingCapacity     = "pending-capacity" ;
+    public static final String pPendingOverflow     = "pending-overflow" ;
+    public static final String pSessionIdleTimeout  = "session-idle-timeout" ;
+    public static final String pSessionLifetime     = "session-lifetime" ;
+    public static final String pCapacity            = "capacity" ;
+    public static final String pFile                = "file" ;
+
+    /** Default time to wait for the response to a challenge (5 minutes - the user may be typing a password). */
+    public static final long DEFAULT_PENDING_TIMEOUT = TimeUnit.MINUTES.toMillis(5) ;
+
+    /** Default maximum number of outstanding challenges. */
+    public static final int DEFAULT_PENDING_CAPACITY = 100_000 ;
+
+    /** Default time a session can be unused before it expires. */
+    public static final long DEFAULT_SESSION_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30) ;
+
+    /** Default maximum lifetime of a session, however much it is used. */
+    public static final long DEFAULT_SESSION_LIFETIME = TimeUnit.HOURS.toMillis(24) ;
+
+    /** Default number of sessions, pending and active, in a fixed capacity store. */
+    public static final int DEFAULT_CAPACITY = 100_000 ;
+
+    /** Resolution of expiry. */
+    static final long TICK = TimeUnit.SECONDS.toMillis(1) ;
+
+    /** The default store. */
+    public static DigestSessionStore create() {
+        return create(typeBounded, Collections.emptyMap()) ;
+    }
+
+    /** Create a store.
+     * @param type Store type name; null means the default.
+     * @param settings Settings; names not relevant to the store type are ignored.
+     * @throws IllegalArgumentException for an unknown type or a bad setting.
+     * @throws UncheckedIOException if the store's file can not be opened.
+     */
+    public static DigestSessionStore create(String type, Map<String, String> settings) {
+        Config c = config(type, settings) ;
+        switch(c.type) {
+            case typeMemory :
+                return new DigestSessionStoreMem() ;
+            case typeBounded :
+                return new DigestSessionStoreBounded(c.pendingTimeout, c.pendingCapacity, c.overflow, c.idleTimeout, c.lifetime, TICK) ;
+            case typeOffHeap :
+                return new DigestSessionStoreOffHeap(c.capacity, c.pendingTimeout, c.idleTimeout, c.lifetime) ;
+            case typeMapped :
+                try {
+                    return DigestSessionStoreMapped.open(Paths.get(c.file), c.capacity, c.pendingTimeout, c.idleTimeout, c.lifetime) ;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex) ;
+                }
+            default :
+                throw new IllegalStateException("Session store type: "+c.type) ;
+        }
+    }
+
+    /** Check the type and settings of a store, as {@link #create} would, without creating it.
+     * No memory is allocated and no file is opened.
+     * @throws IllegalArgumentException for an unknown type or a bad setting.
+     */
+    public static void check(String type, Map<String, String> settings) {
+        config(type, settings) ;
+    }
+
+    /** The settings of a store, parsed and checked. */
+    private static class Config {
+        String type ;
+        long pendingTimeout ;
+        long idleTimeout ;
+        long lifetime ;
+        int pendingCapacity ;
+        OverflowPolicy overflow ;
+        int capacity ;
+        String file ;
+    }
+
+    private static Config config(String type, Map<String, String> settings) {
+        Config c = new Config() ;
+        c.type = ( type == null ) ? typeBounded : type.trim().toLowerCase(Locale.ROOT) ;
+        c.pendingTimeout = positive(pPendingTimeout, seconds(settings, pPendingTimeout, DEFAULT_PENDING_TIMEOUT)) ;
+        c.idleTimeout = positive(pSessionIdleTimeout, seconds(settings, pSessionIdleTimeout, DEFAULT_SESSION_IDLE_TIMEOUT)) ;
+        c.lifetime = positive(pSessionLifetime, seconds(settings, pSessionLifetime, DEFAULT_SESSION_LIFETIME)) ;
+        switch(c.type) {
+            case typeMemory :
+                break ;
+            case typeBounded :
+                c.pendingCapacity = (int)positive(pPendingCapacity, integer(settings, pPendingCapacity, DEFAULT_PENDING_CAPACITY)) ;
+                c.overflow = overflow(settings.get(pPendingOverflow)) ;
+                break ;
+            case typeOffHeap :
+                c.capacity = capacity(settings) ;
+                break ;
+            case typeMapped :
+                c.file = settings.get(pFile) ;
+                if ( c.file == null )
+                    throw new IllegalArgumentException("Session store '"+typeMapped+"': no '"+pFile+"' setting") ;
+                c.file = c.file.trim() ;
+                c.capacity = capacity(settings) ;
+                break ;
+            default :
+                throw new IllegalArgumentException("Unknown session store type: "+type) ;
+        }
+        return c ;
+    }
+
+    // Capacity of the off-heap and mapped stores.
+    private static int capacity(Map<String, String> settings) {
+        int capacity = (int)positive(pCapacity, integer(settings, pCapacity, DEFAULT_CAPACITY)) ;
+        // Checks the capacity is not too large.
+        DigestSessionStoreOffHeap.segmentBytes(capacity) ;
+        return capacity ;
+    }
+
+    private static long positive(String name, long value) {
+        if ( value <= 0 )
+            throw new IllegalArgumentException("'"+name+"': must be positive: "+value) ;
+        return value ;
+    }
+
+    private static long seconds(Map<String, String> settings, String name, long dftMillis) {
+        String x = settings.get(name) ;
+        if ( x == null )
+            return dftMillis ;
+        return TimeUnit.SECONDS.toMillis(number(name, x)) ;
+    }
+
+    private static int integer(Map<String, String> settings, String name, int dft) {
+        String x = settings.get(name) ;
+        if ( x == null )
+            return dft ;
+        long v = number(name, x) ;
+        if ( v > Integer.MAX_VALUE )
+            throw new IllegalArgumentException("'"+name+"': too large: "+x) ;
+        return (int)v ;
+    }
+
+    private static long number(String name, String value) {
+        try { return Long.parseLong(value.trim()) ; }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("'"+name+"': not a number: "+value) ;
+        }
+    }
+
+    private static OverflowPolicy overflow(String value) {
+        if ( value == null )
+            return OverflowPolicy.EVICT_OLDEST ;
+        switch(value.trim().toLowerCase(Locale.ROOT)) {
+            case "evict" :  return OverflowPolicy.EVICT_OLDEST ;
+            case "reject" : return OverflowPolicy.REJECT ;
+            default:
+                throw new IllegalArgumentException("'"+pPendingOverflow+"': expected 'evict' or 'reject': "+value) ;
+        }
+    }
+}
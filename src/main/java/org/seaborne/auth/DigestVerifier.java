@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.security.DigestException ;
+import java.security.MessageDigest ;
+import java.util.Arrays ;
+
+/** Checks the {@code response} of an {@code Authorization} header without creating objects.
+ * <p>
+ * Each thread has its own {@link MessageDigest} and buffers. Strings are encoded as UTF-8
+ * straight into the digest, the intermediate hashes are written as lower case hex into
+ * byte arrays, and the client's response is decoded from hex and compared with
+ * {@link MessageDigest#isEqual}, which takes the same time wherever the bytes differ.
+ * The result is the same as comparing with {@link DigestHttp#calcDigestResponse}.
+ * The hash function is the {@link DigestAlgorithm} named in the header (MD5 if none).
+ */
+public final class DigestVerifier {
+    // This thread's verifier for each algorithm, by ordinal, created when first used.
+    private static final ThreadLocal<DigestVerifier[]> VERIFIERS =
+        ThreadLocal.withInitial(() -> new DigestVerifier[DigestAlgorithm.values().length]) ;
+    private static final byte[] HEX = "0123456789abcdef".getBytes() ;
+    // Value of each ASCII hex digit, -1 for other characters.
+    private static final byte[] HEX_VALUE = new byte[128] ;
+    static {
+        Arrays.fill(HEX_VALUE, (byte)-1) ;
+        for ( int i = 0 ; i < 10 ; i++ )
+            HEX_VALUE['0'+i] = (byte)i ;
+        for ( int i = 0 ; i < 6 ; i++ ) {
+            HEX_VALUE['a'+i] = (byte)(10+i) ;
+            HEX_VALUE['A'+i] = (byte)(10+i) ;
+        }
+    }
+
+    private final MessageDigest md ;
+    private final byte[] digest ;
+    private final byte[] expected ;
+    private final byte[] ha1Hex ;
+    private final byte[] ha2Hex ;
+    private final byte[] keyHex ;
+    private final byte[] buffer = new byte[128] ;
+
+    private DigestVerifier(DigestAlgorithm algorithm) {
+        md = algorithm.newMessageDigest() ;
+        int len = md.getDigestLength() ;
+        digest = new byte[len] ;
+        expected = new byte[len] ;
+        ha1Hex = new byte[2*len] ;
+        ha2Hex = new byte[2*len] ;
+        keyHex = new byte[2*len] ;
+    }
+
+    /** The verifier for this thread and algorithm. */
+    static DigestVerifier forAlgorithm(DigestAlgorithm algorithm) {
+        DigestVerifier[] verifiers = VERIFIERS.get() ;
+        DigestVerifier v = verifiers[algorithm.ordinal()] ;
+        if ( v == null )
+            verifiers[algorithm.ordinal()] = v = new DigestVerifier(algorithm) ;
+        return v ;
+    }
+
+    /** The MD5 verifier for this thread. */
+    static DigestVerifier md5() {
+        return forAlgorithm(DigestAlgorithm.MD5) ;
+    }
+
+    /** The verifier for this thread and the algorithm in the header, or null if it is not known. */
+    static DigestVerifier forHeader(AuthResponseHeader auth) {
+        DigestAlgorithm algorithm = DigestAlgorithm.of(auth.algorithm) ;
+        return ( algorithm == null ) ? null : forAlgorithm(algorithm) ;
+    }
+
+    /** Whether the response in the header is correct for the password.
+     * Afterwards, {@link #ha1} is H(A1) for the username, realm and password and,
+     * for a {@code -sess} algorithm, {@link #sessionKey} is the session key.
+     */
+    public static boolean verify(AuthResponseHeader auth, String password) {
+        DigestVerifier v = forHeader(auth) ;
+        if ( v == null )
+            return false ;
+        v.computeHA1(auth.username, auth.realm, password) ;
+        if ( RFC2617.isSess(auth.algorithm) ) {
+            if ( auth.cnonce == null )
+                return false ;
+            v.computeSessionKey(null, auth) ;
+            return v.check(auth, null, v.keyHex) ;
+        }
+        return v.check(auth, null, v.ha1Hex) ;
+    }
+
+    /** Whether the response in the header is correct, given H(username:realm:password) as hex.
+     * For a {@code -sess} algorithm, {@link #sessionKey} is then the session key.
+     */
+    public static boolean verifyHA1(AuthResponseHeader auth, String ha1) {
+        DigestVerifier v = forHeader(auth) ;
+        if ( v == null )
+            return false ;
+        if ( RFC2617.isSess(auth.algorithm) ) {
+            if ( auth.cnonce == null )
+                return false ;
+            v.computeSessionKey(ha1, auth) ;
+            return v.check(auth, null, v.keyHex) ;
+        }
+        return v.check(auth, ha1, null) ;
+    }
+
+    /** Whether the {@code -sess} response in the header is correct, given the session key as hex. */
+    public static boolean verifySessionKey(AuthResponseHeader auth, String key) {
+        DigestVerifier v = forHeader(auth) ;
+        return v != null && v.check(auth, key, null) ;
+    }
+
+    // H(H(A1):nonce:cnonce), from the ha1 string or, if null, ha1Hex.
+    private void computeSessionKey(String ha1, AuthResponseHeader auth) {
+        md.reset() ;
+        if ( ha1 == null )
+            md.update(ha1Hex) ;
+        else
+            update(ha1) ;
+        md.update((byte)':') ;
+        update(auth.nonce) ;
+        md.update((byte)':') ;
+        update(auth.cnonce) ;
+        digestHex(keyHex) ;
+    }
+
+    /** Calculate H(A1) into this thread's buffer. */
+    void computeHA1(String username, String realm, String password) {
+        md.reset() ;
+        update(username) ;
+        md.update((byte)':') ;
+        update(realm) ;
+        md.update((byte)':') ;
+        update(password) ;
+        digestHex(ha1Hex) ;
+    }
+
+    /** Whether {@code ha1} is the H(A1) last calculated by this thread. */
+    boolean ha1Equals(String ha1) {
+        if ( ha1 == null || ha1.length() != ha1Hex.length )
+            return false ;
+        for ( int i = 0 ; i < ha1Hex.length ; i++ ) {
+            if ( ha1.charAt(i) != ha1Hex[i] )
+                return false ;
+        }
+        return true ;
+    }
+
+    /** The H(A1) last calculated by this thread, as a string. */
+    String ha1() {
+        return string(ha1Hex) ;
+    }
+
+    /** The session key last calculated by this thread, as a string. */
+    String sessionKey() {
+        return string(keyHex) ;
+    }
+
+    private static String string(byte[] hex) {
+        char[] chars = new char[hex.length] ;
+        for ( int i = 0 ; i < chars.length ; i++ )
+            chars[i] = (char)hex[i] ;
+        return new String(chars) ;
+    }
+
+    // The secret is the string ha1 or, if that is null, the hex bytes.
+    private boolean check(AuthResponseHeader auth, String ha1, byte[] ha1Bytes) {
+        if ( ! decodeHex(auth.response, expected) )
+            return false ;
+        if ( auth.qop != null && ( auth.nc == null || auth.cnonce == null ) )
+            return false ;
+        // H(A2)
+        md.reset() ;
+        update(auth.method) ;
+        md.update((byte)':') ;
+        update(auth.uri) ;
+        digestHex(ha2Hex) ;
+        // KD(H(A1), nonce:[nc:cnonce:qop:]H(A2))
+        md.reset() ;
+        if ( ha1 == null )
+            md.update(ha1Bytes) ;
+        else
+            update(ha1) ;
+        md.update((byte)':') ;
+        update(auth.nonce) ;
+        md.update((byte)':') ;
+        if ( auth.qop != null ) {
+            update(auth.nc) ;
+            md.update((byte)':') ;
+            update(auth.cnonce) ;
+            md.update((byte)':') ;
+            update(auth.qop) ;
+            md.update((byte)':') ;
+        }
+        md.update(ha2Hex) ;
+        digest() ;
+        return MessageDigest.isEqual(digest, expected) ;
+    }
+
+    private void digest() {
+        try { md.digest(digest, 0, digest.length) ; }
+        catch (DigestException ex) { throw new IllegalStateException(ex) ; }
+    }
+
+    private void digestHex(byte[] hex) {
+        digest() ;
+        for ( int i = 0 ; i < digest.length ; i++ ) {
+            hex[2*i]   = HEX[(digest[i] >> 4) & 0xF] ;
+            hex[2*i+1] = HEX[digest[i] & 0xF] ;
+        }
+    }
+
+    /** The value of an ASCII hex digit, or -1. Unlike {@link Character#digit(char, int)},
+     * other Unicode digits, such as fullwidth ones, are not accepted.
+     */
+    static int hexDigit(char c) {
+        return ( c < 128 ) ? HEX_VALUE[c] : -1 ;
+    }
+
+    // Decode hex into exactly bytes.length bytes.
+    private static boolean decodeHex(String hex, byte[] bytes) {
+        if ( hex == null || hex.length() != 2*bytes.length )
+            return false ;
+        for ( int i = 0 ; i < bytes.length ; i++ ) {
+            int hi = hexDigit(hex.charAt(2*i)) ;
+            int lo = hexDigit(hex.charAt(2*i+1)) ;
+            if ( hi < 0 || lo < 0 )
+                return false ;
+            bytes[i] = (byte)((hi << 4) | lo) ;
+        }
+        return true ;
+    }
+
+    // UTF-8, as String.getBytes: an unpaired surrogate is '?'.
+    private void update(String s) {
+        if ( s == null ) {
+            // As string concatenation would have it.
+            update("null") ;
+            return ;
+        }
+        byte[] buf = buffer ;
+        int n = 0 ;
+        int len = s.length() ;
+        for ( int i = 0 ; i < len ; i++ ) {
+            if ( n > buf.length - 4 ) {
+                md.update(buf, 0, n) ;
+                n = 0 ;
+            }
+            char c = s.charAt(i) ;
+            if ( c < 0x80 )
+                buf[n++] = (byte)c ;
+            else if ( c < 0x800 ) {
+                buf[n++] = (byte)(0xC0 | (c >> 6)) ;
+                buf[n++] = (byte)(0x80 | (c & 0x3F)) ;
+            } else if ( Character.isHighSurrogate(c) && i+1 < len && Character.isLowSurrogate(s.charAt(i+1)) ) {
+                int cp = Character.toCodePoint(c, s.charAt(++i)) ;
+                buf[n++] = (byte)(0xF0 | (cp >> 18)) ;
+                buf[n++] = (byte)(0x80 | ((cp >> 12) & 0x3F)) ;
+                buf[n++] = (byte)(0x80 | ((cp >> 6) & 0x3F)) ;
+                buf[n++] = (byte)(0x80 | (cp & 0x3F)) ;
+            } else if ( Character.isSurrogate(c) )
+                buf[n++] = (byte)'?' ;
+            else {
+                buf[n++] = (byte)(0xE0 | (c >> 12)) ;
+                buf[n++] = (byte)(0x80 | ((c >> 6) & 0x3F)) ;
+                buf[n++] = (byte)(0x80 | (c & 0x3F)) ;
+            }
+        }
+        md.update(buf, 0, n) ;
+    }
+}
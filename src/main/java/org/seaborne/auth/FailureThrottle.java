@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.concurrent.ThreadLocalRandom ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicLongArray ;
+import java.util.concurrent.atomic.LongAdder ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+/** Count of failed logins, by username and by client address, with temporary lockout.
+ * <p>
+ * Each failure adds one to the score of the username and of the address. Scores decay
+ * exponentially, halving every {@code halfLife}. While a score is at or over the
+ * threshold, requests for that username, or from that address, are refused before the
+ * password is looked up or any digest calculated. Refused requests do not add to the
+ * score, so the lockout ends when the score has decayed below the threshold.
+ * <p>
+ * The scores are kept in a count-min sketch: {@value #DEPTH} rows of fixed-size tables
+ * of cells, each key hashed to one cell in every row. A cell is one {@code long}, the
+ * time of the last update in seconds (top 32 bits) and the score as a {@code float},
+ * updated with compare-and-set. The estimate for a key is the least of its cells, which
+ * is never less than the true score; keys that share all their cells with other keys
+ * can be over-counted. The hash is seeded per instance so colliding keys can not be
+ * chosen in advance. Memory use is fixed, however many usernames and addresses are seen.
+ * <p>
+ * Locking out by username means anyone can lock out a user by failing as that user;
+ * set a short half-life, or a threshold of zero for usernames, where that matters.
+ */
+public class FailureThrottle {
+    public static final int DEFAULT_THRESHOLD = 10 ;
+    public static final long DEFAULT_HALF_LIFE = TimeUnit.MINUTES.toMillis(5) ;
+    public static final int DEFAULT_WIDTH = 1 << 12 ;
+    static final int DEPTH = 4 ;
+
+    private final AtomicLongArray cells ;
+    private final int mask ;
+    private final int shift ;
+    private final long[] seeds = new long[DEPTH] ;
+    private final double halfLifeSeconds ;
+    private final int userThreshold ;
+    private final int addressThreshold ;
+    private final String addressHeader ;
+    private final long origin = System.currentTimeMillis() ;
+    private final LongAdder refused = new LongAdder() ;
+
+    /**
+     * @param threshold     Failures (allowing for decay) at which a username or address is locked out
+     * @param halfLife      Milliseconds for a score to halve; at least one second
+     * @param addressHeader Header with the client address, or null for the remote address
+     * @see ChallengeRateLimiter
+     */
+    public FailureThrottle(int threshold, long halfLife, String addressHeader) {
+        this(threshold, threshold, halfLife, addressHeader, DEFAULT_WIDTH) ;
+    }
+
+    /** As {@link #FailureThrottle(int, long, String)} with separate thresholds;
+     * zero turns off that lockout.
+     */
+    public FailureThrottle(int userThreshold, int addressThreshold, long halfLife, String addressHeader, int width) {
+        if ( userThreshold < 0 || addressThreshold < 0 )
+            throw new IllegalArgumentException("Negative threshold") ;
+        if ( halfLife < TimeUnit.SECONDS.toMillis(1) )
+            throw new IllegalArgumentException("Half life must be at least one second: "+halfLife) ;
+        if ( width <= 0 )
+            throw new IllegalArgumentException("Width must be positive: "+width) ;
+        int size = Integer.highestOneBit(Math.max(2, width) - 1) << 1 ;
+        this.cells = new AtomicLongArray(DEPTH * size) ;
+        this.mask = size - 1 ;
+        this.shift = Integer.numberOfTrailingZeros(size) ;
+        this.halfLifeSeconds = halfLife / 1000.0 ;
+        this.userThreshold = userThreshold ;
+        this.addressThreshold = addressThreshold ;
+        this.addressHeader = addressHeader ;
+        ThreadLocalRandom random = ThreadLocalRandom.current() ;
+        for ( int i = 0 ; i < DEPTH ; i++ )
+            seeds[i] = random.nextLong() | 1 ;
+    }
+
+    /** The client address of a request, as used for {@link #lockedFor} and {@link #failure}. */
+    public String clientAddress(HttpServletRequest request) {
+        return ChallengeRateLimiter.clientAddress(request, addressHeader) ;
+    }
+
+    /** Whether the username or address is locked out.
+     * @return 0 if not, else the number of seconds until the lockout ends.
+     */
+    public long lockedFor(String username, String address) {
+        return lockedFor(username, address, System.currentTimeMillis()) ;
+    }
+
+    long lockedFor(String username, String address, long now) {
+        int t = seconds(now) ;
+        double wait = Math.max(excess(userKey(username), userThreshold, t),
+                               excess(addressKey(address), addressThreshold, t)) ;
+        if ( wait <= 0 )
+            return 0 ;
+        refused.increment() ;
+        return Math.max(1, (long)Math.ceil(wait)) ;
+    }
+
+    /** Record a failed attempt for the username and address. */
+    public void failure(String username, String address) {
+        failure(username, address, System.currentTimeMillis()) ;
+    }
+
+    void failure(String username, String address, long now) {
+        int t = seconds(now) ;
+        if ( userThreshold > 0 )
+            add(userKey(username), t) ;
+        if ( addressThreshold > 0 )
+            add(addressKey(address), t) ;
+    }
+
+    /** The decayed number of failures for a username. */
+    public double userScore(String username) {
+        return estimate(userKey(username), seconds(System.currentTimeMillis())) ;
+    }
+
+    /** The decayed number of failures for an address. */
+    public double addressScore(String address) {
+        return estimate(addressKey(address), seconds(System.currentTimeMillis())) ;
+    }
+
+    /** Number of requests refused because of a lockout. */
+    public long getRefused() {
+        return refused.sum() ;
+    }
+
+    // Seconds until the score for the key decays below the threshold, or <= 0.
+    private double excess(String key, int threshold, int t) {
+        if ( threshold <= 0 || key == null )
+            return 0 ;
+        double score = estimate(key, t) ;
+        if ( score < threshold )
+            return 0 ;
+        // score * 2^(-s/halfLife) < threshold
+        return Math.max(1, halfLifeSeconds * Math.log(score / threshold) / Math.log(2)) ;
+    }
+
+    private double estimate(String key, int t) {
+        if ( key == null )
+            return 0 ;
+        double min = Double.MAX_VALUE ;
+        for ( int row = 0 ; row < DEPTH ; row++ )
+            min = Math.min(min, decayed(cells.get(index(key, row)), t)) ;
+        return min ;
+    }
+
+    private void add(String key, int t) {
+        if ( key == null )
+            return ;
+        for ( int row = 0 ; row < DEPTH ; row++ ) {
+            int idx = index(key, row) ;
+            for (;;) {
+                long cell = cells.get(idx) ;
+                float score = (float)(decayed(cell, t) + 1) ;
+                if ( cells.compareAndSet(idx, cell, ((long)t << 32) | (Float.floatToRawIntBits(score) & 0xFFFF_FFFFL)) )
+                    break ;
+            }
+        }
+    }
+
+    // The score in a cell at time t. An unused cell (zero) has a score of zero.
+    private double decayed(long cell, int t) {
+        float score = Float.intBitsToFloat((int)cell) ;
+        if ( score == 0 )
+            return 0 ;
+        int age = t - (int)(cell >>> 32) ;
+        if ( age <= 0 )
+            return score ;
+        return score * Math.pow(2, -age / halfLifeSeconds) ;
+    }
+
+    private int index(String key, int row) {
+        long h = seeds[row] ;
+        for ( int i = 0 ; i < key.length() ; i++ )
+            h = (h ^ key.charAt(i)) * 0x9E3779B97F4A7C15L ;
+        h ^= h >>> 29 ;
+        h *= 0xBF58476D1CE4E5B9L ;
+        h ^= h >>> 32 ;
+        return (row << shift) | (int)(h & mask) ;
+    }
+
+    private int seconds(long now) {
+        return (int)Math.max(0, TimeUnit.MILLISECONDS.toSeconds(now - origin)) ;
+    }
+
+    private static String userKey(String username) {
+        return ( username == null ) ? null : "u:"+username ;
+    }
+
+    private static String addressKey(String address) {
+        return ( address == null ) ? null : "a:"+address ;
+    }
+}
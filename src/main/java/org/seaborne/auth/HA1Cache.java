@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.Objects ;
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.concurrent.atomic.AtomicReferenceArray ;
+import java.util.concurrent.atomic.LongAdder ;
+
+/** Cache of H(A1) = H(username:realm:password), for a {@link DigestAlgorithm}, so that a request can be checked without
+ * fetching the password and with one less hash.
+ * <p>
+ * Whatever supplies the passwords must call {@link #invalidate(String)} when a user's
+ * password changes or the user is removed, or {@link #clear} if it can not tell which;
+ * until then, the old password still works. A new password works straight away: when the
+ * cached H(A1) does not match, the engine checks with the password as well.
+ * One cache can be shared by several engines.
+ * <p>
+ * The cache has a fixed number of slots, indexed by a hash of the username and realm;
+ * a new entry replaces whatever was in its slot, including the user's entry for another
+ * algorithm. There are no locks.
+ */
+public class HA1Cache {
+    public static final int DEFAULT_SIZE = 1 << 12 ;
+
+    private static final class Entry {
+        final String username ;
+        final String realm ;
+        final DigestAlgorithm algorithm ;
+        final String ha1 ;
+
+        Entry(String username, String realm, DigestAlgorithm algorithm, String ha1) {
+            this.username = username ;
+            this.realm = realm ;
+            this.algorithm = algorithm ;
+            this.ha1 = ha1 ;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots ;
+    private final int mask ;
+    // Changed by every invalidation, so that a value calculated from a password fetched
+    // before the invalidation is not then put in the cache.
+    private final AtomicLong generation = new AtomicLong() ;
+    private final LongAdder hits = new LongAdder() ;
+    private final LongAdder misses = new LongAdder() ;
+
+    public HA1Cache() {
+        this(DEFAULT_SIZE) ;
+    }
+
+    public HA1Cache(int size) {
+        if ( size <= 0 )
+            throw new IllegalArgumentException("Size must be positive: "+size) ;
+        int n = Integer.highestOneBit(Math.max(2, size) - 1) << 1 ;
+        this.slots = new AtomicReferenceArray<>(n) ;
+        this.mask = n - 1 ;
+    }
+
+    /** The MD5 H(A1) for the user in the realm, or null. */
+    public String get(String username, String realm) {
+        return get(username, realm, DigestAlgorithm.MD5) ;
+    }
+
+    /** The H(A1) for the user in the realm, or null. */
+    public String get(String username, String realm, DigestAlgorithm algorithm) {
+        Entry e = slots.get(slot(username, realm)) ;
+        if ( e != null && e.algorithm == algorithm && e.username.equals(username) && e.realm.equals(realm) ) {
+            hits.increment() ;
+            return e.ha1 ;
+        }
+        misses.increment() ;
+        return null ;
+    }
+
+    /** The value to pass to {@link #put}, read before the password is fetched. */
+    public long generation() {
+        return generation.get() ;
+    }
+
+    /** As {@link #put(String, String, DigestAlgorithm, String, long)}, for MD5. */
+    public void put(String username, String realm, String ha1, long generation) {
+        put(username, realm, DigestAlgorithm.MD5, ha1, generation) ;
+    }
+
+    /** Record the H(A1) calculated from a password fetched when the cache was at {@code generation}.
+     * Nothing is recorded if there has been an invalidation since.
+     */
+    public void put(String username, String realm, DigestAlgorithm algorithm, String ha1, long generation) {
+        Objects.requireNonNull(algorithm) ;
+        Objects.requireNonNull(ha1) ;
+        int slot = slot(username, realm) ;
+        Entry e = new Entry(username, realm, algorithm, ha1) ;
+        slots.set(slot, e) ;
+        // Undo if an invalidation may have been missed.
+        if ( this.generation.get() != generation )
+            slots.compareAndSet(slot, e, null) ;
+    }
+
+    /** Forget the user's H(A1) in one realm, for any algorithm. */
+    public void invalidate(String username, String realm) {
+        generation.incrementAndGet() ;
+        int slot = slot(username, realm) ;
+        Entry e = slots.get(slot) ;
+        if ( e != null && e.username.equals(username) && e.realm.equals(realm) )
+            slots.compareAndSet(slot, e, null) ;
+    }
+
+    /** Forget the user's H(A1) in all realms. This looks at every slot. */
+    public void invalidate(String username) {
+        generation.incrementAndGet() ;
+        for ( int i = 0 ; i < slots.length() ; i++ ) {
+            Entry e = slots.get(i) ;
+            if ( e != null && e.username.equals(username) )
+                slots.compareAndSet(i, e, null) ;
+        }
+    }
+
+    /** Forget everything. */
+    public void clear() {
+        generation.incrementAndGet() ;
+        for ( int i = 0 ; i < slots.length() ; i++ )
+            slots.set(i, null) ;
+    }
+
+    /** Number of slots. */
+    public int size() {
+        return slots.length() ;
+    }
+
+    public long getHits() {
+        return hits.sum() ;
+    }
+
+    public long getMisses() {
+        return misses.sum() ;
+    }
+
+    private int slot(String username, String realm) {
+        int h = (username.hashCode() * 31 + realm.hashCode()) * 0x9E3779B9 ;
+        return (h ^ (h >>> 16)) & mask ;
+    }
+}
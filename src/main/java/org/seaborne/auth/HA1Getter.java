@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import javax.servlet.ServletContext ;
+
+/** Interface to map a user to H(A1) = MD5(username:realm:password), as lower case hex,
+ * for credential stores that do not keep the password itself, such as files written by
+ * Apache {@code htdigest}. The digest is checked with one less hash than from a password.
+ * @see PasswordGetter
+ * @see HtDigestFile
+ */
+@FunctionalInterface
+public interface HA1Getter {
+    /** Returns H(A1) for the username in the realm, or null for "not found".
+     * @param servletContext
+     * @param username
+     * @param realm
+     * @return String, with null for "not found"
+     */
+    public String getHA1(ServletContext servletContext, String username, String realm);
+
+    /** Returns H(A1) for the username in the realm, calculated with {@code algorithm}, or null.
+     * By default, only MD5 is available.
+     */
+    public default String getHA1(ServletContext servletContext, String username, String realm, DigestAlgorithm algorithm) {
+        return ( algorithm == DigestAlgorithm.MD5 ) ? getHA1(servletContext, username, realm) : null ;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.BufferedReader ;
+import java.io.IOException ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.HashMap ;
+import java.util.Locale ;
+import java.util.Map ;
+
+import javax.servlet.ServletContext ;
+
+/** Credentials in the Apache {@code htdigest} format: one line for each user and realm,
+ * {@code username:realm:H(A1)}, with H(A1) as 32 hex digits. Blank lines and lines
+ * starting with {@code #} are skipped. No passwords are read or kept.
+ */
+public class HtDigestFile implements HA1Getter {
+    private final Map<String, Map<String, String>> realms ;
+
+    /** Read a file.
+     * @throws IllegalArgumentException for a badly formed line
+     */
+    public static HtDigestFile read(Path file) throws IOException {
+        Map<String, Map<String, String>> realms = new HashMap<>() ;
+        try ( BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8) ) {
+            String line ;
+            int lineNum = 0 ;
+            while ( (line = in.readLine()) != null ) {
+                lineNum++ ;
+                line = line.trim() ;
+                if ( line.isEmpty() || line.startsWith("#") )
+                    continue ;
+                // The username can not contain ':', the realm can.
+                int i = line.indexOf(':') ;
+                int j = line.lastIndexOf(':') ;
+                if ( i <= 0 || j <= i )
+                    throw new IllegalArgumentException(file+": line "+lineNum+": expected username:realm:ha1") ;
+                String ha1 = line.substring(j+1).toLowerCase(Locale.ROOT) ;
+                if ( ! isHA1(ha1) )
+                    throw new IllegalArgumentException(file+": line "+lineNum+": expected 32 hex digits") ;
+                realms.computeIfAbsent(line.substring(i+1, j), r -> new HashMap<>()).put(line.substring(0, i), ha1) ;
+            }
+        }
+        return new HtDigestFile(realms) ;
+    }
+
+    private HtDigestFile(Map<String, Map<String, String>> realms) {
+        this.realms = realms ;
+    }
+
+    @Override
+    public String getHA1(ServletContext servletContext, String username, String realm) {
+        Map<String, String> users = realms.get(realm) ;
+        return ( users == null ) ? null : users.get(username) ;
+    }
+
+    /** Whether the file has any users for the realm. */
+    public boolean hasRealm(String realm) {
+        return realms.containsKey(realm) ;
+    }
+
+    /** A line of the file for a user, given the password. */
+    public static String line(String username, String realm, String password) {
+        return username+":"+realm+":"+RFC2617.H(RFC2617.A1_MD5(username, realm, password)) ;
+    }
+
+    private static boolean isHA1(String s) {
+        if ( s.length() != 32 )
+            return false ;
+        for ( int i = 0 ; i < s.length() ; i++ ) {
+            if ( DigestVerifier.hexDigit(s.charAt(i)) < 0 )
+                return false ;
+        }
+        return true ;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.lang.management.ManagementFactory ;
+import java.lang.management.MemoryNotificationInfo ;
+import java.lang.management.MemoryPoolMXBean ;
+import java.lang.management.MemoryType ;
+import java.lang.ref.WeakReference ;
+import java.util.List ;
+import java.util.concurrent.CopyOnWriteArrayList ;
+import java.util.function.Consumer ;
+
+import javax.management.NotificationEmitter ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Notification that the Java heap is nearly full.
+ * <p>
+ * This sets a usage threshold, and a collection usage threshold, on each heap memory pool
+ * that supports them (in practice, the old generation) and listens for the JVM's
+ * notifications that a threshold has been crossed. Registered actions are then run on the
+ * housekeeping thread. Thresholds already set by the application are left alone.
+ * <p>
+ * Actions hold their target weakly, as {@link Sweeper} does.
+ */
+public class MemoryPressure {
+    private static final Logger log = LoggerFactory.getLogger(MemoryPressure.class) ;
+
+    /** Default threshold, as a fraction of the maximum size of a memory pool. */
+    public static final double DEFAULT_THRESHOLD = 0.85 ;
+
+    private static final List<Registration<?>> registrations = new CopyOnWriteArrayList<>() ;
+    private static double threshold = DEFAULT_THRESHOLD ;
+    private static boolean installed = false ;
+
+    /** A registered action. */
+    public static class Registration<T> {
+        private final WeakReference<T> target ;
+        private final Consumer<T> action ;
+
+        private Registration(T target, Consumer<T> action) {
+            this.target = new WeakReference<>(target) ;
+            this.action = action ;
+        }
+
+        /** Stop notifications for this registration. */
+        public void cancel() {
+            registrations.remove(this) ;
+        }
+    }
+
+    private MemoryPressure() {}
+
+    /** Call {@code action} on {@code target} whenever the heap is nearly full. */
+    static <T> Registration<T> register(T target, Consumer<T> action) {
+        install() ;
+        Registration<T> registration = new Registration<>(target, action) ;
+        registrations.add(registration) ;
+        return registration ;
+    }
+
+    /** Set the threshold, as a fraction of each pool's maximum size.
+     * This replaces thresholds set by this class, not ones set by the application.
+     */
+    public static synchronized void setThreshold(double fraction) {
+        if ( fraction <= 0 || fraction >= 1 )
+            throw new IllegalArgumentException("Threshold must be between 0 and 1: "+fraction) ;
+        double previous = threshold ;
+        threshold = fraction ;
+        if ( installed )
+            setThresholds(previous, fraction) ;
+    }
+
+    public static synchronized double getThreshold() {
+        return threshold ;
+    }
+
+    private static synchronized void install() {
+        if ( installed )
+            return ;
+        installed = true ;
+        setThresholds(0, threshold) ;
+        NotificationEmitter emitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean() ;
+        emitter.addNotificationListener((notification, handback) -> {
+            String type = notification.getType() ;
+            if ( type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)
+                 || type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED) )
+                // Not on the JVM's notification thread.
+                Sweeper.execute(MemoryPressure::exceeded) ;
+        }, null, null) ;
+    }
+
+    // Set thresholds that are unset, or that were set by this class to "previous".
+    private static void setThresholds(double previous, double fraction) {
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+            if ( pool.getType() != MemoryType.HEAP )
+                continue ;
+            long max = pool.getUsage().getMax() ;
+            if ( max <= 0 )
+                continue ;
+            long previousBytes = (long)(max * previous) ;
+            long bytes = (long)(max * fraction) ;
+            if ( pool.isUsageThresholdSupported() ) {
+                long current = pool.getUsageThreshold() ;
+                if ( current == 0 || current == previousBytes )
+                    pool.setUsageThreshold(bytes) ;
+            }
+            if ( pool.isCollectionUsageThresholdSupported() ) {
+                long current = pool.getCollectionUsageThreshold() ;
+                if ( current == 0 || current == previousBytes )
+                    pool.setCollectionUsageThreshold(bytes) ;
+            }
+        }
+    }
+
+    private static void exceeded() {
+        log.info("Memory usage threshold exceeded") ;
+        for ( Registration<?> registration : registrations ) {
+            try { run(registration) ; }
+            catch (RuntimeException ex) { log.warn("Memory pressure action: "+ex.getMessage(), ex) ; }
+        }
+    }
+
+    private static <T> void run(Registration<T> registration) {
+        T t = registration.target.get() ;
+        if ( t == null ) {
+            registration.cancel() ;
+            return ;
+        }
+        registration.action.accept(t) ;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.Arrays ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.function.Consumer ;
+
+/** Interned strings (usernames, realms) with small integer ids.
+ * <p>
+ * There is one entry per distinct string, not per session, so session records can
+ * refer to a name with an {@code int}. Ids are never reused. Id 0 is the empty string.
+ */
+public class NameTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>() ;
+    // Written with the table locked. An entry is published by the write of "count".
+    private volatile String[] names = new String[16] ;
+    private volatile int count = 0 ;
+    private final Consumer<String> onAdd ;
+
+    public NameTable() {
+        this(Collections.emptyList(), null) ;
+    }
+
+    /** A table starting with {@code initial}, in id order, as previously recorded by {@code onAdd}.
+     * {@code onAdd} is called with each new name, under the table lock, before the id is returned.
+     */
+    NameTable(List<String> initial, Consumer<String> onAdd) {
+        this.onAdd = onAdd ;
+        for ( String name : initial )
+            append(name) ;
+        intern("") ;
+    }
+
+    /** The id for {@code name}, allocating one if necessary. */
+    public int intern(String name) {
+        Integer id = ids.get(name) ;
+        if ( id != null )
+            return id ;
+        synchronized(this) {
+            id = ids.get(name) ;
+            if ( id != null )
+                return id ;
+            if ( onAdd != null )
+                onAdd.accept(name) ;
+            return append(name) ;
+        }
+    }
+
+    private synchronized int append(String name) {
+        int x = count ;
+        if ( x == names.length )
+            names = Arrays.copyOf(names, 2*x) ;
+        names[x] = name ;
+        count = x+1 ;
+        ids.putIfAbsent(name, x) ;
+        return x ;
+    }
+
+    /** The string for an id, or null if there is no such id. */
+    public String get(int id) {
+        if ( id < 0 || id >= count )
+            return null ;
+        return names[id] ;
+    }
+
+    public int size() {
+        return count ;
+    }
+}
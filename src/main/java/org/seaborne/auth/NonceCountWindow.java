@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.concurrent.atomic.AtomicLong ;
+
+/** Record of the nonce counts ({@code nc}) used with a session, to detect replayed requests.
+ * <p>
+ * The state is one 64 bit word: the highest nc seen in the top 32 bits and, in the
+ * bottom 32 bits, a bitmap of which of the {@value #WIDTH} values up to and including
+ * the highest have been seen (bit {@code i} for {@code highest-i}). It is updated by
+ * compare-and-set, so concurrent requests on a session, which may arrive out of order,
+ * do not wait for each other.
+ * <p>
+ * An nc is accepted once. An nc more than {@value #WIDTH} below the highest seen is
+ * rejected as too old.
+ */
+public class NonceCountWindow {
+    /** Number of nc values tracked below the highest. */
+    public static final int WIDTH = 32 ;
+
+    /** Result of {@link #update} when the nc is not acceptable. No valid window is zero. */
+    static final long REJECT = 0 ;
+
+    private final AtomicLong window = new AtomicLong(0) ;
+
+    public NonceCountWindow() {}
+
+    /** Record {@code nc}.
+     * @return false if {@code nc} has already been used, is too old, or is not in the range 1 to 2^32-1.
+     */
+    public boolean accept(long nc) {
+        for (;;) {
+            long w = window.get() ;
+            long w2 = update(w, nc) ;
+            if ( w2 == REJECT )
+                return false ;
+            if ( window.compareAndSet(w, w2) )
+                return true ;
+        }
+    }
+
+    /** The state as a single word, as used by {@link #update}. */
+    public long get() {
+        return window.get() ;
+    }
+
+    void set(long w) {
+        window.set(w) ;
+    }
+
+    /** The window after accepting {@code nc}, or {@link #REJECT}. */
+    static long update(long w, long nc) {
+        if ( nc <= 0 || nc > 0xFFFF_FFFFL )
+            return REJECT ;
+        long highest = w >>> 32 ;
+        long bits = w & 0xFFFF_FFFFL ;
+        if ( nc > highest ) {
+            long shift = nc - highest ;
+            bits = ( shift >= WIDTH ) ? 1 : ((bits << shift) & 0xFFFF_FFFFL) | 1 ;
+            return (nc << 32) | bits ;
+        }
+        long offset = highest - nc ;
+        if ( offset >= WIDTH )
+            return REJECT ;
+        long bit = 1L << offset ;
+        if ( (bits & bit) != 0 )
+            return REJECT ;
+        return w | bit ;
+    }
+
+    /** Parse an nc field, 8 hex digits.
+     * @return the value, or -1 if it is not well-formed.
+     */
+    public static long parse(String nc) {
+        if ( nc == null || nc.isEmpty() || nc.length() > 8 )
+            return -1 ;
+        long x = 0 ;
+        for ( int i = 0 ; i < nc.length() ; i++ ) {
+            int d = DigestVerifier.hexDigit(nc.charAt(i)) ;
+            if ( d < 0 )
+                return -1 ;
+            x = (x << 4) | d ;
+        }
+        return x ;
+    }
+}
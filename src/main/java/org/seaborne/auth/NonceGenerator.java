@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+/** Source of the unguessable nonce and opaque values for challenges.
+ * <p>
+ * A value is 128 bits written as 32 lower case hex characters; the off-heap session
+ * stores rely on that shape. Implementations are called concurrently.
+ *
+ * @see NonceGenerators
+ */
+@FunctionalInterface
+public interface NonceGenerator {
+    /** A new value. */
+    String generate() ;
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.security.NoSuchAlgorithmException ;
+import java.security.SecureRandom ;
+import java.util.UUID ;
+
+/** {@link NonceGenerator} implementations.
+ * <p>
+ * A single {@link SecureRandom} is shared by all threads that use it, so under load
+ * threads queue for it. The generators here, other than {@link #uuid()}, give each
+ * thread its own generator and write the hex directly, with no intermediate strings.
+ */
+public class NonceGenerators {
+    private static final int VALUE_BYTES = 16 ;
+    /** Bytes fetched at a time by {@link #buffered()}. */
+    public static final int DEFAULT_BUFFER = 4096 ;
+
+    /** The generator used by {@link DigestHttp} unless configured otherwise. */
+    public static final NonceGenerator DEFAULT = buffered() ;
+
+    /** Random UUIDs (122 random bits), as originally used. All threads share one {@link SecureRandom}. */
+    public static NonceGenerator uuid() {
+        return () -> {
+            UUID uuid = UUID.randomUUID() ;
+            return DigestSessionStoreOffHeap.hex128(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) ;
+        } ;
+    }
+
+    /** A DRBG {@link SecureRandom} for each thread. */
+    public static NonceGenerator perThread() {
+        ThreadLocal<byte[]> bytes = ThreadLocal.withInitial(() -> new byte[VALUE_BYTES]) ;
+        ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(NonceGenerators::newRandom) ;
+        return () -> {
+            byte[] b = bytes.get() ;
+            randoms.get().nextBytes(b) ;
+            return hex(b, 0) ;
+        } ;
+    }
+
+    /** A DRBG {@link SecureRandom} for each thread, called for {@link #DEFAULT_BUFFER} bytes at a time. */
+    public static NonceGenerator buffered() {
+        return buffered(DEFAULT_BUFFER) ;
+    }
+
+    /** A DRBG {@link SecureRandom} for each thread, called for {@code bufferBytes} bytes at a time. */
+    public static NonceGenerator buffered(int bufferBytes) {
+        if ( bufferBytes < VALUE_BYTES || bufferBytes % VALUE_BYTES != 0 )
+            throw new IllegalArgumentException("Buffer size must be a multiple of "+VALUE_BYTES+": "+bufferBytes) ;
+        ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(() -> new Buffer(bufferBytes)) ;
+        return () -> buffers.get().next() ;
+    }
+
+    private static class Buffer {
+        final SecureRandom random = newRandom() ;
+        final byte[] bytes ;
+        int position ;
+
+        Buffer(int size) {
+            this.bytes = new byte[size] ;
+            this.position = size ;
+        }
+
+        String next() {
+            if ( position == bytes.length ) {
+                random.nextBytes(bytes) ;
+                position = 0 ;
+            }
+            String s = hex(bytes, position) ;
+            // Do not leave used values in memory.
+            for ( int i = position ; i < position+VALUE_BYTES ; i++ )
+                bytes[i] = 0 ;
+            position += VALUE_BYTES ;
+            return s ;
+        }
+    }
+
+    private static SecureRandom newRandom() {
+        try { return SecureRandom.getInstance("DRBG") ; }
+        catch (NoSuchAlgorithmException ex) { return new SecureRandom() ; }
+    }
+
+    private static String hex(byte[] b, int offset) {
+        return DigestSessionStoreOffHeap.hex128(getLong(b, offset), getLong(b, offset+8)) ;
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        long x = 0 ;
+        for ( int i = 0 ; i < 8 ; i++ )
+            x = (x << 8) | (b[offset+i] & 0xFF) ;
+        return x ;
+    }
+}
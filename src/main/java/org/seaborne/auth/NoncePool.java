@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.concurrent.atomic.AtomicReferenceArray ;
+import java.util.concurrent.atomic.LongAdder ;
+import java.util.concurrent.locks.LockSupport ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Nonce and opaque values generated ahead of time by a background thread, so that
+ * a burst of challenges does not wait for random number generation.
+ * <p>
+ * Values are held in a ring buffer. Request threads take from it with a
+ * compare-and-set, without locking; if it is empty they generate a value inline
+ * with the underlying generator. The refill thread tops the ring up when it falls
+ * below half full, and at least every {@value #REFILL_CHECK_MILLIS}ms.
+ * <p>
+ * A value is handed out at most once. One pool can be shared by many engines.
+ */
+public class NoncePool implements NonceGenerator, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(NoncePool.class) ;
+
+    static final long REFILL_CHECK_MILLIS = 100 ;
+
+    private final NonceGenerator generator ;
+    private final AtomicReferenceArray<String> ring ;
+    private final int mask ;
+    // Next slot to take. Advanced by request threads.
+    private final AtomicLong head = new AtomicLong(0) ;
+    // Next slot to fill. Written only by the refill thread.
+    private volatile long tail = 0 ;
+    private final Thread refiller ;
+    private volatile boolean running = true ;
+
+    private final LongAdder taken = new LongAdder() ;
+    private final LongAdder misses = new LongAdder() ;
+    private volatile long generated = 0 ;
+    private volatile double refillRate = 0 ;
+
+    /**
+     * @param generator Source of values
+     * @param capacity  Number of values held; rounded up to a power of two
+     */
+    public NoncePool(NonceGenerator generator, int capacity) {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException("Capacity must be positive: "+capacity) ;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1 ;
+        this.generator = generator ;
+        this.ring = new AtomicReferenceArray<>(size) ;
+        this.mask = size - 1 ;
+        this.refiller = new Thread(this::refillLoop, "DigestNoncePool") ;
+        refiller.setDaemon(true) ;
+        refiller.start() ;
+    }
+
+    @Override
+    public String generate() {
+        for (;;) {
+            long h = head.get() ;
+            long level = tail - h ;
+            if ( level <= 0 )
+                break ;
+            if ( ! head.compareAndSet(h, h+1) )
+                continue ;
+            if ( level <= (mask+1)/2 )
+                LockSupport.unpark(refiller) ;
+            // The refill thread may have already reused the slot, in which case this
+            // takes the newer value and the taker of that slot finds it empty.
+            String value = ring.getAndSet((int)(h & mask), null) ;
+            if ( value == null )
+                break ;
+            taken.increment() ;
+            return value ;
+        }
+        misses.increment() ;
+        LockSupport.unpark(refiller) ;
+        return generator.generate() ;
+    }
+
+    private void refillLoop() {
+        long rateStart = System.nanoTime() ;
+        long rateCount = 0 ;
+        while ( running ) {
+            try {
+                long t = tail ;
+                while ( running && t - head.get() <= mask ) {
+                    ring.set((int)(t & mask), generator.generate()) ;
+                    tail = ++t ;
+                    generated++ ;
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Nonce pool: "+ex.getMessage(), ex) ;
+            }
+            long now = System.nanoTime() ;
+            long elapsed = now - rateStart ;
+            if ( elapsed >= TimeUnit.SECONDS.toNanos(1) ) {
+                refillRate = (generated - rateCount) * 1e9 / elapsed ;
+                rateStart = now ;
+                rateCount = generated ;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(REFILL_CHECK_MILLIS)) ;
+        }
+    }
+
+    /** Number of values ready. */
+    public int size() {
+        return (int)Math.max(0, Math.min(tail - head.get(), mask+1)) ;
+    }
+
+    /** Maximum number of values held. */
+    public int capacity() {
+        return mask+1 ;
+    }
+
+    /** Values generated by the refill thread, per second, over about the last second. */
+    public double getRefillRate() {
+        return refillRate ;
+    }
+
+    /** Total values generated by the refill thread. */
+    public long getGenerated() {
+        return generated ;
+    }
+
+    /** Values taken from the pool. */
+    public long getTaken() {
+        return taken.sum() ;
+    }
+
+    /** Values generated inline because the pool was empty. */
+    public long getMisses() {
+        return misses.sum() ;
+    }
+
+    /** Stop the refill thread. Values already in the pool are still used, then values are generated inline. */
+    @Override
+    public void close() {
+        running = false ;
+        LockSupport.unpark(refiller) ;
+    }
+}
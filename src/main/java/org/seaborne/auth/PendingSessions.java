@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.Map ;
+import java.util.Objects ;
+import java.util.Queue ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ConcurrentLinkedQueue ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+/** The challenges that have been sent but not yet answered.
+ * <p>
+ * Entries expire after a timeout and the table has a hard capacity.
+ * All challenges have the same timeout so issue order is also expiry order:
+ * a FIFO queue gives both the sweep order and the eviction order without scanning the map.
+ * <p>
+ * The capacity limits the number of outstanding challenges: ones that have been answered
+ * or removed do not count. Their queue entries are dropped when they reach the head of
+ * the queue, or all at once when the queue is much longer than the capacity.
+ */
+public class PendingSessions {
+
+    /** What to do when a new challenge would exceed the capacity. */
+    public enum OverflowPolicy {
+        /** Drop the oldest outstanding challenge. */
+        EVICT_OLDEST,
+        /** Do not record the new challenge. The caller should not send it. */
+        REJECT
+    }
+
+    private final Map<String, DigestSession> sessions = new ConcurrentHashMap<>() ;
+    // Issue order. May contain sessions already removed from the map.
+    private final Queue<DigestSession> order = new ConcurrentLinkedQueue<>() ;
+    // Number of entries in "sessions", counting ones about to be added.
+    private final AtomicInteger count = new AtomicInteger(0) ;
+    // Approximate number of entries in "order", to know when to drop the removed ones.
+    private final AtomicInteger queued = new AtomicInteger(0) ;
+    private final AtomicBoolean compacting = new AtomicBoolean(false) ;
+
+    private volatile long timeoutMillis ;
+    private volatile int capacity ;
+    private volatile OverflowPolicy overflowPolicy ;
+
+    public PendingSessions(long timeoutMillis, int capacity, OverflowPolicy overflowPolicy) {
+        setTimeout(timeoutMillis) ;
+        setCapacity(capacity) ;
+        setOverflowPolicy(overflowPolicy) ;
+    }
+
+    /** Record a new challenge.
+     * @return false if the table is full and the overflow policy is {@link OverflowPolicy#REJECT}.
+     */
+    public boolean put(DigestSession session) {
+        for (;;) {
+            int n = count.get() ;
+            if ( n < capacity ) {
+                if ( count.compareAndSet(n, n+1) )
+                    break ;
+                continue ;
+            }
+            if ( overflowPolicy == OverflowPolicy.REJECT )
+                return false ;
+            // Make room by dropping the oldest outstanding entry, then try again.
+            // If there is none, another thread has counted an entry but not yet queued it.
+            evictOldest(1) ;
+        }
+        if ( sessions.put(session.opaque, session) != null )
+            count.decrementAndGet() ;
+        order.add(session) ;
+        if ( queued.incrementAndGet() > 2 * capacity + 16 )
+            compact() ;
+        return true ;
+    }
+
+    // Drop queue entries for sessions that are no longer in the map.
+    private void compact() {
+        if ( ! compacting.compareAndSet(false, true) )
+            return ;
+        try {
+            order.removeIf(s -> sessions.get(s.opaque) != s) ;
+            queued.set(order.size()) ;
+        } finally {
+            compacting.set(false) ;
+        }
+    }
+
+    /** Return the unexpired challenge for {@code opaque}, or null. */
+    public DigestSession get(String opaque) {
+        DigestSession session = sessions.get(opaque) ;
+        if ( session == null || isExpired(session, System.currentTimeMillis()) )
+            return null ;
+        return session ;
+    }
+
+    /** Remove and return the unexpired challenge for {@code opaque}, or null. */
+    public DigestSession take(String opaque) {
+        DigestSession session = sessions.remove(opaque) ;
+        if ( session == null )
+            return null ;
+        count.decrementAndGet() ;
+        return isExpired(session, System.currentTimeMillis()) ? null : session ;
+    }
+
+    public void remove(String opaque) {
+        if ( sessions.remove(opaque) != null )
+            count.decrementAndGet() ;
+    }
+
+    public int size() {
+        return sessions.size() ;
+    }
+
+    /** Drop up to {@code max} challenges, oldest first, whether or not they have expired.
+     * @return number removed
+     */
+    public int evictOldest(int max) {
+        int removed = 0 ;
+        while ( removed < max ) {
+            DigestSession session = order.poll() ;
+            if ( session == null )
+                break ;
+            queued.decrementAndGet() ;
+            if ( sessions.remove(session.opaque, session) ) {
+                count.decrementAndGet() ;
+                removed++ ;
+            }
+        }
+        return removed ;
+    }
+
+    /** Drop expired challenges. Only work proportional to the number expired is done. */
+    public int sweep(long now) {
+        int removed = 0 ;
+        for (;;) {
+            DigestSession session = order.peek() ;
+            if ( session == null || ! isExpired(session, now) )
+                return removed ;
+            // Evictions may have taken it already.
+            if ( order.remove(session) ) {
+                queued.decrementAndGet() ;
+                if ( sessions.remove(session.opaque, session) ) {
+                    count.decrementAndGet() ;
+                    removed++ ;
+                }
+            }
+        }
+    }
+
+    /** Milliseconds until the oldest challenge expires, making room (0 if empty). */
+    public long timeToNextExpiry(long now) {
+        for (;;) {
+            DigestSession session = order.peek() ;
+            if ( session == null )
+                return 0 ;
+            if ( sessions.get(session.opaque) == session )
+                return Math.max(0, session.created + timeoutMillis - now) ;
+            // Answered or removed.
+            if ( order.remove(session) )
+                queued.decrementAndGet() ;
+        }
+    }
+
+    private boolean isExpired(DigestSession session, long now) {
+        return session.created + timeoutMillis <= now ;
+    }
+
+    public long getTimeout() {
+        return timeoutMillis ;
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        if ( timeoutMillis <= 0 )
+            throw new IllegalArgumentException("Pending timeout must be positive: "+timeoutMillis) ;
+        this.timeoutMillis = timeoutMillis ;
+    }
+
+    public int getCapacity() {
+        return capacity ;
+    }
+
+    public void setCapacity(int capacity) {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException("Pending capacity must be positive: "+capacity) ;
+        this.capacity = capacity ;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy ;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy) ;
+    }
+}
@@ -24,6 +24,15 @@ import org.apache.commons.codec.digest.DigestUtils ;
 
 /** Operations from RFC 2617, using MD5 (the default) */
 public class RFC2617 {
+    public static final String MD5 = "MD5" ;
+    public static final String MD5_SESS = "MD5-sess" ;
+
+    /** Whether an {@code algorithm} value is a session variant ({@code -sess}), where
+     * H(A1) is calculated once for the session from the first nonce and cnonce.
+     */
+    public static boolean isSess(String algorithm) {
+        return algorithm != null && algorithm.regionMatches(true, algorithm.length()-5, "-sess", 0, 5) ;
+    }
 
     public static String KD(String data) {
         return H(data) ;
@@ -53,7 +62,7 @@ public class RFC2617 {
         Objects.requireNonNull(cnonce) ;
         String s = username+":"+realm+":"+password ;
         String x = H(s)+":"+nonce+":"+cnonce ;
-        return s ;
+        return x ;
     }
 
     public static String A2_auth(String method, String uri) {
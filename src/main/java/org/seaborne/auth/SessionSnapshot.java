@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.BufferedInputStream ;
+import java.io.BufferedOutputStream ;
+import java.io.DataInputStream ;
+import java.io.DataOutputStream ;
+import java.io.EOFException ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.io.OutputStream ;
+import java.io.UncheckedIOException ;
+import java.util.function.Consumer ;
+
+/** Binary snapshot of the active sessions of a store, for handing state from one process to another.
+ * <p>
+ * Format: a header ({@code "DGSN"}, version), then one record per session, then an end marker.
+ * A record is a tag byte, the opaque, username, realm and nonce (as {@code writeUTF}),
+ * then the creation time, last access time and nonce count window as longs.
+ * Version 2 adds the time the nonce was issued (a long) and the next nonce
+ * (a boolean for whether there is one, then the nonce as {@code writeUTF}).
+ * Version 1 snapshots are read with the nonce issued when the session was created.
+ * <p>
+ * Writing uses {@link DigestSessionStore#forEach} so it runs alongside requests without
+ * stopping them; sessions started or ended while it runs may or may not be included.
+ * Pending challenges are not included.
+ */
+public class SessionSnapshot {
+    private static final int MAGIC   = 0x4447534E ;     // "DGSN"
+    private static final int VERSION = 2 ;
+    private static final int VERSION_1 = 1 ;
+    private static final int TAG_SESSION = 1 ;
+    private static final int TAG_END     = 0 ;
+    private static final int BUFFER_SIZE = 64*1024 ;
+
+    private SessionSnapshot() {}
+
+    /** Write the active sessions of {@code store} to {@code out}. The stream is flushed, not closed.
+     * @return number of sessions written.
+     */
+    public static long write(DigestSessionStore store, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE)) ;
+        data.writeInt(MAGIC) ;
+        data.writeInt(VERSION) ;
+        long[] count = { 0 } ;
+        try {
+            store.forEach(session -> {
+                try {
+                    write(data, session) ;
+                    count[0]++ ;
+                } catch (IOException ex) { throw new UncheckedIOException(ex) ; }
+            }) ;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause() ;
+        }
+        data.writeByte(TAG_END) ;
+        data.flush() ;
+        return count[0] ;
+    }
+
+    private static void write(DataOutputStream data, DigestSession session) throws IOException {
+        data.writeByte(TAG_SESSION) ;
+        data.writeUTF(session.opaque) ;
+        data.writeUTF(session.username) ;
+        data.writeUTF(session.realm) ;
+        data.writeUTF(session.nonce) ;
+        data.writeLong(session.created) ;
+        data.writeLong(session.lastAccess) ;
+        data.writeLong(session.nonceCounts.get()) ;
+        data.writeLong(session.nonceIssued) ;
+        String next = session.nextNonce ;
+        data.writeBoolean(next != null) ;
+        if ( next != null )
+            data.writeUTF(next) ;
+    }
+
+    /** Read a snapshot, passing each session to {@code action}.
+     * Sessions before any error have already been passed on.
+     * @return number of sessions read.
+     * @throws IOException if the stream is not a snapshot, or ends early.
+     */
+    public static long read(InputStream in, Consumer<DigestSession> action) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)) ;
+        long count = 0 ;
+        try {
+            if ( data.readInt() != MAGIC )
+                throw new IOException("Not a session snapshot") ;
+            int version = data.readInt() ;
+            if ( version != VERSION && version != VERSION_1 )
+                throw new IOException("Session snapshot: unsupported version "+version) ;
+            for (;;) {
+                int tag = data.readUnsignedByte() ;
+                if ( tag == TAG_END )
+                    return count ;
+                if ( tag != TAG_SESSION )
+                    throw new IOException("Session snapshot: bad record tag "+tag) ;
+                String opaque = data.readUTF() ;
+                String username = data.readUTF() ;
+                String realm = data.readUTF() ;
+                String nonce = data.readUTF() ;
+                long created = data.readLong() ;
+                DigestSession session = new DigestSession(opaque, username, realm, null, null, nonce, created) ;
+                session.lastAccess = data.readLong() ;
+                session.nonceCounts.set(data.readLong()) ;
+                if ( version != VERSION_1 ) {
+                    session.nonceIssued = data.readLong() ;
+                    if ( data.readBoolean() )
+                        session.nextNonce = data.readUTF() ;
+                }
+                action.accept(session) ;
+                count++ ;
+            }
+        } catch (EOFException ex) {
+            throw new IOException("Session snapshot: truncated after "+count+" sessions") ;
+        }
+    }
+}
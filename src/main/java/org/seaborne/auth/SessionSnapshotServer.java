@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.io.OutputStream ;
+import java.net.StandardProtocolFamily ;
+import java.net.UnixDomainSocketAddress ;
+import java.nio.channels.Channels ;
+import java.nio.channels.ClosedChannelException ;
+import java.nio.channels.ServerSocketChannel ;
+import java.nio.channels.SocketChannel ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.attribute.BasicFileAttributes ;
+import java.util.Objects ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Hand sessions from a running process to its replacement over a local (Unix domain) socket.
+ * <p>
+ * The running process {@link #start starts} a server on a socket path. Each connection
+ * receives a {@link SessionSnapshot} of the engine's current sessions, written on the
+ * server's own thread, so requests carry on while it is sent.
+ * A new process {@link #fetch fetches} from the same path before it accepts requests,
+ * then starts its own server on the path, replacing the old one for the next handover.
+ */
+public class SessionSnapshotServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SessionSnapshotServer.class) ;
+
+    private final DigestHttp engine ;
+    private final Path path ;
+    private final ServerSocketChannel server ;
+    private final Thread thread ;
+    // Identifies the socket file this server created.
+    private final Object fileKey ;
+
+    /** Serve snapshots of the engine's sessions on {@code path}. Any existing socket file is replaced. */
+    public static SessionSnapshotServer start(DigestHttp engine, Path path) throws IOException {
+        Files.deleteIfExists(path) ;
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX) ;
+        try {
+            server.bind(UnixDomainSocketAddress.of(path)) ;
+        } catch (IOException ex) {
+            server.close() ;
+            throw ex ;
+        }
+        return new SessionSnapshotServer(engine, path, server, fileKey(path)) ;
+    }
+
+    /** Import the sessions served on {@code path} into {@code engine}.
+     * @return number of sessions added, or -1 if there is no server on the path.
+     */
+    public static long fetch(DigestHttp engine, Path path) throws IOException {
+        if ( ! Files.exists(path) )
+            return -1 ;
+        SocketChannel channel ;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(path)) ;
+        } catch (IOException ex) {
+            // A socket file left by a process that has gone.
+            log.info("No session snapshot server at "+path+": "+ex.getMessage()) ;
+            return -1 ;
+        }
+        try ( InputStream in = Channels.newInputStream(channel) ) {
+            return engine.importSessions(in) ;
+        }
+    }
+
+    private SessionSnapshotServer(DigestHttp engine, Path path, ServerSocketChannel server, Object fileKey) {
+        this.engine = engine ;
+        this.path = path ;
+        this.server = server ;
+        this.fileKey = fileKey ;
+        this.thread = new Thread(this::serve, "DigestSnapshot") ;
+        thread.setDaemon(true) ;
+        thread.start() ;
+    }
+
+    private void serve() {
+        for (;;) {
+            try ( SocketChannel channel = server.accept() ;
+                  OutputStream out = Channels.newOutputStream(channel) ) {
+                engine.exportSessions(out) ;
+            } catch (ClosedChannelException ex) {
+                return ;
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Session snapshot: "+ex.getMessage(), ex) ;
+            }
+        }
+    }
+
+    /** Stop serving. The socket file is removed unless another process has taken it over. */
+    @Override
+    public void close() {
+        try {
+            server.close() ;
+            if ( fileKey != null && Objects.equals(fileKey, fileKey(path)) )
+                Files.deleteIfExists(path) ;
+        } catch (IOException ex) {
+            log.warn("Session snapshot: close: "+ex.getMessage(), ex) ;
+        }
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey() ;
+        } catch (IOException ex) {
+            return null ;
+        }
+    }
+}
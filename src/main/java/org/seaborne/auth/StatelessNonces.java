@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.IOException ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.security.GeneralSecurityException ;
+import java.security.SecureRandom ;
+import java.util.concurrent.TimeUnit ;
+
+import javax.crypto.Mac ;
+import javax.crypto.spec.SecretKeySpec ;
+
+/** Self-validating opaque and nonce values, so that a challenge needs no server state.
+ * <p>
+ * Both are 128 bits, written as 32 hex characters, the same shape as generated values.
+ * <ul>
+ * <li>opaque: 64 random bits, then 64 bits of HMAC over the realm and the random bits.
+ * <li>nonce: issue time (seconds, 32 bits), 32 random bits, then 64 bits of HMAC over
+ *     the realm, the opaque, the time and the random bits.
+ * </ul>
+ * Any server with the same secret can check a response to a challenge issued by another.
+ * A nonce is valid for a limited time after issue.
+ * <p>
+ * To change the secret without refusing challenges already issued, give the old secret as
+ * the previous secret for at least the nonce lifetime: new challenges use the new secret,
+ * and challenges made with either are accepted.
+ */
+public class StatelessNonces {
+    private static final String HMAC = "HmacSHA256" ;
+    private static final byte LABEL_OPAQUE = 'o' ;
+    private static final byte LABEL_NONCE  = 'n' ;
+    /** Allowance for clocks on different servers. */
+    private static final long CLOCK_SKEW_SECONDS = 30 ;
+    private static final int MIN_SECRET_LENGTH = 16 ;
+
+    private final ThreadLocal<Mac> macs ;
+    // Null if there is no previous secret.
+    private final ThreadLocal<Mac> previousMacs ;
+    private final SecureRandom random = new SecureRandom() ;
+    private final long lifetimeSeconds ;
+
+    /**
+     * @param secret Shared by all servers that accept each other's challenges.
+     * @param lifetimeMillis How long a nonce is accepted for.
+     */
+    public StatelessNonces(byte[] secret, long lifetimeMillis) {
+        this(secret, null, lifetimeMillis) ;
+    }
+
+    /**
+     * @param secret Shared by all servers that accept each other's challenges.
+     * @param previousSecret The secret before {@code secret}, still accepted; may be null.
+     * @param lifetimeMillis How long a nonce is accepted for.
+     */
+    public StatelessNonces(byte[] secret, byte[] previousSecret, long lifetimeMillis) {
+        this.lifetimeSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(lifetimeMillis)) ;
+        this.macs = macs(secret) ;
+        this.previousMacs = ( previousSecret == null ) ? null : macs(previousSecret) ;
+    }
+
+    /** Read the secret from a file; the whole file content is the secret. */
+    public static StatelessNonces fromFile(Path secretFile, long lifetimeMillis) throws IOException {
+        return fromFile(secretFile, null, lifetimeMillis) ;
+    }
+
+    /** Read the secret, and optionally the previous secret, from files. */
+    public static StatelessNonces fromFile(Path secretFile, Path previousSecretFile, long lifetimeMillis) throws IOException {
+        byte[] previous = ( previousSecretFile == null ) ? null : Files.readAllBytes(previousSecretFile) ;
+        return new StatelessNonces(Files.readAllBytes(secretFile), previous, lifetimeMillis) ;
+    }
+
+    private static ThreadLocal<Mac> macs(byte[] secret) {
+        if ( secret.length < MIN_SECRET_LENGTH )
+            throw new IllegalArgumentException("Secret must be at least "+MIN_SECRET_LENGTH+" bytes") ;
+        SecretKeySpec key = new SecretKeySpec(secret.clone(), HMAC) ;
+        // Fail now, not on the first request.
+        newMac(key) ;
+        return ThreadLocal.withInitial(() -> newMac(key)) ;
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC) ;
+            mac.init(key) ;
+            return mac ;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HMAC not available", ex) ;
+        }
+    }
+
+    public String newOpaque(String realm) {
+        long r = random.nextLong() ;
+        return hex(r, macOpaque(macs.get(), realm, r)) ;
+    }
+
+    public String newNonce(String realm, String opaque, long now) {
+        long time = TimeUnit.MILLISECONDS.toSeconds(now) & 0xFFFFFFFFL ;
+        long word = (time << 32) | (random.nextInt() & 0xFFFFFFFFL) ;
+        return hex(word, macNonce(macs.get(), realm, opaque, word)) ;
+    }
+
+    /** Issue time, in milliseconds, of a nonce made by {@link #newNonce}. Does not check the nonce. */
+    public static long issueTime(String nonce) {
+        return TimeUnit.SECONDS.toMillis(Long.parseUnsignedLong(nonce, 0, 8, 16)) ;
+    }
+
+    /** The time, in milliseconds, after which no nonce issued up to {@code now} is accepted. */
+    public long acceptedUntil(long now) {
+        return now + TimeUnit.SECONDS.toMillis(lifetimeSeconds + CLOCK_SKEW_SECONDS + 1) ;
+    }
+
+    /** Check an opaque and nonce pair was issued, for this realm, by a server with the same secret,
+     * and that the nonce is not too old.
+     */
+    public boolean verify(String realm, String opaque, String nonce, long now) {
+        if ( ! isHex128(opaque) || ! isHex128(nonce) )
+            return false ;
+        long o1 = Long.parseUnsignedLong(opaque, 0, 16, 16) ;
+        long o2 = Long.parseUnsignedLong(opaque, 16, 32, 16) ;
+        long n1 = Long.parseUnsignedLong(nonce, 0, 16, 16) ;
+        long n2 = Long.parseUnsignedLong(nonce, 16, 32, 16) ;
+        boolean valid = valid(macs.get(), realm, opaque, o1, o2, n1, n2) ;
+        if ( ! valid && previousMacs != null )
+            valid = valid(previousMacs.get(), realm, opaque, o1, o2, n1, n2) ;
+        if ( ! valid )
+            return false ;
+        long issued = n1 >>> 32 ;
+        long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(now) & 0xFFFFFFFFL ;
+        long age = nowSeconds - issued ;
+        return age >= -CLOCK_SKEW_SECONDS && age <= lifetimeSeconds ;
+    }
+
+    private static boolean valid(Mac mac, String realm, String opaque, long o1, long o2, long n1, long n2) {
+        // Check both; do not short circuit.
+        return ((macOpaque(mac, realm, o1) ^ o2) | (macNonce(mac, realm, opaque, n1) ^ n2)) == 0 ;
+    }
+
+    private static long macOpaque(Mac mac, String realm, long r) {
+        mac.update(LABEL_OPAQUE) ;
+        update(mac, realm) ;
+        update(mac, r) ;
+        return first64(mac.doFinal()) ;
+    }
+
+    private static long macNonce(Mac mac, String realm, String opaque, long word) {
+        mac.update(LABEL_NONCE) ;
+        update(mac, realm) ;
+        update(mac, opaque) ;
+        update(mac, word) ;
+        return first64(mac.doFinal()) ;
+    }
+
+    private static void update(Mac mac, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8) ;
+        // Length prefix so that field boundaries are unambiguous.
+        update(mac, b.length) ;
+        mac.update(b) ;
+    }
+
+    private static void update(Mac mac, long x) {
+        for ( int i = 56 ; i >= 0 ; i -= 8 )
+            mac.update((byte)(x >>> i)) ;
+    }
+
+    private static long first64(byte[] bytes) {
+        long x = 0 ;
+        for ( int i = 0 ; i < 8 ; i++ )
+            x = (x << 8) | (bytes[i] & 0xFF) ;
+        return x ;
+    }
+
+    private static String hex(long a, long b) {
+        return String.format("%016x%016x", a, b) ;
+    }
+
+    static boolean isHex128(String s) {
+        if ( s == null || s.length() != 32 )
+            return false ;
+        for ( int i = 0 ; i < 32 ; i++ ) {
+            if ( DigestVerifier.hexDigit(s.charAt(i)) < 0 )
+                return false ;
+        }
+        return true ;
+    }
+}
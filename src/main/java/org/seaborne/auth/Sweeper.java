@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.lang.ref.WeakReference ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.ScheduledExecutorService ;
+import java.util.concurrent.ScheduledFuture ;
+import java.util.concurrent.TimeUnit ;
+import java.util.function.Consumer ;
+
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** Background housekeeping for the digest engines.
+ * <p>
+ * There is one daemon thread for all engines in the JVM. Tasks hold their target
+ * weakly so an engine that is dropped without being closed does not stay reachable
+ * from the scheduler; the task cancels itself once the target has been collected.
+ */
+class Sweeper {
+    private static final Logger log = LoggerFactory.getLogger(Sweeper.class) ;
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r->{
+        Thread thread = new Thread(r, "DigestSweeper") ;
+        thread.setDaemon(true) ;
+        return thread ;
+    }) ;
+
+    /** Run {@code action} on {@code target} every {@code periodMillis} until cancelled or the target is garbage. */
+    static <T> ScheduledFuture<?> schedule(T target, Consumer<T> action, long periodMillis) {
+        WeakTask<T> task = new WeakTask<>(target, action) ;
+        ScheduledFuture<?> future = executor.scheduleWithFixedDelay(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS) ;
+        task.future = future ;
+        return future ;
+    }
+
+    /** Run {@code action} once, soon, on the housekeeping thread. */
+    static void execute(Runnable action) {
+        executor.execute(() -> {
+            try { action.run() ; }
+            catch (Throwable th) { log.warn("Sweeper task: "+th.getMessage(), th) ; }
+        }) ;
+    }
+
+    private static class WeakTask<T> implements Runnable {
+        private final WeakReference<T> target ;
+        private final Consumer<T> action ;
+        private volatile ScheduledFuture<?> future = null ;
+
+        WeakTask(T target, Consumer<T> action) {
+            this.target = new WeakReference<>(target) ;
+            this.action = action ;
+        }
+
+        @Override
+        public void run() {
+            T t = target.get() ;
+            if ( t == null ) {
+                if ( future != null )
+                    future.cancel(false) ;
+                return ;
+            }
+            // An exception would stop any further runs of this task.
+            try { action.accept(t) ; }
+            catch (Throwable th) { log.warn("Sweeper task: "+th.getMessage(), th) ; }
+        }
+    }
+}
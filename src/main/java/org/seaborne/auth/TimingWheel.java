@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.ArrayDeque ;
+import java.util.Queue ;
+import java.util.concurrent.ConcurrentLinkedQueue ;
+import java.util.function.Consumer ;
+
+/** Hierarchical timing wheel.
+ * <p>
+ * Scheduling is O(1) and can be done from any thread; it only appends to a queue.
+ * Time is advanced by one thread (the sweeper) which moves scheduled items into
+ * slots and hands over the items that are due. An item in a higher level is
+ * moved down once, when its slot comes round, so the work done per item is bounded
+ * by the number of levels, however many items there are.
+ * <p>
+ * Deadlines are rounded up to a whole tick. A deadline beyond the range of the wheel
+ * is put in the last slot of the range, and placed again from there, until it is in range.
+ */
+public class TimingWheel<T> {
+    private static final int BITS   = 6 ;
+    private static final int SLOTS  = 1 << BITS ;
+    private static final int MASK   = SLOTS - 1 ;
+    private static final int LEVELS = 4 ;
+    // Number of ticks covered by the whole wheel.
+    private static final long RANGE = 1L << (BITS * LEVELS) ;
+
+    private static class Entry<T> {
+        final T item ;
+        final long deadlineTick ;
+        Entry(T item, long deadlineTick) {
+            this.item = item ;
+            this.deadlineTick = deadlineTick ;
+        }
+    }
+
+    private final long tickMillis ;
+    private final long startMillis ;
+    private final Queue<Entry<T>> incoming = new ConcurrentLinkedQueue<>() ;
+    // Only touched by the thread calling advance().
+    private final ArrayDeque<Entry<T>>[][] wheel ;
+    private long currentTick = 0 ;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        if ( tickMillis <= 0 )
+            throw new IllegalArgumentException("Tick must be positive: "+tickMillis) ;
+        this.tickMillis = tickMillis ;
+        this.startMillis = startMillis ;
+        this.wheel = newWheel() ;
+        for ( int level = 0 ; level < LEVELS ; level++ )
+            for ( int slot = 0 ; slot < SLOTS ; slot++ )
+                wheel[level][slot] = new ArrayDeque<>() ;
+    }
+
+    // There is no generic array creation. The array only ever holds ArrayDeque<Entry<T>>
+    // and is not passed outside this class, so the cast is safe.
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayDeque<Entry<T>>[][] newWheel() {
+        return (ArrayDeque<Entry<T>>[][])new ArrayDeque<?>[LEVELS][SLOTS] ;
+    }
+
+    /** Arrange for {@code item} to be passed to the {@link #advance} action at or soon after {@code deadlineMillis}. */
+    public void schedule(T item, long deadlineMillis) {
+        // Round up.
+        long tick = Math.floorDiv(deadlineMillis - startMillis + tickMillis - 1, tickMillis) ;
+        incoming.add(new Entry<>(item, tick)) ;
+    }
+
+    /** Move time forward to {@code nowMillis}, calling {@code action} for each item that has become due.
+     * Must only be called from one thread at a time.
+     */
+    public void advance(long nowMillis, Consumer<T> action) {
+        long targetTick = Math.floorDiv(nowMillis - startMillis, tickMillis) ;
+        drainIncoming(action) ;
+        while ( currentTick < targetTick ) {
+            currentTick++ ;
+            cascade() ;
+            ArrayDeque<Entry<T>> slot = wheel[0][(int)(currentTick & MASK)] ;
+            Entry<T> e ;
+            while ( (e = slot.poll()) != null )
+                action.accept(e.item) ;
+            // Anything scheduled while the actions ran.
+            drainIncoming(action) ;
+        }
+    }
+
+    // Redistribute the higher level slots that start at this tick.
+    private void cascade() {
+        // Highest level first so items move down through several levels if necessary.
+        for ( int level = LEVELS-1 ; level > 0 ; level-- ) {
+            long lowBits = currentTick & ((1L << (BITS*level)) - 1) ;
+            if ( lowBits != 0 )
+                continue ;
+            int idx = (int)((currentTick >>> (BITS*level)) & MASK) ;
+            ArrayDeque<Entry<T>> slot = wheel[level][idx] ;
+            int n = slot.size() ;
+            for ( int i = 0 ; i < n ; i++ )
+                place(slot.poll(), null) ;
+        }
+    }
+
+    private void drainIncoming(Consumer<T> action) {
+        Entry<T> e ;
+        while ( (e = incoming.poll()) != null )
+            place(e, action) ;
+    }
+
+    // Put an entry in the slot that will be reached at (or, for out of range, before) its deadline.
+    private void place(Entry<T> e, Consumer<T> action) {
+        long delta = e.deadlineTick - currentTick ;
+        if ( delta <= 0 ) {
+            if ( action != null ) {
+                action.accept(e.item) ;
+                return ;
+            }
+            // During a cascade: due now, the current level 0 slot is processed next.
+            wheel[0][(int)(currentTick & MASK)].add(e) ;
+            return ;
+        }
+        long tick = e.deadlineTick ;
+        if ( delta >= RANGE ) {
+            tick = currentTick + RANGE - 1 ;
+            delta = RANGE - 1 ;
+        }
+        int level = 0 ;
+        while ( delta >= (1L << (BITS*(level+1))) )
+            level++ ;
+        // Still in the same span of this level as now: a lower level slot.
+        while ( level > 0 && (tick >>> (BITS*level)) == (currentTick >>> (BITS*level)) )
+            level-- ;
+        int idx = (int)((tick >>> (BITS*level)) & MASK) ;
+        wheel[level][idx].add(e) ;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.Iterator ;
+import java.util.LinkedHashSet ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentHashMap ;
+
+/** Index from username to the opaques of that user's active sessions, oldest first.
+ * <p>
+ * This is kept up to date by {@link DigestHttp} as sessions are activated, and by the
+ * session store's {@link DigestSessionStore.RemovalListener} as they are removed, so
+ * finding a user's sessions does not need a scan of the store.
+ * <p>
+ * Each user's entry is only changed inside the map's {@code compute} operations,
+ * which lock just that entry.
+ */
+public class UserSessionIndex {
+    private final Map<String, Set<String>> index = new ConcurrentHashMap<>() ;
+
+    public UserSessionIndex() {}
+
+    /** Record a session for {@code username}. Adding the same session again has no effect.
+     * @param maxSessions Maximum number of sessions for the user; zero or less for no limit.
+     * @return the oldest sessions removed from the index to keep within {@code maxSessions}.
+     */
+    public List<String> add(String username, String opaque, int maxSessions) {
+        List<String> evicted = new ArrayList<>(0) ;
+        index.compute(username, (u, opaques) -> {
+            if ( opaques == null )
+                opaques = new LinkedHashSet<>() ;
+            opaques.add(opaque) ;
+            if ( maxSessions > 0 ) {
+                Iterator<String> iter = opaques.iterator() ;
+                while ( opaques.size() > maxSessions ) {
+                    evicted.add(iter.next()) ;
+                    iter.remove() ;
+                }
+            }
+            return opaques ;
+        }) ;
+        return evicted ;
+    }
+
+    /** Forget one session. */
+    public void remove(String username, String opaque) {
+        index.computeIfPresent(username, (u, opaques) -> {
+            opaques.remove(opaque) ;
+            return opaques.isEmpty() ? null : opaques ;
+        }) ;
+    }
+
+    /** Forget all the sessions of a user.
+     * @return the opaques of the sessions, oldest first.
+     */
+    public List<String> removeAll(String username) {
+        Set<String> opaques = index.remove(username) ;
+        if ( opaques == null )
+            return Collections.emptyList() ;
+        // Any compute on the entry finished before the remove.
+        return new ArrayList<>(opaques) ;
+    }
+
+    /** Whether a session is recorded for {@code username}. */
+    public boolean contains(String username, String opaque) {
+        boolean[] found = { false } ;
+        index.computeIfPresent(username, (u, x) -> {
+            found[0] = x.contains(opaque) ;
+            return x ;
+        }) ;
+        return found[0] ;
+    }
+
+    /** The opaques of a user's sessions, oldest first. */
+    public List<String> get(String username) {
+        List<String> result = new ArrayList<>() ;
+        index.computeIfPresent(username, (u, opaques) -> {
+            result.addAll(opaques) ;
+            return opaques ;
+        }) ;
+        return result ;
+    }
+
+    /** Number of users with sessions. */
+    public int size() {
+        return index.size() ;
+    }
+}
@@ -18,7 +18,12 @@
 
 package org.seaborne.auth.shiro;
 
+import java.io.IOException ;
+import java.nio.file.Paths ;
+import java.util.Collections ;
 import java.util.Locale ;
+import java.util.Map ;
+import java.util.concurrent.TimeUnit ;
 import org.seaborne.auth.DigestHttp.AccessStatus ;
 
 import javax.servlet.ServletContext ;
@@ -34,8 +39,18 @@ import org.apache.shiro.web.filter.authc.AuthenticatingFilter ;
 import org.apache.shiro.web.filter.authc.BasicHttpAuthenticationFilter ;
 import org.apache.shiro.web.util.WebUtils ;
 import org.seaborne.auth.AuthResponseHeader ;
+import org.seaborne.auth.ChallengeRateLimiter ;
+import org.seaborne.auth.ChallengeReuseWindow ;
+import org.seaborne.auth.DigestAlgorithm ;
 import org.seaborne.auth.DigestHttp ;
 import org.seaborne.auth.DigestSession ;
+import org.seaborne.auth.DigestSessionStore ;
+import org.seaborne.auth.DigestSessionStores ;
+import org.seaborne.auth.FailureThrottle ;
+import org.seaborne.auth.HA1Cache ;
+import org.seaborne.auth.NonceGenerators ;
+import org.seaborne.auth.NoncePool ;
+import org.seaborne.auth.StatelessNonces ;
 import org.slf4j.Logger ;
 import org.slf4j.LoggerFactory ;
 
@@ -60,12 +75,91 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
     /** The name of the scheme */
     private static String DIGEST_AUTH = HttpServletRequest.DIGEST_AUTH ;
 
-    private DigestHttp engine;
+    // Created on first use, after the properties have been set.
+    private volatile DigestHttp engine = null ;
 
     private String applicationName = "Login" ;
 
-    protected DigestHttpAuthenticationFilter() {
-        this.engine = new DigestHttp(log, applicationName, this::getPassword) ;
+    private String sessionStoreType = null ;
+
+    private Map<String, String> sessionStoreConfig = Collections.emptyMap() ;
+
+    private StatelessNonces statelessNonces = null ;
+
+    private String nonceSecretFile = null ;
+
+    private String noncePreviousSecretFile = null ;
+
+    private int maxSessionsPerUser = 0 ;
+
+    private NoncePool noncePool = null ;
+
+    private long nonceMaxAge = DigestHttp.DEFAULT_NONCE_MAX_AGE ;
+
+    private long nonceMaxUses = 0 ;
+
+    private double challengeRate = 0 ;
+
+    private int challengeBurst = 10 ;
+
+    private String clientAddressHeader = null ;
+
+    private ChallengeRateLimiter rateLimiter = null ;
+
+    private long challengeReuseWindow = 0 ;
+
+    private HA1Cache ha1Cache = null ;
+
+    private DigestAlgorithm[] algorithms = { DigestAlgorithm.MD5 } ;
+
+    private boolean sessionAlgorithm = false ;
+
+    private int failureThreshold = 0 ;
+
+    private long failureHalfLife = FailureThrottle.DEFAULT_HALF_LIFE ;
+
+    private FailureThrottle failureThrottle = null ;
+
+    protected DigestHttpAuthenticationFilter() {}
+
+    // Every request calls this: the lock is taken only until the engine exists.
+    private DigestHttp engine() {
+        DigestHttp e = engine ;
+        if ( e == null ) {
+            synchronized(this) {
+                e = engine ;
+                if ( e == null ) {
+                    e = createEngine() ;
+                    engine = e ;
+                }
+            }
+        }
+        return e ;
+    }
+
+    private DigestHttp createEngine() {
+        DigestSessionStore sessionStore = DigestSessionStores.create(sessionStoreType, sessionStoreConfig) ;
+        DigestHttp digestHttp = new DigestHttp(log, applicationName, this::getPassword, sessionStore) ;
+        digestHttp.setStatelessNonces(statelessNonces) ;
+        digestHttp.setMaxSessionsPerUser(maxSessionsPerUser) ;
+        if ( noncePool != null )
+            digestHttp.setNonceGenerator(noncePool) ;
+        digestHttp.setNonceMaxAge(nonceMaxAge) ;
+        digestHttp.setNonceMaxUses(nonceMaxUses) ;
+        digestHttp.setChallengeRateLimiter(rateLimiter) ;
+        digestHttp.setFailureThrottle(failureThrottle) ;
+        digestHttp.setChallengeReuseWindow(challengeReuse()) ;
+        digestHttp.setHA1Cache(ha1Cache) ;
+        digestHttp.setAlgorithms(algorithms) ;
+        digestHttp.setSessionAlgorithm(sessionAlgorithm) ;
+        return digestHttp ;
+    }
+
+    // Drop old state.
+    private synchronized void resetEngine() {
+        if ( engine != null )
+            engine.close() ;
+        this.engine = null ;
     }
 
     // Code for two-stage process.
@@ -112,7 +206,7 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
         AccessStatus decision = accessYesOrNo(request, response) ;
         switch ( decision ) {
             case BAD :
-                // Have sent the 400
+                // Have sent the 400 or 429
                 return false ;
             case NO :
                 sendChallenge(request, response) ;
@@ -135,7 +229,7 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
     private AccessStatus accessYesOrNo(ServletRequest request, ServletResponse response) {
         HttpServletRequest httpRequest = WebUtils.toHttp(request) ;
         HttpServletResponse httpResponse = WebUtils.toHttp(response) ;
-        return engine.accessYesOrNo(httpRequest, httpResponse) ;
+        return engine().accessYesOrNo(httpRequest, httpResponse) ;
     }
 
     @Override
@@ -180,8 +274,292 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
         boolean newName = (applicationName == null || ! applicationName.equals(this.applicationName) ) ;
         this.applicationName = applicationName;
         if ( newName )
-            // Drop old state.
-            this.engine = new DigestHttp(log, applicationName, this::getPassword) ;
+            resetEngine() ;
+    }
+
+    public String getSessionStore() {
+        return sessionStoreType ;
+    }
+
+    /**
+     * Sets the type of session store, for example {@code authcDigest.sessionStore = offheap}.
+     * Any existing sessions are dropped.
+     * @see DigestSessionStores
+     */
+    public void setSessionStore(String sessionStoreType) {
+        this.sessionStoreType = sessionStoreType ;
+        resetEngine() ;
+    }
+
+    /**
+     * Use stateless challenges, with the secret in the named file, for example
+     * {@code authcDigest.nonceSecretFile = /etc/app/nonce-secret}.
+     * @see StatelessNonces
+     */
+    public void setNonceSecretFile(String filename) throws IOException {
+        this.nonceSecretFile = filename ;
+        resetStatelessNonces() ;
+    }
+
+    /**
+     * The secret in use before the {@code nonceSecretFile}, accepted while clients have
+     * challenges made with it, for example
+     * {@code authcDigest.noncePreviousSecretFile = /etc/app/nonce-secret.old}.
+     */
+    public void setNoncePreviousSecretFile(String filename) throws IOException {
+        this.noncePreviousSecretFile = filename ;
+        resetStatelessNonces() ;
+    }
+
+    private void resetStatelessNonces() throws IOException {
+        this.statelessNonces = nonceSecretFile == null
+            ? null
+            : StatelessNonces.fromFile(Paths.get(nonceSecretFile),
+                                       noncePreviousSecretFile == null ? null : Paths.get(noncePreviousSecretFile),
+                                       DigestSessionStores.DEFAULT_PENDING_TIMEOUT) ;
+        resetEngine() ;
+    }
+
+    public Map<String, String> getSessionStoreConfig() {
+        return sessionStoreConfig ;
+    }
+
+    /**
+     * Sets the session store settings, for example
+     * {@code authcDigest.sessionStoreConfig = capacity:1000000, session-idle-timeout:600}.
+     * Any existing sessions are dropped.
+     * @see DigestSessionStores
+     */
+    public void setSessionStoreConfig(Map<String, String> sessionStoreConfig) {
+        this.sessionStoreConfig = sessionStoreConfig == null ? Collections.emptyMap() : sessionStoreConfig ;
+        resetEngine() ;
+    }
+
+    public int getMaxSessionsPerUser() {
+        return maxSessionsPerUser ;
+    }
+
+    /**
+     * Limit the number of active sessions of each user, for example
+     * {@code authcDigest.maxSessionsPerUser = 5}. Zero means no limit.
+     * @see DigestHttp#setMaxSessionsPerUser
+     */
+    public void setMaxSessionsPerUser(int maxSessionsPerUser) {
+        this.maxSessionsPerUser = maxSessionsPerUser ;
+        synchronized(this) {
+            if ( engine != null )
+                engine.setMaxSessionsPerUser(maxSessionsPerUser) ;
+        }
+    }
+
+    public long getNonceMaxAge() {
+        return TimeUnit.MILLISECONDS.toSeconds(nonceMaxAge) ;
+    }
+
+    /**
+     * Seconds a session's nonce can be used before the client is sent a {@code stale=true}
+     * challenge, for example {@code authcDigest.nonceMaxAge = 600}. Zero means no limit.
+     * @see DigestHttp#setNonceMaxAge
+     */
+    public synchronized void setNonceMaxAge(long seconds) {
+        this.nonceMaxAge = TimeUnit.SECONDS.toMillis(seconds) ;
+        if ( engine != null )
+            engine.setNonceMaxAge(nonceMaxAge) ;
+    }
+
+    public long getNonceMaxUses() {
+        return nonceMaxUses ;
+    }
+
+    /**
+     * Requests that can use one nonce, for example {@code authcDigest.nonceMaxUses = 1000}.
+     * Zero means no limit.
+     * @see DigestHttp#setNonceMaxUses
+     */
+    public synchronized void setNonceMaxUses(long maxUses) {
+        this.nonceMaxUses = maxUses ;
+        if ( engine != null )
+            engine.setNonceMaxUses(maxUses) ;
+    }
+
+    public double getChallengeRate() {
+        return challengeRate ;
+    }
+
+    /**
+     * Limit new challenges for each client to this many per second, for example
+     * {@code authcDigest.challengeRate = 2}. Zero means no limit.
+     * @see ChallengeRateLimiter
+     */
+    public void setChallengeRate(double challengeRate) {
+        this.challengeRate = challengeRate ;
+        resetRateLimiter() ;
+    }
+
+    public int getChallengeBurst() {
+        return challengeBurst ;
+    }
+
+    /** Challenges a client can have at once before {@link #setChallengeRate} applies. */
+    public void setChallengeBurst(int challengeBurst) {
+        this.challengeBurst = challengeBurst ;
+        resetRateLimiter() ;
+    }
+
+    public String getClientAddressHeader() {
+        return clientAddressHeader ;
+    }
+
+    /** Header with the client address when behind a proxy, for example
+     * {@code authcDigest.clientAddressHeader = X-Forwarded-For}.
+     */
+    public void setClientAddressHeader(String clientAddressHeader) {
+        this.clientAddressHeader = clientAddressHeader ;
+        resetRateLimiter() ;
+        resetFailureThrottle() ;
+        resetChallengeReuse() ;
+    }
+
+    public long getChallengeReuseWindow() {
+        return challengeReuseWindow ;
+    }
+
+    /**
+     * Send a client the same challenge for this many milliseconds while it is unanswered,
+     * for example {@code authcDigest.challengeReuseWindow = 500}. Zero means always a new challenge.
+     * @see ChallengeReuseWindow
+     */
+    public void setChallengeReuseWindow(long millis) {
+        this.challengeReuseWindow = millis ;
+        resetChallengeReuse() ;
+    }
+
+    private ChallengeReuseWindow challengeReuse() {
+        return ( challengeReuseWindow > 0 ) ? new ChallengeReuseWindow(challengeReuseWindow, clientAddressHeader) : null ;
+    }
+
+    private synchronized void resetChallengeReuse() {
+        if ( engine != null )
+            engine.setChallengeReuseWindow(challengeReuse()) ;
+    }
+
+    private synchronized void resetRateLimiter() {
+        this.rateLimiter = ( challengeRate > 0 )
+            ? new ChallengeRateLimiter(challengeRate, challengeBurst, clientAddressHeader)
+            : null ;
+        if ( engine != null )
+            engine.setChallengeRateLimiter(rateLimiter) ;
+    }
+
+    public String getAlgorithm() {
+        StringBuilder sb = new StringBuilder() ;
+        for ( DigestAlgorithm a : algorithms ) {
+            if ( sb.length() > 0 )
+                sb.append(", ") ;
+            sb.append(sessionAlgorithm ? a.sessName() : a.algorithmName()) ;
+        }
+        return sb.toString() ;
+    }
+
+    /**
+     * The digest algorithms offered, most preferred first: "MD5" (the default), "SHA-256" or
+     * "SHA-512-256", or their "-sess" variants, for example
+     * {@code authcDigest.algorithm = SHA-256, MD5}.
+     * @see DigestHttp#setAlgorithms
+     * @see DigestHttp#setSessionAlgorithm
+     */
+    public synchronized void setAlgorithm(String algorithm) {
+        DigestAlgorithm[] x = DigestAlgorithm.parseList(algorithm) ;
+        this.sessionAlgorithm = DigestAlgorithm.isSessList(algorithm) ;
+        this.algorithms = x ;
+        if ( engine != null ) {
+            engine.setAlgorithms(algorithms) ;
+            engine.setSessionAlgorithm(sessionAlgorithm) ;
+        }
+    }
+
+    public int getHa1CacheSize() {
+        return ha1Cache == null ? 0 : ha1Cache.size() ;
+    }
+
+    /**
+     * Cache H(A1) for this many users, for example {@code authcDigest.ha1CacheSize = 4096}, so that
+     * {@link #getPassword} is not called for every request. Zero, the default, means no cache.
+     * When a password changes, call {@link HA1Cache#invalidate(String)} on {@link #getHA1Cache}.
+     */
+    public synchronized void setHa1CacheSize(int size) {
+        this.ha1Cache = ( size > 0 ) ? new HA1Cache(size) : null ;
+        if ( engine != null )
+            engine.setHA1Cache(ha1Cache) ;
+    }
+
+    /** The cache of H(A1), or null. */
+    public HA1Cache getHA1Cache() {
+        return ha1Cache ;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold ;
+    }
+
+    /**
+     * Lock out a username or client address after this many failed logins, for example
+     * {@code authcDigest.failureThreshold = 10}. Zero means no lockout.
+     * @see FailureThrottle
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold ;
+        resetFailureThrottle() ;
+    }
+
+    /** Seconds for the count of failed logins to halve. */
+    public long getFailureHalfLife() {
+        return TimeUnit.MILLISECONDS.toSeconds(failureHalfLife) ;
+    }
+
+    public void setFailureHalfLife(long seconds) {
+        this.failureHalfLife = TimeUnit.SECONDS.toMillis(seconds) ;
+        resetFailureThrottle() ;
+    }
+
+    private synchronized void resetFailureThrottle() {
+        this.failureThrottle = ( failureThreshold > 0 )
+            ? new FailureThrottle(failureThreshold, failureHalfLife, clientAddressHeader)
+            : null ;
+        if ( engine != null )
+            engine.setFailureThrottle(failureThrottle) ;
+    }
+
+    public int getNoncePoolSize() {
+        return noncePool == null ? 0 : noncePool.capacity() ;
+    }
+
+    /**
+     * Generate nonce values ahead of time in a background thread, for example
+     * {@code authcDigest.noncePoolSize = 4096}. Zero means generate them as needed.
+     * @see NoncePool
+     */
+    public synchronized void setNoncePoolSize(int size) {
+        if ( noncePool != null )
+            noncePool.close() ;
+        this.noncePool = ( size > 0 ) ? new NoncePool(NonceGenerators.DEFAULT, size) : null ;
+        if ( engine != null )
+            engine.setNonceGenerator(noncePool != null ? noncePool : NonceGenerators.DEFAULT) ;
+    }
+
+    /** End all active sessions of a user. See {@link DigestHttp#revokeSessions}. */
+    public int revokeSessions(String username) {
+        return engine().revokeSessions(username) ;
+    }
+
+    @Override
+    public void destroy() {
+        resetEngine() ;
+        synchronized(this) {
+            if ( noncePool != null )
+                noncePool.close() ;
+        }
+        super.destroy() ;
     }
 
 
@@ -221,7 +599,7 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
         AuthResponseHeader ah = AuthResponseHeader.parse(authorizationHeader, httpRequest.getMethod()) ;
         if ( ah == null )
             return createToken("", "", request, response);
-        DigestSession perm = engine.getCredentials(ah.opaque) ;
+        DigestSession perm = engine().getCredentials(ah.opaque) ;
         if ( perm == null )
             return untoken(httpRequest, response) ;
         // Token is the user name and our generated reference (both are wire-visible).
@@ -251,7 +629,7 @@ public abstract class DigestHttpAuthenticationFilter extends AuthenticatingFilte
         }
         HttpServletRequest httpRequest = WebUtils.toHttp(request);
         HttpServletResponse httpResponse = WebUtils.toHttp(response);
-        engine.sendChallenge(httpRequest, httpResponse) ;
+        engine().sendChallenge(httpRequest, httpResponse) ;
         return false;
     }
 
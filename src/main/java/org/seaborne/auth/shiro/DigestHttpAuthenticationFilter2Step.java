@@ -62,6 +62,9 @@ public abstract class DigestHttpAuthenticationFilter2Step extends Authenticating
 
     private final DigestHttp engine;
 
+    // Request attribute for the result of the first call of accessYesOrNo.
+    private static final String ACCESS_ATTRIBUTE = DigestHttpAuthenticationFilter2Step.class.getName()+".access" ;
+
     protected DigestHttpAuthenticationFilter2Step() {
         this.engine = new DigestHttp(log, "Login", this::getPassword) ; 
     }
@@ -142,9 +145,15 @@ public abstract class DigestHttpAuthenticationFilter2Step extends Authenticating
      * @return <cod>true</code> if accepable, else <code>false</code>.
      */
     private boolean accessYesOrNo(ServletRequest request, ServletResponse response) {
+        // The engine records the nc of each request, so it is asked once per request.
+        Object previous = request.getAttribute(ACCESS_ATTRIBUTE) ;
+        if ( previous != null )
+            return (Boolean)previous ;
         HttpServletRequest httpRequest = WebUtils.toHttp(request) ;
         HttpServletResponse httpResponse = WebUtils.toHttp(response) ;
-        return DigestHttp.AccessStatus.YES == engine.accessYesOrNo(httpRequest, httpResponse) ;
+        boolean b = DigestHttp.AccessStatus.YES == engine.accessYesOrNo(httpRequest, httpResponse) ;
+        request.setAttribute(ACCESS_ATTRIBUTE, b) ;
+        return b ;
     }
 
     @Override
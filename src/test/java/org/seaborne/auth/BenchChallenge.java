@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.io.IOException ;
+import java.lang.management.ManagementFactory ;
+import java.net.URI ;
+import java.net.http.HttpClient ;
+import java.net.http.HttpRequest ;
+import java.net.http.HttpResponse ;
+import java.util.function.BiFunction ;
+
+import javax.servlet.http.HttpServlet ;
+import javax.servlet.http.HttpServletRequest ;
+import javax.servlet.http.HttpServletResponse ;
+
+import dev.jetty.JettyErrorHandler ;
+import org.eclipse.jetty.server.Server ;
+import org.eclipse.jetty.server.ServerConnector ;
+import org.eclipse.jetty.servlet.ServletContextHandler ;
+import org.eclipse.jetty.servlet.ServletHolder ;
+
+/** Cost of refusing a request: building the {@code WWW-Authenticate} value (the original
+ * concatenation against {@link ChallengeTemplate}), and a 400 sent with {@code sendError},
+ * which goes to {@link JettyErrorHandler}, against one with no body, over HTTP with Jetty.
+ * Not part of the test suite; run by hand:
+ * <pre>
+ *   BenchChallenge [millions] [http requests]
+ * </pre>
+ */
+public class BenchChallenge {
+    // Keeps the results live.
+    static volatile int sink ;
+
+    public static void main(String... args) throws Exception {
+        int n = ( args.length > 0 ) ? Integer.parseInt(args[0]) * 1_000_000 : 5_000_000 ;
+        int requests = ( args.length > 1 ) ? Integer.parseInt(args[1]) : 20_000 ;
+        String realm = "Login" ;
+        ChallengeTemplate template = new ChallengeTemplate(realm) ;
+        BiFunction<String, String, String> concat = (nonce, opaque) ->
+            "Digest realm="+realm
+            +       " , qop=\"auth\""
+            +       " , nonce=\""+nonce+"\""
+            +       " , opaque=\""+opaque+"\""
+            ;
+        String[] values = new String[1024] ;
+        for ( int i = 0 ; i < values.length ; i++ )
+            values[i] = NonceGenerators.DEFAULT.generate() ;
+        for ( int round = 0 ; round < 2 ; round++ ) {
+            run("concat", n, values, concat) ;
+            run("template", n, values, (nonce, opaque) -> template.render(nonce, opaque, false)) ;
+        }
+        http(requests) ;
+    }
+
+    @SuppressWarnings("serial")
+    private static void http(int requests) throws Exception {
+        Server server = new Server() ;
+        ServerConnector connector = new ServerConnector(server) ;
+        connector.setHost("localhost") ;
+        server.addConnector(connector) ;
+        ServletContextHandler context = new ServletContextHandler() ;
+        context.setErrorHandler(new JettyErrorHandler()) ;
+        context.addServlet(new ServletHolder(new HttpServlet() {
+            @Override protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bad 'nc' in 'Authorization' header") ;
+            }
+        }), "/sendError") ;
+        context.addServlet(new ServletHolder(new HttpServlet() {
+            @Override protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST) ;
+                resp.setContentLength(0) ;
+            }
+        }), "/noBody") ;
+        server.setHandler(context) ;
+        server.start() ;
+        try {
+            int port = connector.getLocalPort() ;
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build() ;
+            for ( int round = 0 ; round < 2 ; round++ ) {
+                for ( String path : new String[] { "/sendError", "/noBody" } ) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:"+port+path)).build() ;
+                    long bodyBytes = 0 ;
+                    long start = System.nanoTime() ;
+                    for ( int i = 0 ; i < requests ; i++ )
+                        bodyBytes += client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body().length ;
+                    long elapsed = System.nanoTime() - start ;
+                    System.out.printf("%-10s %6.1f us/request %4d body bytes\n", path, elapsed/1000.0/requests, bodyBytes/requests) ;
+                }
+            }
+        } finally {
+            server.stop() ;
+        }
+    }
+
+    private static void run(String label, int n, String[] values, BiFunction<String, String, String> f) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean() ;
+        long tid = Thread.currentThread().getId() ;
+        long bytes0 = threads.getThreadAllocatedBytes(tid) ;
+        long start = System.nanoTime() ;
+        int h = 0 ;
+        int mask = values.length - 1 ;
+        for ( int i = 0 ; i < n ; i++ )
+            h += f.apply(values[i & mask], values[(i+1) & mask]).length() ;
+        long elapsed = System.nanoTime() - start ;
+        long bytes = threads.getThreadAllocatedBytes(tid) - bytes0 ;
+        sink = h ;
+        System.out.printf("%-10s %6.1f ns/op %6d bytes/op\n", label, elapsed/(double)n, bytes/n) ;
+    }
+}
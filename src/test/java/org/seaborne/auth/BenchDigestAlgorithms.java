@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.lang.management.ManagementFactory ;
+import java.util.function.Predicate ;
+
+/** Cost of checking one request with each {@link DigestAlgorithm}: from the password
+ * (three hashes) and from a stored or cached H(A1) (two hashes).
+ * Not part of the test suite; run by hand:
+ * <pre>
+ *   BenchDigestAlgorithms [millions]
+ * </pre>
+ */
+public class BenchDigestAlgorithms {
+    // Keeps the results live.
+    static volatile int sink ;
+
+    public static void main(String... args) {
+        int n = ( args.length > 0 ) ? Integer.parseInt(args[0]) * 1_000_000 : 2_000_000 ;
+        String password = "password" ;
+        for ( int round = 0 ; round < 2 ; round++ ) {
+            for ( DigestAlgorithm algorithm : DigestAlgorithm.values() ) {
+                AuthResponseHeader auth = header(algorithm, password) ;
+                String ha1 = algorithm.H(RFC2617.A1_MD5(auth.username, auth.realm, password)) ;
+                run(algorithm+" password", n, a -> DigestVerifier.verify(a, password), auth) ;
+                run(algorithm+" H(A1)", n, a -> DigestVerifier.verifyHA1(a, ha1), auth) ;
+            }
+        }
+    }
+
+    // A typical header, and a correct response.
+    private static AuthResponseHeader header(DigestAlgorithm algorithm, String password) {
+        String x = "Digest username=\"user\", realm=\"Login\", nonce=\""+NonceGenerators.DEFAULT.generate()+"\""
+                  +", uri=\"/dataset/sparql\""
+                  +", qop=auth, nc=00000001, cnonce=\"f2/wE4q74E6zIJEtWaHKaf5wv/H5QzzpXusqGemxURZJ\""
+                  +", opaque=\""+NonceGenerators.DEFAULT.generate()+"\", algorithm="+algorithm.algorithmName() ;
+        AuthResponseHeader auth = AuthResponseHeader.parse(x+", response=\"0\"", "GET") ;
+        return AuthResponseHeader.parse(x+", response=\""+DigestHttp.calcDigestResponse(auth, password)+"\"", "GET") ;
+    }
+
+    private static void run(String label, int n, Predicate<AuthResponseHeader> verify, AuthResponseHeader auth) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean() ;
+        long tid = Thread.currentThread().getId() ;
+        long bytes0 = threads.getThreadAllocatedBytes(tid) ;
+        long start = System.nanoTime() ;
+        int h = 0 ;
+        for ( int i = 0 ; i < n ; i++ ) {
+            if ( verify.test(auth) )
+                h++ ;
+        }
+        long elapsed = System.nanoTime() - start ;
+        long bytes = threads.getThreadAllocatedBytes(tid) - bytes0 ;
+        if ( h != n )
+            throw new IllegalStateException(label+": verification failed") ;
+        sink = h ;
+        System.out.printf("%-22s %7.1f ns/op %6d bytes/op\n", label, elapsed/(double)n, bytes/n) ;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+import java.util.UUID ;
+import java.util.concurrent.CountDownLatch ;
+import java.util.concurrent.atomic.LongAdder ;
+
+/** Throughput of the {@link NonceGenerator} implementations with many threads.
+ * Not part of the test suite; run by hand:
+ * <pre>
+ *   BenchNonceGenerators [threads] [seconds]
+ * </pre>
+ */
+public class BenchNonceGenerators {
+    // Keeps the results live.
+    static volatile int sink ;
+
+    public static void main(String... args) throws InterruptedException {
+        int threads = ( args.length > 0 ) ? Integer.parseInt(args[0]) : 64 ;
+        int seconds = ( args.length > 1 ) ? Integer.parseInt(args[1]) : 5 ;
+        Map<String, NonceGenerator> generators = new LinkedHashMap<>() ;
+        generators.put("uuid-replaceAll", () -> UUID.randomUUID().toString().replaceAll("-", "")) ;
+        generators.put("uuid", NonceGenerators.uuid()) ;
+        generators.put("perThread", NonceGenerators.perThread()) ;
+        generators.put("buffered", NonceGenerators.buffered()) ;
+        generators.put("buffered-4k", NonceGenerators.buffered(4*1024)) ;
+        generators.put("buffered-16k", NonceGenerators.buffered(16*1024)) ;
+        System.out.printf("%d threads, %d seconds each\n", threads, seconds) ;
+        for ( Map.Entry<String, NonceGenerator> e : generators.entrySet() ) {
+            // Warm up, then measure.
+            run(e.getValue(), threads, 1) ;
+            long count = run(e.getValue(), threads, seconds) ;
+            System.out.printf("%-16s %,12d /s\n", e.getKey(), count/seconds) ;
+        }
+    }
+
+    private static long run(NonceGenerator generator, int threads, int seconds) throws InterruptedException {
+        LongAdder count = new LongAdder() ;
+        CountDownLatch start = new CountDownLatch(1) ;
+        long[] end = { 0 } ;
+        Thread[] workers = new Thread[threads] ;
+        for ( int i = 0 ; i < threads ; i++ ) {
+            workers[i] = new Thread(() -> {
+                try { start.await() ; } catch (InterruptedException ex) { return ; }
+                long n = 0 ;
+                int h = 0 ;
+                while ( System.nanoTime() < end[0] ) {
+                    for ( int j = 0 ; j < 100 ; j++ )
+                        h += generator.generate().charAt(j & 31) ;
+                    n += 100 ;
+                }
+                count.add(n) ;
+                sink = h ;
+            }) ;
+            workers[i].start() ;
+        }
+        end[0] = System.nanoTime() + seconds * 1_000_000_000L ;
+        start.countDown() ;
+        for ( Thread t : workers )
+            t.join() ;
+        return count.sum() ;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import java.lang.reflect.InvocationHandler ;
+import java.lang.reflect.Method ;
+import java.lang.reflect.Proxy ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import javax.servlet.http.HttpServletRequest ;
+import javax.servlet.http.HttpServletResponse ;
+
+/** Minimal servlet request and response objects for driving {@link DigestHttp} in tests. */
+class FakeHttp {
+
+    /** A request with an optional "Authorization" header. */
+    static HttpServletRequest request(String method, String uri, String authorization) {
+        return request(method, uri, authorization, null, null) ;
+    }
+
+    /** A request with an optional "Authorization" header and one other header. */
+    static HttpServletRequest request(String method, String uri, String authorization, String header, String value) {
+        Map<String, String> headers = new HashMap<>() ;
+        if ( header != null )
+            headers.put(header, value) ;
+        Map<String, Object> attributes = new HashMap<>() ;
+        if ( authorization != null )
+            headers.put("Authorization", authorization) ;
+        InvocationHandler handler = (proxy, m, args) -> {
+            switch(m.getName()) {
+                case "getMethod":       return method ;
+                case "getRequestURI":   return uri ;
+                case "getHeader":       return headers.get((String)args[0]) ;
+                case "getAttribute":    return attributes.get((String)args[0]) ;
+                case "setAttribute":    attributes.put((String)args[0], args[1]) ; return null ;
+                case "toString":        return method+" "+uri ;
+                default:                return defaultValue(m) ;
+            }
+        } ;
+        return (HttpServletRequest)Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                                                          new Class<?>[] { HttpServletRequest.class }, handler) ;
+    }
+
+    /** Records the status and headers set on a response. */
+    static class Response implements InvocationHandler {
+        int status = HttpServletResponse.SC_OK ;
+        // The first value of each header, as getHeader, and all values.
+        final Map<String, String> headers = new HashMap<>() ;
+        final Map<String, List<String>> allHeaders = new HashMap<>() ;
+        final HttpServletResponse response =
+            (HttpServletResponse)Proxy.newProxyInstance(FakeHttp.class.getClassLoader(),
+                                                        new Class<?>[] { HttpServletResponse.class }, this) ;
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method m, Object[] args) {
+            switch(m.getName()) {
+                case "setStatus":
+                case "sendError":
+                    status = (Integer)args[0] ;
+                    return null ;
+                case "setHeader":
+                    headers.put((String)args[0], (String)args[1]) ;
+                    allHeaders.put((String)args[0], new ArrayList<>(Collections.singletonList((String)args[1]))) ;
+                    return null ;
+                case "addHeader":
+                    headers.putIfAbsent((String)args[0], (String)args[1]) ;
+                    allHeaders.computeIfAbsent((String)args[0], k -> new ArrayList<>()).add((String)args[1]) ;
+                    return null ;
+                case "getStatus":   return status ;
+                case "getHeader":   return headers.get((String)args[0]) ;
+                case "toString":    return "Response "+status ;
+                default:            return defaultValue(m) ;
+            }
+        }
+    }
+
+    private static Object defaultValue(Method m) {
+        Class<?> type = m.getReturnType() ;
+        if ( type == boolean.class )
+            return false ;
+        if ( type == int.class )
+            return 0 ;
+        if ( type == long.class )
+            return 0L ;
+        return null ;
+    }
+
+    /** The value for an "Authorization" header answering {@code challenge}. */
+    static String authorization(String challenge, String method, String uri, String username, String password, long nc) {
+        AuthChallengeHeader ch = AuthChallengeHeader.parse(challenge, uri, method) ;
+        String ncStr = String.format("%08x", nc) ;
+        String cnonce = "c0ffee"+nc ;
+        String response = DigestHttp.calcDigestChallengeResponse(ch, username, password, cnonce, ncStr, "auth") ;
+        return "Digest username=\""+username+"\", realm=\""+ch.realm+"\", nonce=\""+ch.nonce+"\", uri=\""+uri+"\""
+              +", qop=auth, nc="+ncStr+", cnonce=\""+cnonce+"\", response=\""+response+"\", opaque=\""+ch.opaque+"\""
+              +( ch.algorithm == null ? "" : ", algorithm="+ch.algorithm ) ;
+    }
+}
@@ -93,6 +93,11 @@ public class TestAuthStringTokenizer {
                  "abc", "=", "\"\"") ;
     }
 
+    @Test public void tokenize_12() {
+        tokenize("abc=\"d\\\"e=f\"",
+                 "abc", "=", "\"d\\\"e=f\"") ;
+    }
+
     private static String nullString = "" ;
     
     @Test public void parse_01() {
@@ -122,4 +127,11 @@ public class TestAuthStringTokenizer {
         assertEquals("def", map.get("c")) ;
         assertEquals("rst uvw", map.get("xyz")) ;
     }
-}
\ No newline at end of file
+
+    @Test public void parse_05() {
+        Map<String, String> map = parse("a=\"x\\\"y\\\\z\", b=\"p=q\"") ;
+        assertEquals(2, map.size()) ;
+        assertEquals("x\"y\\z", map.get("a")) ;
+        assertEquals("p=q", map.get("b")) ;
+    }
+}
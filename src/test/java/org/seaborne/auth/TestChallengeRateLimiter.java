@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.concurrent.TimeUnit ;
+
+import org.junit.Test ;
+
+public class TestChallengeRateLimiter {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1) ;
+
+    @Test public void burstThenRate() {
+        ChallengeRateLimiter limiter = new ChallengeRateLimiter(2, 3, null) ;
+        long t = System.nanoTime() ;
+        for ( int i = 0 ; i < 3 ; i++ )
+            assertEquals(0, limiter.acquire("10.0.0.1", t)) ;
+        assertEquals(1, limiter.acquire("10.0.0.1", t)) ;
+        // Other clients are not affected.
+        assertEquals(0, limiter.acquire("10.0.0.2", t)) ;
+        // Two per second.
+        assertEquals(0, limiter.acquire("10.0.0.1", t + SECOND/2)) ;
+        assertEquals(1, limiter.acquire("10.0.0.1", t + SECOND/2)) ;
+        assertEquals(0, limiter.acquire("10.0.0.1", t + SECOND)) ;
+        // Refilled, but only up to the burst.
+        t += 100 * SECOND ;
+        for ( int i = 0 ; i < 3 ; i++ )
+            assertEquals(0, limiter.acquire("10.0.0.1", t)) ;
+        assertEquals(1, limiter.acquire("10.0.0.1", t)) ;
+        assertEquals(3, limiter.getRefused()) ;
+    }
+
+    // Addresses with the same String.hashCode, chosen to share a client's bucket, do not
+    // share it; and where an address goes differs from one limiter to another.
+    @Test public void seeded() {
+        assertEquals("Aa".hashCode(), "BB".hashCode()) ;
+        boolean apart = false ;
+        boolean moved = false ;
+        ChallengeRateLimiter first = new ChallengeRateLimiter(1, 1, null) ;
+        for ( int i = 0 ; i < 5 ; i++ ) {
+            ChallengeRateLimiter limiter = new ChallengeRateLimiter(1, 1, null) ;
+            apart |= limiter.slot("Aa") != limiter.slot("BB") ;
+            moved |= limiter.slot("10.0.0.1") != first.slot("10.0.0.1") ;
+        }
+        assertTrue(apart) ;
+        assertTrue(moved) ;
+    }
+
+    @Test public void retryAfter() {
+        ChallengeRateLimiter limiter = new ChallengeRateLimiter(0.1, 1, null) ;
+        long t = System.nanoTime() ;
+        assertEquals(0, limiter.acquire("client", t)) ;
+        assertEquals(10, limiter.acquire("client", t)) ;
+        assertEquals(5, limiter.acquire("client", t + 5*SECOND)) ;
+    }
+
+    @Test public void forwardedFor() {
+        ChallengeRateLimiter limiter = new ChallengeRateLimiter(1, 1, "X-Forwarded-For") ;
+        // The last address is the one added by the proxy.
+        assertEquals("192.0.2.7", limiter.clientAddress(FakeHttp.request("GET", "/", null, "X-Forwarded-For", "203.0.113.1, 192.0.2.7"))) ;
+        assertEquals("192.0.2.7", limiter.clientAddress(FakeHttp.request("GET", "/", null, "X-Forwarded-For", "192.0.2.7"))) ;
+    }
+
+    @Test public void engine() {
+        DigestHttp engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw", DigestSessionStores.create()) ;
+        try {
+            engine.setChallengeRateLimiter(new ChallengeRateLimiter(0.5, 2, null)) ;
+            for ( int i = 0 ; i < 2 ; i++ ) {
+                FakeHttp.Response response = new FakeHttp.Response() ;
+                engine.sendChallenge(FakeHttp.request("GET", "/", null), response.response) ;
+                assertEquals(401, response.status) ;
+            }
+            FakeHttp.Response response = new FakeHttp.Response() ;
+            engine.sendChallenge(FakeHttp.request("GET", "/", null), response.response) ;
+            assertEquals(429, response.status) ;
+            assertTrue(Long.parseLong(response.headers.get("Retry-After")) >= 1) ;
+            assertEquals(2, engine.getSessionStore().pendingSize()) ;
+        } finally {
+            engine.close() ;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotEquals ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestChallengeReuseWindow {
+    private static final String URI = "/data" ;
+    private static final String XFF = "X-Forwarded-For" ;
+
+    private DigestHttp engine ;
+
+    @Before public void before() {
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw-"+u) ;
+        engine.setChallengeReuseWindow(new ChallengeReuseWindow(60_000, XFF)) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private String challenge(String address) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null, XFF, address), response.response) ;
+        assertEquals(401, response.status) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    @Test public void burst() {
+        String ch = challenge("10.0.0.1") ;
+        for ( int i = 0 ; i < 19 ; i++ )
+            assertEquals(ch, challenge("10.0.0.1")) ;
+        assertEquals(1, engine.getSessionStore().pendingSize()) ;
+        assertEquals(19, engine.getChallengeReuseWindow().getReused()) ;
+        assertNotEquals(ch, challenge("10.0.0.2")) ;
+    }
+
+    @Test public void notAfterAnswer() {
+        String ch = challenge("10.0.0.1") ;
+        String auth = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        assertEquals(AccessStatus.YES, engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response)) ;
+        assertNotEquals(ch, challenge("10.0.0.1")) ;
+    }
+
+    private AccessStatus access(String auth, FakeHttp.Response response) {
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), response.response) ;
+    }
+
+    // Two users behind one address are sent the same challenge; the second to answer gets a new one.
+    private void twoUsers() {
+        String ch = challenge("10.0.0.1") ;
+        assertEquals(ch, challenge("10.0.0.1")) ;
+        String alice = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        String bob = FakeHttp.authorization(ch, "GET", URI, "bob", "pw-bob", 1) ;
+        assertEquals(AccessStatus.YES, access(alice, new FakeHttp.Response())) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        assertEquals(AccessStatus.NO, access(bob, response)) ;
+        assertEquals(200, response.status) ;
+        String ch2 = challenge("10.0.0.1") ;
+        assertNotEquals(ch, ch2) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch2, "GET", URI, "bob", "pw-bob", 1), new FakeHttp.Response())) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2), new FakeHttp.Response())) ;
+    }
+
+    @Test public void sharedAddress() {
+        twoUsers() ;
+    }
+
+    @Test public void sharedAddressStateless() {
+        engine.setStatelessNonces(new StatelessNonces(new byte[32], 60_000)) ;
+        twoUsers() ;
+    }
+
+    // Without a reuse window, a different user for a session is a bad request.
+    @Test public void differentUserNoWindow() {
+        engine.setChallengeReuseWindow(null) ;
+        String ch = challenge("10.0.0.1") ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1), new FakeHttp.Response())) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        assertEquals(AccessStatus.BAD, access(FakeHttp.authorization(ch, "GET", URI, "bob", "pw-bob", 1), response)) ;
+        assertEquals(400, response.status) ;
+    }
+
+    @Test public void stateless() {
+        engine.setStatelessNonces(new StatelessNonces(new byte[32], 60_000)) ;
+        String ch = challenge("10.0.0.1") ;
+        assertEquals(ch, challenge("10.0.0.1")) ;
+        String auth = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        assertEquals(AccessStatus.YES, engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response)) ;
+        assertNotEquals(ch, challenge("10.0.0.1")) ;
+    }
+
+    @Test public void window() throws InterruptedException {
+        engine.setChallengeReuseWindow(new ChallengeReuseWindow(1, XFF)) ;
+        String ch = challenge("10.0.0.1") ;
+        Thread.sleep(5) ;
+        assertNotEquals(ch, challenge("10.0.0.1")) ;
+    }
+}
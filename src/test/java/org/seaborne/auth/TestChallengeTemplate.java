@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+
+import java.util.List ;
+
+import org.junit.Test ;
+
+public class TestChallengeTemplate {
+    private static final String URI = "/data" ;
+
+    private static AuthChallengeHeader parse(String challenge) {
+        AuthChallengeHeader header = AuthChallengeHeader.parse(challenge, URI, "GET") ;
+        assertNotNull(challenge, header) ;
+        return header ;
+    }
+
+    @Test public void render() {
+        ChallengeTemplate template = new ChallengeTemplate("Login") ;
+        assertEquals("Digest realm=\"Login\", qop=\"auth\", nonce=\"N1\", opaque=\"O1\"",
+                     template.render("N1", "O1", false)) ;
+        assertEquals("Digest realm=\"Login\", qop=\"auth\", nonce=\"N1\", opaque=\"O1\", stale=true",
+                     template.render("N1", "O1", true)) ;
+    }
+
+    @Test public void renderAlgorithm() {
+        ChallengeTemplate template = new ChallengeTemplate("Login", "SHA-256") ;
+        assertEquals("Digest realm=\"Login\", qop=\"auth\", algorithm=SHA-256, nonce=\"N1\", opaque=\"O1\"",
+                     template.render("N1", "O1", false)) ;
+    }
+
+    @Test public void escape() {
+        String realm = "The \"main\" C:\\ realm" ;
+        String x = new ChallengeTemplate(realm).render("N1", "O1", false) ;
+        assertEquals("Digest realm=\"The \\\"main\\\" C:\\\\ realm\", qop=\"auth\", nonce=\"N1\", opaque=\"O1\"", x) ;
+        assertEquals(realm, parse(x).realm) ;
+    }
+
+    @Test public void parseBack() {
+        String x = new ChallengeTemplate("a=b, c", "MD5-sess").render("N1", "O1", true) ;
+        AuthChallengeHeader header = parse(x) ;
+        assertEquals("a=b, c", header.realm) ;
+        assertEquals("auth", header.qop) ;
+        assertEquals("MD5-sess", header.algorithm) ;
+        assertEquals("N1", header.nonce) ;
+        assertEquals("O1", header.opaque) ;
+        assertEquals("true", header.parsed.get("stale")) ;
+    }
+
+    // One WWW-Authenticate header per algorithm, most preferred first, all for the same challenge.
+    @Test public void algorithms() {
+        String realm = "Say \"hello\"" ;
+        DigestHttp engine = new DigestHttp(null, realm, (cxt, u) -> "pw", DigestSessionStores.create()) ;
+        try {
+            engine.setAlgorithms(DigestAlgorithm.SHA_512_256, DigestAlgorithm.SHA_256, DigestAlgorithm.MD5) ;
+            FakeHttp.Response response = new FakeHttp.Response() ;
+            engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+            assertEquals(401, response.status) ;
+            List<String> challenges = response.allHeaders.get("WWW-Authenticate") ;
+            assertEquals(3, challenges.size()) ;
+            AuthChallengeHeader first = parse(challenges.get(0)) ;
+            assertEquals("SHA-512-256", first.algorithm) ;
+            assertEquals("SHA-256", parse(challenges.get(1)).algorithm) ;
+            // MD5 is the default, and is not named.
+            assertNull(parse(challenges.get(2)).algorithm) ;
+            for ( String ch : challenges ) {
+                AuthChallengeHeader header = parse(ch) ;
+                assertEquals(realm, header.realm) ;
+                assertEquals(first.nonce, header.nonce) ;
+                assertEquals(first.opaque, header.opaque) ;
+            }
+        } finally {
+            engine.close() ;
+        }
+    }
+}
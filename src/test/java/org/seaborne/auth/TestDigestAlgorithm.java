@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertArrayEquals ;
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.List ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestDigestAlgorithm {
+    private static final String URI = "/data" ;
+
+    private DigestHttp engine ;
+
+    @Before public void before() {
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw-"+u) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private List<String> challenges() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.allHeaders.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String auth) {
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    // RFC 7616, section 3.9.1.
+    @Test public void rfc7616() {
+        String x = "Digest username=\"Mufasa\", realm=\"http-auth@example.org\", uri=\"/dir/index.html\""
+                  +", qop=auth, nc=00000001, cnonce=\"f2/wE4q74E6zIJEtWaHKaf5wv/H5QzzpXusqGemxURZJ\""
+                  +", nonce=\"7ypf/xlj9XXwfDPEoM4URrv/xwf94BcCAzFZH4GiTo0v\""
+                  +", opaque=\"FQhe/qaU925kfnzjCev0ciny7QMkPqMAFRtzCUYo5tdS\"" ;
+        String md5 = "8ca523f5e9506fed4657c9700eebdbec" ;
+        String sha256 = "753927fa0e85d155564e2e272a28d1802ca10daf4496794697cf8db5856cb6c1" ;
+        AuthResponseHeader a1 = AuthResponseHeader.parse(x+", algorithm=MD5, response=\""+md5+"\"", "GET") ;
+        AuthResponseHeader a2 = AuthResponseHeader.parse(x+", algorithm=SHA-256, response=\""+sha256+"\"", "GET") ;
+        assertEquals(md5, DigestHttp.calcDigestResponse(a1, "Circle of Life")) ;
+        assertEquals(sha256, DigestHttp.calcDigestResponse(a2, "Circle of Life")) ;
+        assertTrue(DigestVerifier.verify(a1, "Circle of Life")) ;
+        assertTrue(DigestVerifier.verify(a2, "Circle of Life")) ;
+        assertFalse(DigestVerifier.verify(a2, "Circle of life")) ;
+    }
+
+    @Test public void names() {
+        assertEquals(DigestAlgorithm.MD5, DigestAlgorithm.of(null)) ;
+        assertEquals(DigestAlgorithm.SHA_256, DigestAlgorithm.of("sha-256-SESS")) ;
+        assertEquals(DigestAlgorithm.SHA_512_256, DigestAlgorithm.of("SHA-512-256")) ;
+        assertNull(DigestAlgorithm.of("SHA-1")) ;
+        assertEquals(64, DigestAlgorithm.SHA_512_256.hexLength()) ;
+        assertArrayEquals(new DigestAlgorithm[] { DigestAlgorithm.SHA_256, DigestAlgorithm.MD5 }, DigestAlgorithm.parseList(" SHA-256, MD5 ")) ;
+        assertTrue(DigestAlgorithm.isSessList("SHA-256-sess, MD5-sess")) ;
+        assertFalse(DigestAlgorithm.isSessList("SHA-256")) ;
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void mixedSess() {
+        DigestAlgorithm.isSessList("SHA-256-sess, MD5") ;
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownName() {
+        DigestAlgorithm.parseList("SHA-256, SHA-1") ;
+    }
+
+    @Test public void challengeOrder() {
+        engine.setAlgorithms(DigestAlgorithm.SHA_512_256, DigestAlgorithm.SHA_256, DigestAlgorithm.MD5) ;
+        List<String> x = challenges() ;
+        assertEquals(3, x.size()) ;
+        assertTrue(x.get(0).contains("algorithm=SHA-512-256,")) ;
+        assertTrue(x.get(1).contains("algorithm=SHA-256,")) ;
+        // Plain MD5 is not named.
+        assertFalse(x.get(2).contains("algorithm=")) ;
+        // One challenge, offered with each algorithm.
+        AuthChallengeHeader c0 = AuthChallengeHeader.parse(x.get(0), URI, "GET") ;
+        AuthChallengeHeader c2 = AuthChallengeHeader.parse(x.get(2), URI, "GET") ;
+        assertEquals(c0.nonce, c2.nonce) ;
+        assertEquals(c0.opaque, c2.opaque) ;
+
+        engine.setSessionAlgorithm(true) ;
+        x = challenges() ;
+        assertTrue(x.get(0).contains("algorithm=SHA-512-256-sess,")) ;
+        assertTrue(x.get(2).contains("algorithm=MD5-sess,")) ;
+    }
+
+    @Test public void eachAlgorithm() {
+        engine.setAlgorithms(DigestAlgorithm.values()) ;
+        for ( boolean sess : new boolean[] { false, true } ) {
+            engine.setSessionAlgorithm(sess) ;
+            for ( int i = 0 ; i < DigestAlgorithm.values().length ; i++ ) {
+                // A new session for each.
+                String challenge = challenges().get(i) ;
+                assertEquals(AccessStatus.YES, access(FakeHttp.authorization(challenge, "GET", URI, "alice", "pw-alice", 1))) ;
+                assertEquals(AccessStatus.YES, access(FakeHttp.authorization(challenge, "GET", URI, "alice", "pw-alice", 2))) ;
+            }
+            String challenge = challenges().get(0) ;
+            assertEquals(AccessStatus.NO, access(FakeHttp.authorization(challenge, "GET", URI, "alice", "wrong", 1))) ;
+        }
+    }
+
+    @Test public void notOffered() {
+        engine.setAlgorithms(DigestAlgorithm.SHA_256) ;
+        String challenge = challenges().get(0) ;
+        String auth = FakeHttp.authorization(challenge, "GET", URI, "alice", "pw-alice", 1) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        String md5 = auth.replace("algorithm=SHA-256", "algorithm=MD5") ;
+        assertEquals(AccessStatus.BAD, engine.accessYesOrNo(FakeHttp.request("GET", URI, md5), response.response)) ;
+        assertEquals(400, response.status) ;
+        assertEquals(AccessStatus.YES, access(auth)) ;
+    }
+
+    @Test public void sessionKeepsAlgorithm() {
+        engine.setAlgorithms(DigestAlgorithm.SHA_256, DigestAlgorithm.MD5) ;
+        List<String> x = challenges() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(x.get(0), "GET", URI, "alice", "pw-alice", 1))) ;
+        // Same session (nonce, opaque), other algorithm.
+        assertEquals(AccessStatus.BAD, access(FakeHttp.authorization(x.get(1), "GET", URI, "alice", "pw-alice", 2))) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(x.get(0), "GET", URI, "alice", "pw-alice", 3))) ;
+    }
+
+    @Test public void ha1PerAlgorithm() {
+        HA1Cache cache = new HA1Cache() ;
+        engine.setHA1Cache(cache) ;
+        engine.setAlgorithms(DigestAlgorithm.SHA_256) ;
+        String challenge = challenges().get(0) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(challenge, "GET", URI, "alice", "pw-alice", 1))) ;
+        String ha1 = DigestAlgorithm.SHA_256.H(RFC2617.A1_MD5("alice", "TestRealm", "pw-alice")) ;
+        assertEquals(ha1, cache.get("alice", "TestRealm", DigestAlgorithm.SHA_256)) ;
+        assertNull(cache.get("alice", "TestRealm")) ;
+    }
+
+    @Test public void storedHA1IsMD5() {
+        HA1Getter getter = (cxt, u, r) -> RFC2617.H(RFC2617.A1_MD5(u, r, "pw-"+u)) ;
+        assertNull(getter.getHA1(null, "alice", "TestRealm", DigestAlgorithm.SHA_256)) ;
+        assertEquals(getter.getHA1(null, "alice", "TestRealm"), getter.getHA1(null, "alice", "TestRealm", DigestAlgorithm.MD5)) ;
+    }
+}
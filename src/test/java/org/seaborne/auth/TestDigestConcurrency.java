@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.concurrent.CyclicBarrier ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.TimeUnit ;
+import java.util.ArrayList ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.junit.runner.RunWith ;
+import org.junit.runners.Parameterized ;
+import org.junit.runners.Parameterized.Parameters ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Many requests arriving at once with the same new opaque. */
+@RunWith(Parameterized.class)
+public class TestDigestConcurrency {
+    private static final String REALM = "TestRealm" ;
+    private static final String USER = "user" ;
+    private static final String PASSWORD = "password" ;
+    private static final String URI = "/data" ;
+    private static final int THREADS = 16 ;
+    private static final int ROUNDS = 200 ;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { DigestSessionStores.typeMemory },
+            { DigestSessionStores.typeBounded },
+            { DigestSessionStores.typeOffHeap }
+        }) ;
+    }
+
+    private final String storeType ;
+    private DigestHttp engine ;
+    private ExecutorService executor ;
+
+    public TestDigestConcurrency(String storeType) {
+        this.storeType = storeType ;
+    }
+
+    @Before public void before() {
+        DigestSessionStore store = DigestSessionStores.create(storeType, Collections.emptyMap()) ;
+        engine = new DigestHttp(null, REALM, (cxt, u) -> USER.equals(u) ? PASSWORD : null, store) ;
+        executor = Executors.newFixedThreadPool(THREADS) ;
+    }
+
+    @After public void after() throws Exception {
+        executor.shutdownNow() ;
+        executor.awaitTermination(10, TimeUnit.SECONDS) ;
+        engine.close() ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        assertEquals(401, response.status) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String authorization, FakeHttp.Response response) {
+        HttpServletRequest request = FakeHttp.request("GET", URI, authorization) ;
+        return engine.accessYesOrNo(request, response.response) ;
+    }
+
+    @Test public void parallel_first_requests() throws Exception {
+        for ( int round = 0 ; round < ROUNDS ; round++ ) {
+            String challenge = challenge() ;
+            CyclicBarrier barrier = new CyclicBarrier(THREADS) ;
+            List<Future<AccessStatus>> results = new ArrayList<>() ;
+            for ( int i = 1 ; i <= THREADS ; i++ ) {
+                String authorization = FakeHttp.authorization(challenge, "GET", URI, USER, PASSWORD, i) ;
+                results.add(executor.submit(() -> {
+                    FakeHttp.Response response = new FakeHttp.Response() ;
+                    barrier.await() ;
+                    AccessStatus status = access(authorization, response) ;
+                    assertEquals(200, response.status) ;
+                    return status ;
+                })) ;
+            }
+            int rechallenged = 0 ;
+            for ( Future<AccessStatus> f : results ) {
+                if ( f.get() != AccessStatus.YES )
+                    rechallenged++ ;
+            }
+            assertEquals("Round "+round, 0, rechallenged) ;
+        }
+        assertEquals(0, engine.getSessionStore().pendingSize()) ;
+        assertEquals(ROUNDS, engine.getSessionStore().activeSize()) ;
+    }
+
+    @Test public void replay_rejected() {
+        String challenge = challenge() ;
+        String auth1 = FakeHttp.authorization(challenge, "GET", URI, USER, PASSWORD, 1) ;
+        String auth2 = FakeHttp.authorization(challenge, "GET", URI, USER, PASSWORD, 2) ;
+        assertEquals(AccessStatus.YES, access(auth1, new FakeHttp.Response())) ;
+        assertEquals(AccessStatus.NO,  access(auth1, new FakeHttp.Response())) ;
+        assertEquals(AccessStatus.YES, access(auth2, new FakeHttp.Response())) ;
+    }
+
+    @Test public void wrong_password() {
+        String challenge = challenge() ;
+        String auth = FakeHttp.authorization(challenge, "GET", URI, USER, "wrong", 1) ;
+        assertEquals(AccessStatus.NO, access(auth, new FakeHttp.Response())) ;
+    }
+}
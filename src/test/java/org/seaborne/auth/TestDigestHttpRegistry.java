@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotSame ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertSame ;
+
+import java.util.Arrays ;
+import java.util.Collections ;
+import java.util.HashSet ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Routing requests to per-realm engines. */
+public class TestDigestHttpRegistry {
+    private DigestHttpRegistry registry ;
+
+    @Before public void before() {
+        registry = new DigestHttpRegistry(DigestHttpRegistry.byPathPrefix(),
+                                          realm -> (cxt, u) -> realm+"-"+u,
+                                          realm -> DigestSessionStores.create()) ;
+        registry.setAllowedRealms(new HashSet<>(Arrays.asList("a", "b", "c"))) ;
+    }
+
+    @After public void after() {
+        registry.close() ;
+    }
+
+    // Challenge and respond on one engine; returns the "Authorization" header used.
+    private String login(String uri, String user, String password) {
+        DigestHttp engine = registry.engineFor(FakeHttp.request("GET", uri, null)) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", uri, null), response.response) ;
+        return FakeHttp.authorization(response.headers.get("WWW-Authenticate"), "GET", uri, user, password, 1) ;
+    }
+
+    private AccessStatus access(String uri, String auth) {
+        return registry.engineFor(FakeHttp.request("GET", uri, auth)).accessYesOrNo(FakeHttp.request("GET", uri, auth), new FakeHttp.Response().response) ;
+    }
+
+    @Test public void routing() {
+        assertNull(registry.engineFor(FakeHttp.request("GET", "/", null))) ;
+        DigestHttp a = registry.engineFor(FakeHttp.request("GET", "/a/data", null)) ;
+        DigestHttp b = registry.engineFor(FakeHttp.request("GET", "/b/data", null)) ;
+        assertNotSame(a, b) ;
+        assertSame(a, registry.engine("a")) ;
+        assertEquals(2, registry.size()) ;
+    }
+
+    @Test public void realmsSeparate() {
+        String auth = login("/a/data", "alice", "a-alice") ;
+        assertEquals(AccessStatus.YES, access("/a/data", auth)) ;
+        // The session and password belong to realm "a".
+        assertEquals(AccessStatus.NO, access("/b/data", auth)) ;
+        String bad = login("/b/data", "alice", "a-alice") ;
+        assertEquals(AccessStatus.NO, access("/b/data", bad)) ;
+        String good = login("/b/data", "alice", "b-alice") ;
+        assertEquals(AccessStatus.YES, access("/b/data", good)) ;
+        assertEquals(2, registry.revokeSessions("alice")) ;
+    }
+
+    @Test public void idle() throws InterruptedException {
+        String auth = login("/a/data", "alice", "a-alice") ;
+        assertEquals(AccessStatus.YES, access("/a/data", auth)) ;
+        DigestHttp b = registry.engine("b") ;
+        registry.setIdleTimeout(1) ;
+        Thread.sleep(10) ;
+        registry.sweep() ;
+        // "a" has an active session; "b" has none.
+        assertEquals(1, registry.size()) ;
+        assertNotSame(b, registry.engine("b")) ;
+        registry.revokeSessions("a", "alice") ;
+        Thread.sleep(10) ;
+        registry.sweep() ;
+        assertEquals(0, registry.size()) ;
+    }
+
+    // No engine for a realm that is not configured, however many are asked for.
+    @Test public void notAllowed() {
+        assertNull(registry.engineFor(FakeHttp.request("GET", "/other/data", null))) ;
+        assertNull(registry.engine("A")) ;
+        assertEquals(0, registry.size()) ;
+        registry.setAllowedRealms(null) ;
+        assertNotNull(registry.engine("other")) ;
+        registry.setAllowedRealms(Collections.emptySet()) ;
+        assertNull(registry.engine("a")) ;
+    }
+
+    @Test public void maxEngines() throws InterruptedException {
+        registry.setMaxEngines(2) ;
+        DigestHttp a = registry.engine("a") ;
+        assertNotNull(registry.engine("b")) ;
+        assertNull(registry.engine("c")) ;
+        assertEquals(2, registry.size()) ;
+        // Existing engines are still used.
+        assertSame(a, registry.engine("a")) ;
+        // An idle engine closed makes room.
+        registry.setIdleTimeout(1) ;
+        Thread.sleep(10) ;
+        registry.sweep() ;
+        assertNotNull(registry.engine("c")) ;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.IOException ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.List ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Rule ;
+import org.junit.Test ;
+import org.junit.rules.TemporaryFolder ;
+import org.junit.runner.RunWith ;
+import org.junit.runners.Parameterized ;
+import org.junit.runners.Parameterized.Parameters ;
+import org.seaborne.auth.PendingSessions.OverflowPolicy ;
+
+/** What every {@link DigestSessionStore} must do. */
+@RunWith(Parameterized.class)
+public class TestDigestSessionStore {
+    private static final long TIMEOUT = 60_000 ;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { DigestSessionStores.typeMemory },
+            { DigestSessionStores.typeBounded },
+            { DigestSessionStores.typeOffHeap },
+            { DigestSessionStores.typeMapped }
+        }) ;
+    }
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder() ;
+
+    private final String storeType ;
+    private DigestSessionStore store ;
+    private final List<String> removed = new ArrayList<>() ;
+
+    public TestDigestSessionStore(String storeType) {
+        this.storeType = storeType ;
+    }
+
+    @Before public void before() throws IOException {
+        switch(storeType) {
+            case DigestSessionStores.typeMemory :
+                store = new DigestSessionStoreMem() ;
+                break ;
+            case DigestSessionStores.typeBounded :
+                store = new DigestSessionStoreBounded(TIMEOUT, 100, OverflowPolicy.REJECT, TIMEOUT, 10*TIMEOUT, 100) ;
+                break ;
+            case DigestSessionStores.typeOffHeap :
+                store = new DigestSessionStoreOffHeap(100, TIMEOUT, TIMEOUT, 10*TIMEOUT) ;
+                break ;
+            case DigestSessionStores.typeMapped :
+                store = DigestSessionStoreMapped.open(folder.getRoot().toPath().resolve("sessions"), 100, TIMEOUT, TIMEOUT, 10*TIMEOUT) ;
+                break ;
+        }
+        store.setRemovalListener((opaque, username) -> removed.add(opaque+"/"+username)) ;
+    }
+
+    @After public void after() {
+        store.close() ;
+    }
+
+    private static String key() {
+        return NonceGenerators.DEFAULT.generate() ;
+    }
+
+    private DigestSession pending() {
+        DigestSession session = new DigestSession(key(), "TestRealm", "GET", "/data", key()) ;
+        assertTrue(store.putPending(session)) ;
+        return session ;
+    }
+
+    @Test public void putPending() {
+        DigestSession session = pending() ;
+        DigestSession x = store.getPending(session.opaque) ;
+        assertNotNull(x) ;
+        assertEquals(session.nonce, x.nonce) ;
+        assertEquals("TestRealm", x.realm) ;
+        assertNull(store.get(session.opaque)) ;
+        assertNull(store.getPending(key())) ;
+        assertEquals(1, store.pendingSize()) ;
+        assertEquals(0, store.activeSize()) ;
+    }
+
+    @Test public void promote() {
+        DigestSession session = pending() ;
+        DigestSession active = store.promote(session.opaque, "user") ;
+        assertNotNull(active) ;
+        assertEquals("user", active.username) ;
+        assertEquals(session.nonce, active.nonce) ;
+        assertNull(store.getPending(session.opaque)) ;
+        assertEquals("user", store.get(session.opaque).username) ;
+        // Again, as a concurrent request would.
+        assertEquals(session.opaque, store.promote(session.opaque, "user").opaque) ;
+        assertNull(store.promote(session.opaque, "other")) ;
+        assertNull(store.promote(key(), "user")) ;
+        assertEquals(0, store.pendingSize()) ;
+        assertEquals(1, store.activeSize()) ;
+    }
+
+    @Test public void activate() {
+        DigestSession session = new DigestSession(key(), "user", "TestRealm", "GET", "/data", key()) ;
+        DigestSession active = store.activate(session) ;
+        assertNotNull(active) ;
+        assertEquals("user", store.get(session.opaque).username) ;
+        DigestSession again = new DigestSession(session.opaque, "user", "TestRealm", "GET", "/data", key()) ;
+        assertEquals(session.nonce, store.activate(again).nonce) ;
+        List<String> opaques = new ArrayList<>() ;
+        store.forEach(s -> opaques.add(s.opaque)) ;
+        assertEquals(Arrays.asList(session.opaque), opaques) ;
+    }
+
+    @Test public void remove() {
+        DigestSession p = pending() ;
+        DigestSession a = store.promote(pending().opaque, "user") ;
+        store.remove(p.opaque) ;
+        assertNull(store.getPending(p.opaque)) ;
+        // Only active sessions are notified.
+        assertTrue(removed.isEmpty()) ;
+        store.remove(a.opaque) ;
+        assertNull(store.get(a.opaque)) ;
+        assertEquals(Arrays.asList(a.opaque+"/user"), removed) ;
+        store.remove(a.opaque) ;
+        assertEquals(1, removed.size()) ;
+        assertEquals(0, store.pendingSize()) ;
+        assertEquals(0, store.activeSize()) ;
+    }
+
+    @Test public void nonceCount() {
+        DigestSession a = store.promote(pending().opaque, "user") ;
+        assertTrue(store.acceptNonceCount(a, 1)) ;
+        assertFalse(store.acceptNonceCount(a, 1)) ;
+        assertTrue(store.acceptNonceCount(a, 3)) ;
+        assertTrue(store.acceptNonceCount(a, 2)) ;
+        assertFalse(store.acceptNonceCount(a, 2)) ;
+        assertFalse(store.acceptNonceCount(a, 0)) ;
+        assertTrue(store.acceptNonceCount(a, 100)) ;
+        assertFalse(store.acceptNonceCount(a, 3)) ;
+        // Another lookup of the same session.
+        assertFalse(store.acceptNonceCount(store.get(a.opaque), 100)) ;
+    }
+
+    @Test public void renewNonce() {
+        DigestSession a = store.promote(pending().opaque, "user") ;
+        String nonce = a.nonce ;
+        assertTrue(store.acceptNonceCount(a, 1)) ;
+        String next = key() ;
+        assertEquals(next, store.offerNextNonce(a, nonce, next)) ;
+        assertEquals(next, store.offerNextNonce(a, nonce, key())) ;
+        assertEquals(next, store.get(a.opaque).nextNonce) ;
+
+        long now = System.currentTimeMillis() ;
+        String renewed = key() ;
+        assertFalse(store.renewNonce(a, key(), renewed, now)) ;
+        assertTrue(store.renewNonce(a, nonce, renewed, now)) ;
+        DigestSession x = store.get(a.opaque) ;
+        assertEquals(renewed, x.nonce) ;
+        assertNull(x.nextNonce) ;
+        assertEquals(now, x.nonceIssued) ;
+        // A new nonce starts a new count.
+        assertTrue(store.acceptNonceCount(x, 1)) ;
+        assertFalse(store.renewNonce(x, nonce, key(), now)) ;
+        assertNull(store.offerNextNonce(x, nonce, key())) ;
+    }
+
+    @Test public void touch() {
+        DigestSession a = store.promote(pending().opaque, "user") ;
+        long now = System.currentTimeMillis() + 1000 ;
+        store.touch(a, now) ;
+        assertEquals(now, store.get(a.opaque).lastAccess) ;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertArrayEquals ;
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.IOException ;
+import java.io.RandomAccessFile ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+
+import org.junit.Before ;
+import org.junit.Rule ;
+import org.junit.Test ;
+import org.junit.rules.TemporaryFolder ;
+
+/** Reopening a {@link DigestSessionStoreMapped}, and recovery of damaged records. */
+public class TestDigestSessionStoreMapped {
+    private static final long TIMEOUT = 60_000 ;
+    // File layout, for damaging records.
+    private static final int HEADER = 64 ;
+    private static final int STATE = 0 ;
+    private static final int CHECK = 60 ;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder() ;
+
+    private Path file ;
+
+    @Before public void before() {
+        file = folder.getRoot().toPath().resolve("sessions") ;
+    }
+
+    // Capacity 16 is one segment of 32 slots.
+    private DigestSessionStoreMapped open(int capacity) throws IOException {
+        return DigestSessionStoreMapped.open(file, capacity, TIMEOUT, TIMEOUT, 10*TIMEOUT) ;
+    }
+
+    // An opaque in slot {@code slot} of a 32 slot segment (see TestDigestSessionStoreOffHeap).
+    private static String opaque(int k, int slot) {
+        return String.format("%08x%08x%016x", k, k ^ slot, 0) ;
+    }
+
+    private static void pending(DigestSessionStore store, String opaque) {
+        DigestSession session = new DigestSession(opaque, "TestRealm", "GET", "/data", NonceGenerators.DEFAULT.generate()) ;
+        assertTrue(store.putPending(session)) ;
+    }
+
+    // Write an int into the record in {@code slot}.
+    private void damage(int slot, int offset, int value) throws IOException {
+        try ( RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw") ) {
+            raf.seek(HEADER + slot * DigestSessionStoreOffHeap.RECORD + offset) ;
+            raf.writeInt(value) ;
+        }
+    }
+
+    private String[] threeSessions() throws IOException {
+        String a = opaque(1, 3) ;
+        String b = opaque(2, 7) ;
+        String c = opaque(3, 11) ;
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            pending(store, a) ;
+            pending(store, b) ;
+            pending(store, c) ;
+            DigestSession active = store.promote(b, "user") ;
+            assertTrue(store.acceptNonceCount(active, 5)) ;
+            assertNotNull(store.promote(c, "user2")) ;
+        } finally {
+            store.close() ;
+        }
+        return new String[] { a, b, c } ;
+    }
+
+    @Test public void reopen() throws IOException {
+        String[] x = threeSessions() ;
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            assertNotNull(store.getPending(x[0])) ;
+            DigestSession b = store.get(x[1]) ;
+            assertNotNull(b) ;
+            assertEquals("user", b.username) ;
+            assertEquals("TestRealm", b.realm) ;
+            // Nonce counts survive.
+            assertFalse(store.acceptNonceCount(b, 5)) ;
+            assertTrue(store.acceptNonceCount(b, 6)) ;
+            assertEquals("user2", store.get(x[2]).username) ;
+            assertEquals(1, store.pendingSize()) ;
+            assertEquals(2, store.activeSize()) ;
+        } finally {
+            store.close() ;
+        }
+    }
+
+    @Test public void reopenOtherCapacity() throws IOException {
+        String[] x = threeSessions() ;
+        DigestSessionStoreMapped store = open(20_000) ;
+        try {
+            assertNotNull(store.getPending(x[0])) ;
+            assertEquals("user", store.get(x[1]).username) ;
+            assertEquals("user2", store.get(x[2]).username) ;
+        } finally {
+            store.close() ;
+        }
+    }
+
+    @Test public void badChecksum() throws IOException {
+        String[] x = threeSessions() ;
+        damage(7, CHECK, 0x12345678) ;
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            assertNull(store.get(x[1])) ;
+            assertNotNull(store.getPending(x[0])) ;
+            assertNotNull(store.get(x[2])) ;
+            assertEquals(1, store.activeSize()) ;
+        } finally {
+            store.close() ;
+        }
+    }
+
+    @Test public void badState() throws IOException {
+        String[] x = threeSessions() ;
+        damage(3, STATE, 99) ;
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            assertNull(store.getPending(x[0])) ;
+            assertNotNull(store.get(x[1])) ;
+            assertNotNull(store.get(x[2])) ;
+            assertEquals(0, store.pendingSize()) ;
+            assertEquals(2, store.activeSize()) ;
+        } finally {
+            store.close() ;
+        }
+    }
+
+    @Test public void inUse() throws IOException {
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            open(16).close() ;
+            throw new AssertionError("Opened twice") ;
+        } catch (IOException ex) {
+        } finally {
+            store.close() ;
+        }
+    }
+
+    // A file that is not a session file is an error, and is not changed.
+    private void notSessionFile(byte[] content) throws IOException {
+        Files.write(file, content) ;
+        try {
+            open(16).close() ;
+            throw new AssertionError("Opened a file that is not a session file") ;
+        } catch (IOException ex) {}
+        assertArrayEquals(content, Files.readAllBytes(file)) ;
+        assertFalse(Files.exists(file.resolveSibling("sessions.names"))) ;
+    }
+
+    @Test public void otherFile() throws IOException {
+        notSessionFile("Some other file\n".getBytes(StandardCharsets.UTF_8)) ;
+        notSessionFile(new byte[4096]) ;
+    }
+
+    // Right magic number, damaged header: left as it is too.
+    @Test public void badHeader() throws IOException {
+        open(16).close() ;
+        try ( RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw") ) {
+            raf.seek(8) ;
+            raf.writeInt(-1) ;
+        }
+        byte[] content = Files.readAllBytes(file) ;
+        try {
+            open(16).close() ;
+            throw new AssertionError("Opened a damaged file") ;
+        } catch (IOException ex) {}
+        assertArrayEquals(content, Files.readAllBytes(file)) ;
+    }
+
+    @Test public void emptyFile() throws IOException {
+        Files.createFile(file) ;
+        DigestSessionStoreMapped store = open(16) ;
+        try {
+            pending(store, opaque(1, 3)) ;
+            assertEquals(1, store.pendingSize()) ;
+        } finally {
+            store.close() ;
+        }
+    }
+}
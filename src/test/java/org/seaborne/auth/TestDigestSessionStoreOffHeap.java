@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import org.junit.After ;
+import org.junit.Test ;
+
+/** The open addressing table of {@link DigestSessionStoreOffHeap}. */
+public class TestDigestSessionStoreOffHeap {
+    private static final long TIMEOUT = 60_000 ;
+
+    // Capacity 16 is one segment of 32 slots.
+    private final DigestSessionStoreOffHeap store = new DigestSessionStoreOffHeap(16, TIMEOUT, TIMEOUT, 10*TIMEOUT) ;
+
+    @After public void after() {
+        store.close() ;
+    }
+
+    // An opaque whose hash is {@code hash}: with the low 64 bits zero, the hash is the
+    // two halves of the high 64 bits xor'ed together.
+    private static String opaque(int k, int hash) {
+        return String.format("%08x%08x%016x", k, k ^ hash, 0) ;
+    }
+
+    private DigestSession pending(String opaque, long created) {
+        DigestSession session = new DigestSession(opaque, "", "TestRealm", "GET", "/data", NonceGenerators.DEFAULT.generate(), created) ;
+        assertTrue(store.putPending(session)) ;
+        return session ;
+    }
+
+    private DigestSession pending(String opaque) {
+        return pending(opaque, System.currentTimeMillis()) ;
+    }
+
+    @Test public void backwardShift() {
+        // Slots 0, 1, 2, 3; the third belongs at slot 1.
+        String a = opaque(1, 0) ;
+        String b = opaque(2, 0) ;
+        String c = opaque(3, 1) ;
+        String d = opaque(4, 0) ;
+        for ( String x : new String[] { a, b, c, d } )
+            pending(x) ;
+        store.remove(a) ;
+        assertNull(store.getPending(a)) ;
+        for ( String x : new String[] { b, c, d } )
+            assertNotNull(x, store.getPending(x)) ;
+        store.remove(c) ;
+        assertNotNull(store.getPending(b)) ;
+        assertNotNull(store.getPending(d)) ;
+        assertEquals(2, store.pendingSize()) ;
+        // Reinsert into the chain.
+        pending(a) ;
+        pending(c) ;
+        for ( String x : new String[] { a, b, c, d } )
+            assertNotNull(x, store.getPending(x)) ;
+    }
+
+    @Test public void wrapAround() {
+        // From the last slot, 31, round to 0 and 1.
+        String a = opaque(1, 31) ;
+        String b = opaque(2, 31) ;
+        String c = opaque(3, 0) ;
+        String d = opaque(4, 31) ;
+        for ( String x : new String[] { a, b, c, d } )
+            pending(x) ;
+        store.remove(b) ;
+        for ( String x : new String[] { a, c, d } )
+            assertNotNull(x, store.getPending(x)) ;
+        store.remove(a) ;
+        assertNotNull(store.getPending(c)) ;
+        assertNotNull(store.getPending(d)) ;
+    }
+
+    @Test public void sweep() {
+        long now = System.currentTimeMillis() ;
+        long old = now - 2*TIMEOUT ;
+        // Expired records either side of one to keep, in one chain which wraps round.
+        String[] expired = { opaque(1, 30), opaque(2, 30), opaque(4, 30), opaque(5, 31) } ;
+        pending(expired[0], old) ;
+        pending(expired[1], old) ;
+        String keep = opaque(3, 30) ;
+        pending(keep, now) ;
+        pending(expired[2], old) ;
+        pending(expired[3], old) ;
+        String keep2 = opaque(6, 0) ;
+        pending(keep2, now) ;
+        assertEquals(6, store.pendingSize()) ;
+        assertEquals(4, store.sweep(now)) ;
+        assertEquals(2, store.pendingSize()) ;
+        assertNotNull(store.getPending(keep)) ;
+        assertNotNull(store.getPending(keep2)) ;
+        for ( String x : expired )
+            assertNull(store.getPending(x)) ;
+    }
+
+    @Test public void sweepActive() {
+        DigestSession session = pending(opaque(1, 5)) ;
+        DigestSession active = store.promote(session.opaque, "user") ;
+        long now = System.currentTimeMillis() ;
+        store.touch(active, now) ;
+        assertEquals(0, store.sweep(now + TIMEOUT - 1)) ;
+        assertEquals(1, store.sweep(now + TIMEOUT)) ;
+        assertEquals(0, store.activeSize()) ;
+    }
+
+    @Test public void keys() {
+        assertTrue(store.acceptsKey(NonceGenerators.DEFAULT.generate())) ;
+        assertTrue(store.acceptsKey(NonceGenerators.uuid().generate())) ;
+        assertFalse(store.acceptsKey("not-hex")) ;
+        assertFalse(store.acceptsKey(NonceGenerators.DEFAULT.generate()+"00")) ;
+    }
+
+    @Test public void nonceGenerator() {
+        DigestHttp engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw", new DigestSessionStoreOffHeap(16, TIMEOUT, TIMEOUT, 10*TIMEOUT)) ;
+        try {
+            engine.setNonceGenerator(NonceGenerators.perThread()) ;
+            try {
+                engine.setNonceGenerator(() -> "short") ;
+                throw new AssertionError("Generator accepted") ;
+            } catch (IllegalArgumentException ex) {}
+            // Still the previous generator.
+            FakeHttp.Response response = new FakeHttp.Response() ;
+            engine.sendChallenge(FakeHttp.request("GET", "/data", null), response.response) ;
+            assertEquals(401, response.status) ;
+        } finally {
+            engine.close() ;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertTrue ;
+import static org.junit.Assert.fail ;
+
+import java.nio.file.Path ;
+import java.util.HashMap ;
+import java.util.Map ;
+
+import org.junit.Rule ;
+import org.junit.Test ;
+import org.junit.rules.TemporaryFolder ;
+
+public class TestDigestSessionStores {
+    @Rule public TemporaryFolder folder = new TemporaryFolder() ;
+
+    private static Map<String, String> settings(String... kv) {
+        Map<String, String> map = new HashMap<>() ;
+        for ( int i = 0 ; i < kv.length ; i += 2 )
+            map.put(kv[i], kv[i+1]) ;
+        return map ;
+    }
+
+    private static void bad(String type, Map<String, String> settings) {
+        try {
+            DigestSessionStores.check(type, settings) ;
+            fail("Expected IllegalArgumentException: "+type+" "+settings) ;
+        } catch (IllegalArgumentException ex) {}
+    }
+
+    @Test public void check() {
+        DigestSessionStores.check(null, settings()) ;
+        DigestSessionStores.check("memory", settings()) ;
+        DigestSessionStores.check("bounded", settings("pending-capacity", "10", "pending-overflow", "reject")) ;
+        DigestSessionStores.check(" OffHeap ", settings("capacity", "1000", "session-lifetime", "60")) ;
+    }
+
+    @Test public void checkBad() {
+        bad("other", settings()) ;
+        bad("bounded", settings("pending-capacity", "0")) ;
+        bad("bounded", settings("pending-overflow", "drop")) ;
+        bad("bounded", settings("pending-timeout", "-1")) ;
+        bad("bounded", settings("session-idle-timeout", "x")) ;
+        bad("offheap", settings("capacity", "0")) ;
+        bad("offheap", settings("capacity", "3000000000")) ;
+        bad("offheap", settings("capacity", String.valueOf(Integer.MAX_VALUE))) ;
+        bad("mapped", settings()) ;
+    }
+
+    // Checking a mapped store does not create its file.
+    @Test public void checkMapped() {
+        Path file = folder.getRoot().toPath().resolve("sessions") ;
+        DigestSessionStores.check("mapped", settings("file", file.toString(), "capacity", "100")) ;
+        assertFalse(file.toFile().exists()) ;
+        DigestSessionStore store = DigestSessionStores.create("mapped", settings("file", file.toString(), "capacity", "100")) ;
+        store.close() ;
+        assertTrue(file.toFile().exists()) ;
+    }
+}
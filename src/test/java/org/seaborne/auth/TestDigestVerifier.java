@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertTrue ;
+
+import java.lang.management.ManagementFactory ;
+
+import org.junit.Assume ;
+import org.junit.Test ;
+
+public class TestDigestVerifier {
+
+    private static AuthResponseHeader header(String username, String uri, String qop, String response) {
+        String x = "Digest username=\""+username+"\", realm=\"Réalm\", nonce=\"abc123\", uri=\""+uri+"\""
+                  +( qop == null ? "" : ", qop="+qop+", nc=00000001, cnonce=\"c0ffee\"" )
+                  +", response=\""+response+"\", opaque=\"xyz\"" ;
+        AuthResponseHeader auth = AuthResponseHeader.parse(x, "GET") ;
+        if ( response != null )
+            return auth ;
+        return header(username, uri, qop, DigestHttp.calcDigestResponse(auth, "päss😀word")) ;
+    }
+
+    @Test public void sameAsStrings() {
+        for ( String qop : new String[] { "auth", null } ) {
+            AuthResponseHeader auth = header("üser", "/data/中", qop, null) ;
+            assertFalse(DigestVerifier.verify(auth, "password")) ;
+            assertTrue(DigestVerifier.verify(auth, "päss😀word")) ;
+            String ha1 = RFC2617.H(RFC2617.A1_MD5(auth.username, auth.realm, "päss😀word")) ;
+            assertTrue(DigestVerifier.md5().ha1Equals(ha1)) ;
+            assertEquals(ha1, DigestVerifier.md5().ha1()) ;
+            assertTrue(DigestVerifier.verifyHA1(auth, ha1)) ;
+        }
+    }
+
+    @Test public void badResponse() {
+        AuthResponseHeader good = header("user", "/data", "auth", null) ;
+        assertFalse(DigestVerifier.verify(header("user", "/data", "auth", good.response.substring(1)), "päss😀word")) ;
+        assertFalse(DigestVerifier.verify(header("user", "/data", "auth", "z"+good.response.substring(1)), "päss😀word")) ;
+        assertFalse(DigestVerifier.verify(header("user", "/other", "auth", good.response), "päss😀word")) ;
+    }
+
+    // Only ASCII hex digits: Character.digit would also accept, for example, fullwidth digits.
+    @Test public void nonAsciiHex() {
+        AuthResponseHeader good = header("user", "/data", "auth", null) ;
+        assertTrue(DigestVerifier.verify(header("user", "/data", "auth", good.response.toUpperCase()), "päss😀word")) ;
+        int i = firstDigit(good.response) ;
+        char c = good.response.charAt(i) ;
+        for ( char other : new char[] { (char)('\uFF10'+(c-'0')), (char)('\u0660'+(c-'0')), (char)('\u0966'+(c-'0')) } ) {
+            assertEquals(c-'0', Character.digit(other, 16)) ;
+            String response = good.response.substring(0, i)+other+good.response.substring(i+1) ;
+            assertFalse(response, DigestVerifier.verify(header("user", "/data", "auth", response), "päss😀word")) ;
+        }
+        assertEquals(-1, NonceCountWindow.parse("0000000\uFF11")) ;
+    }
+
+    private static int firstDigit(String s) {
+        for ( int i = 0 ; i < s.length() ; i++ ) {
+            if ( s.charAt(i) >= '0' && s.charAt(i) <= '9' )
+                return i ;
+        }
+        throw new AssertionError("No digit: "+s) ;
+    }
+
+    @Test public void noAllocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean() ;
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean) ;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean ;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) ;
+        AuthResponseHeader auth = header("user", "/data", "auth", null) ;
+        long id = Thread.currentThread().getId() ;
+        int N = 10_000 ;
+        boolean ok = true ;
+        for ( int i = 0 ; i < N ; i++ )
+            ok &= DigestVerifier.verify(auth, "päss😀word") ;
+        long before = threads.getThreadAllocatedBytes(id) ;
+        for ( int i = 0 ; i < N ; i++ )
+            ok &= DigestVerifier.verify(auth, "päss😀word") ;
+        long after = threads.getThreadAllocatedBytes(id) ;
+        assertTrue(ok) ;
+        // Allow for the measurement itself, which is far less than one byte per call.
+        assertTrue("Allocated "+(after-before)+" bytes", after - before < N/10) ;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestFailureThrottle {
+    private static final String URI = "/data" ;
+    private static final String XFF = "X-Forwarded-For" ;
+    private static final long HALF_LIFE = TimeUnit.MINUTES.toMillis(1) ;
+
+    private DigestHttp engine ;
+    private final AtomicInteger lookups = new AtomicInteger() ;
+
+    @Before public void before() {
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> { lookups.incrementAndGet() ; return "pw-"+u ; }) ;
+        engine.setFailureThrottle(new FailureThrottle(3, HALF_LIFE, XFF)) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    @Test public void lockout() {
+        FailureThrottle throttle = new FailureThrottle(3, HALF_LIFE, null) ;
+        long now = System.currentTimeMillis() ;
+        throttle.failure("alice", "10.0.0.1", now) ;
+        throttle.failure("alice", "10.0.0.1", now) ;
+        assertEquals(0, throttle.lockedFor("alice", "10.0.0.1", now)) ;
+        throttle.failure("alice", "10.0.0.1", now) ;
+        assertTrue(throttle.lockedFor("alice", "10.0.0.2", now) > 0) ;
+        assertTrue(throttle.lockedFor("bob", "10.0.0.1", now) > 0) ;
+        assertEquals(0, throttle.lockedFor("bob", "10.0.0.2", now)) ;
+    }
+
+    @Test public void decay() {
+        FailureThrottle throttle = new FailureThrottle(4, HALF_LIFE, null) ;
+        long now = System.currentTimeMillis() ;
+        for ( int i = 0 ; i < 8 ; i++ )
+            throttle.failure("alice", null, now) ;
+        // A score of 8 takes one half life to decay to the threshold of 4.
+        long wait = throttle.lockedFor("alice", null, now) ;
+        assertEquals(TimeUnit.MILLISECONDS.toSeconds(HALF_LIFE), wait, 1) ;
+        assertTrue(throttle.lockedFor("alice", null, now + HALF_LIFE - 2000) > 0) ;
+        assertEquals(0, throttle.lockedFor("alice", null, now + HALF_LIFE + 2000)) ;
+        // Decayed failures count for less.
+        throttle.failure("alice", null, now + 2*HALF_LIFE) ;
+        assertEquals(0, throttle.lockedFor("alice", null, now + 2*HALF_LIFE)) ;
+    }
+
+    @Test public void noUserLockout() {
+        FailureThrottle throttle = new FailureThrottle(0, 2, HALF_LIFE, null, FailureThrottle.DEFAULT_WIDTH) ;
+        long now = System.currentTimeMillis() ;
+        throttle.failure("alice", "10.0.0.1", now) ;
+        throttle.failure("alice", "10.0.0.2", now) ;
+        assertEquals(0, throttle.lockedFor("alice", "10.0.0.3", now)) ;
+        throttle.failure("alice", "10.0.0.1", now) ;
+        assertTrue(throttle.lockedFor("alice", "10.0.0.1", now) > 0) ;
+    }
+
+    @Test public void concurrent() throws InterruptedException {
+        FailureThrottle throttle = new FailureThrottle(1000, HALF_LIFE, null) ;
+        long now = System.currentTimeMillis() ;
+        List<Thread> threads = new ArrayList<>() ;
+        for ( int i = 0 ; i < 4 ; i++ ) {
+            Thread t = new Thread(() -> {
+                for ( int j = 0 ; j < 250 ; j++ )
+                    throttle.failure("alice", null, now) ;
+            }) ;
+            threads.add(t) ;
+            t.start() ;
+        }
+        for ( Thread t : threads )
+            t.join() ;
+        assertTrue(throttle.lockedFor("alice", null, now) > 0) ;
+    }
+
+    @Test public void lockedBeforePasswordLookup() {
+        for ( int i = 0 ; i < 3 ; i++ )
+            assertEquals(AccessStatus.NO, access("alice", "wrong", "10.0.0.1")) ;
+        int before = lookups.get() ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        String ch = challenge() ;
+        engine.accessYesOrNo(FakeHttp.request("GET", URI, FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1), XFF, "10.0.0.9"),
+                             response.response) ;
+        assertEquals(429, response.status) ;
+        assertTrue(Long.parseLong(response.headers.get("Retry-After")) > 0) ;
+        assertEquals(before, lookups.get()) ;
+        // Another user from a different address is not affected.
+        assertEquals(AccessStatus.YES, access("bob", "pw-bob", "10.0.0.9")) ;
+        assertEquals(1, engine.getFailureThrottle().getRefused()) ;
+    }
+
+    @Test public void addressLockout() {
+        for ( int i = 0 ; i < 3 ; i++ )
+            assertEquals(AccessStatus.NO, access("user"+i, "wrong", "10.0.0.1")) ;
+        assertEquals(AccessStatus.BAD, access("bob", "pw-bob", "10.0.0.1")) ;
+        assertEquals(AccessStatus.YES, access("bob", "pw-bob", "10.0.0.2")) ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String user, String password, String address) {
+        String auth = FakeHttp.authorization(challenge(), "GET", URI, user, password, 1) ;
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth, XFF, address), new FakeHttp.Response().response) ;
+    }
+}
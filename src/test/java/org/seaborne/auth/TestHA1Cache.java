@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+
+import java.util.Map ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestHA1Cache {
+    private static final String URI = "/data" ;
+
+    private final Map<String, String> passwords = new ConcurrentHashMap<>() ;
+    private final AtomicInteger lookups = new AtomicInteger() ;
+    private final HA1Cache cache = new HA1Cache(64) ;
+    private DigestHttp engine ;
+
+    @Before public void before() {
+        passwords.put("alice", "pw1") ;
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> { lookups.incrementAndGet() ; return passwords.get(u) ; }) ;
+        engine.setHA1Cache(cache) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private AccessStatus login(String user, String password) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        String auth = FakeHttp.authorization(response.headers.get("WWW-Authenticate"), "GET", URI, user, password, 1) ;
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    @Test public void cached() {
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        assertEquals(1, lookups.get()) ;
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        assertEquals(1, lookups.get()) ;
+        assertEquals(RFC2617.H(RFC2617.A1_MD5("alice", "TestRealm", "pw1")), cache.get("alice", "TestRealm")) ;
+    }
+
+    @Test public void wrongPasswordNotCached() {
+        assertEquals(AccessStatus.NO, login("alice", "pw2")) ;
+        assertNull(cache.get("alice", "TestRealm")) ;
+    }
+
+    @Test public void invalidate() {
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        passwords.put("alice", "pw2") ;
+        // Until told, the old password works.
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        cache.invalidate("alice") ;
+        assertEquals(AccessStatus.NO, login("alice", "pw1")) ;
+        assertEquals(AccessStatus.YES, login("alice", "pw2")) ;
+    }
+
+    @Test public void changedPassword() {
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        passwords.put("alice", "pw2") ;
+        // A new password works before the cache is told.
+        assertEquals(AccessStatus.YES, login("alice", "pw2")) ;
+        assertEquals(AccessStatus.NO, login("alice", "pw1")) ;
+    }
+
+    @Test public void revoke() {
+        assertEquals(AccessStatus.YES, login("alice", "pw1")) ;
+        engine.revokeSessions("alice") ;
+        assertNull(cache.get("alice", "TestRealm")) ;
+    }
+
+    @Test public void putAfterInvalidate() {
+        long generation = cache.generation() ;
+        cache.invalidate("alice", "TestRealm") ;
+        cache.put("alice", "TestRealm", "0123", generation) ;
+        assertNull(cache.get("alice", "TestRealm")) ;
+        cache.put("alice", "TestRealm", "0123", cache.generation()) ;
+        assertEquals("0123", cache.get("alice", "TestRealm")) ;
+        cache.clear() ;
+        assertNull(cache.get("alice", "TestRealm")) ;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.IOException ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.Arrays ;
+import java.util.HashSet ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestHA1Getter {
+    private static final String URI = "/data" ;
+
+    private Path file ;
+
+    @Before public void before() throws IOException {
+        file = Files.createTempFile("htdigest", "") ;
+        Files.write(file, Arrays.asList("# users",
+                                        HtDigestFile.line("alice", "TestRealm", "pw-alice"),
+                                        "",
+                                        // Upper case hex is accepted.
+                                        "bob:Other:"+RFC2617.H(RFC2617.A1_MD5("bob", "Other", "pw-bob")).toUpperCase()),
+                    StandardCharsets.UTF_8) ;
+    }
+
+    @After public void after() throws IOException {
+        Files.deleteIfExists(file) ;
+    }
+
+    private static AccessStatus login(DigestHttp engine, String user, String password) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        String auth = FakeHttp.authorization(response.headers.get("WWW-Authenticate"), "GET", URI, user, password, 1) ;
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    @Test public void readFile() throws IOException {
+        HtDigestFile ha1s = HtDigestFile.read(file) ;
+        assertEquals(RFC2617.H(RFC2617.A1_MD5("alice", "TestRealm", "pw-alice")), ha1s.getHA1(null, "alice", "TestRealm")) ;
+        assertEquals(RFC2617.H(RFC2617.A1_MD5("bob", "Other", "pw-bob")), ha1s.getHA1(null, "bob", "Other")) ;
+        assertNull(ha1s.getHA1(null, "alice", "Other")) ;
+        assertTrue(ha1s.hasRealm("Other")) ;
+        assertFalse(ha1s.hasRealm("None")) ;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badFile() throws IOException {
+        Files.write(file, Arrays.asList("alice:TestRealm:xyz"), StandardCharsets.UTF_8) ;
+        HtDigestFile.read(file) ;
+    }
+
+    @Test public void engine() throws IOException {
+        DigestHttp engine = new DigestHttp(null, "TestRealm", HtDigestFile.read(file), DigestSessionStores.create()) ;
+        try {
+            assertEquals(AccessStatus.YES, login(engine, "alice", "pw-alice")) ;
+            assertEquals(AccessStatus.NO, login(engine, "alice", "pw-bob")) ;
+            // In another realm.
+            assertEquals(AccessStatus.NO, login(engine, "bob", "pw-bob")) ;
+        } finally {
+            engine.close() ;
+        }
+    }
+
+    @Test public void registry() throws IOException {
+        HtDigestFile ha1s = HtDigestFile.read(file) ;
+        try ( DigestHttpRegistry registry = DigestHttpRegistry.withHA1(r -> null, r -> ha1s, r -> DigestSessionStores.create()) ) {
+            registry.setAllowedRealms(new HashSet<>(Arrays.asList("Other", "TestRealm"))) ;
+            assertEquals(AccessStatus.YES, login(registry.engine("Other"), "bob", "pw-bob")) ;
+            assertEquals(AccessStatus.NO, login(registry.engine("TestRealm"), "bob", "pw-bob")) ;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+public class TestMD5Sess {
+    private static final String URI = "/data" ;
+
+    private DigestHttp engine ;
+    private final AtomicInteger lookups = new AtomicInteger() ;
+
+    @Before public void before() {
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> { lookups.incrementAndGet() ; return "pw-"+u ; }) ;
+        engine.setSessionAlgorithm(true) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String auth) {
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    @Test public void a1() {
+        String ha1 = RFC2617.H(RFC2617.A1_MD5("alice", "TestRealm", "pw")) ;
+        assertEquals(ha1+":n:c", RFC2617.A1_MD5_sess("alice", "TestRealm", "pw", "n", "c")) ;
+    }
+
+    @Test public void challengeHeader() {
+        String ch = challenge() ;
+        assertEquals(RFC2617.MD5_SESS, AuthChallengeHeader.parse(ch, URI, "GET").algorithm) ;
+        engine.setSessionAlgorithm(false) ;
+        ch = challenge() ;
+        assertEquals(null, AuthChallengeHeader.parse(ch, URI, "GET").algorithm) ;
+    }
+
+    @Test public void oneLookupPerSession() {
+        String ch = challenge() ;
+        for ( int nc = 1 ; nc <= 3 ; nc++ )
+            assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", nc))) ;
+        assertEquals(1, lookups.get()) ;
+        DigestSession session = engine.getCredentials(AuthChallengeHeader.parse(ch, URI, "GET").opaque) ;
+        assertNotNull(session.sessionKey) ;
+        // Calculated by the first request, and kept for the nonce.
+        assertTrue(session.sessionKey.isFor(session.nonce)) ;
+        assertEquals("c0ffee1", session.sessionKey.cnonce) ;
+    }
+
+    // A client that calculates H(A1) once, with the nonce and cnonce of its first request,
+    // as RFC 2617 section 3.2.2.2 describes, and then sends a new cnonce with each request.
+    private static String keptA1(String challenge, String password, String firstCnonce, long nc) {
+        AuthChallengeHeader ch = AuthChallengeHeader.parse(challenge, URI, "GET") ;
+        String ha1 = RFC2617.H(RFC2617.A1_MD5_sess("alice", ch.realm, password, ch.nonce, firstCnonce)) ;
+        String ncStr = String.format("%08x", nc) ;
+        String cnonce = "c0ffee"+nc ;
+        String response = RFC2617.KD(ha1, ch.nonce+":"+ncStr+":"+cnonce+":auth:"+RFC2617.H("GET:"+URI)) ;
+        return "Digest username=\"alice\", realm=\""+ch.realm+"\", nonce=\""+ch.nonce+"\", uri=\""+URI+"\""
+              +", qop=auth, nc="+ncStr+", cnonce=\""+cnonce+"\", response=\""+response+"\", opaque=\""+ch.opaque+"\""
+              +", algorithm="+ch.algorithm ;
+    }
+
+    @Test public void keptA1() {
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        for ( int nc = 2 ; nc <= 4 ; nc++ )
+            assertEquals(AccessStatus.YES, access(keptA1(ch, "pw-alice", "c0ffee1", nc))) ;
+        // A client that calculates the key again for each cnonce is accepted too.
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 5))) ;
+        assertEquals(AccessStatus.YES, access(keptA1(ch, "pw-alice", "c0ffee1", 6))) ;
+        assertEquals(1, lookups.get()) ;
+        // Not a key from some other cnonce.
+        assertEquals(AccessStatus.NO, access(keptA1(ch, "pw-alice", "c0ffee2", 7))) ;
+    }
+
+    // A new nonce, after a stale=true challenge, has a new session key.
+    @Test public void keptA1NewNonce() {
+        engine.setNonceMaxUses(2) ;
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(AccessStatus.YES, access(keptA1(ch, "pw-alice", "c0ffee1", 2))) ;
+        // The nonce is used up; the digest, with the kept key, is checked before stale=true is sent.
+        HttpServletRequest request = FakeHttp.request("GET", URI, keptA1(ch, "pw-alice", "c0ffee1", 3)) ;
+        assertEquals(AccessStatus.NO, engine.accessYesOrNo(request, new FakeHttp.Response().response)) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(request, response.response) ;
+        String ch2 = response.headers.get("WWW-Authenticate") ;
+        assertTrue(ch2, ch2.contains("stale=true")) ;
+
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(AccessStatus.YES, access(keptA1(ch2, "pw-alice", "c0ffee1", 2))) ;
+        // The key for the old nonce is not used with the new one.
+        DigestSession session = engine.getCredentials(AuthChallengeHeader.parse(ch2, URI, "GET").opaque) ;
+        assertTrue(session.sessionKey.isFor(AuthChallengeHeader.parse(ch2, URI, "GET").nonce)) ;
+    }
+
+    @Test public void wrongPassword() {
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(AccessStatus.NO, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-bob", 2))) ;
+        assertEquals(AccessStatus.NO, access(FakeHttp.authorization(challenge(), "GET", URI, "alice", "pw-bob", 1))) ;
+    }
+
+    @Test public void notOffered() {
+        String ch = challenge() ;
+        engine.setSessionAlgorithm(false) ;
+        assertEquals(AccessStatus.BAD, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+    }
+
+    @Test public void md5Accepted() {
+        String ch = challenge().replace("algorithm=MD5-sess, ", "") ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2))) ;
+        assertEquals(2, lookups.get()) ;
+    }
+}
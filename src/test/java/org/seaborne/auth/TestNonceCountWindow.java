@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.junit.Test ;
+
+public class TestNonceCountWindow {
+
+    @Test public void inOrder() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        for ( long nc = 1 ; nc <= 100 ; nc++ )
+            assertTrue(w.accept(nc)) ;
+        assertEquals(100, w.get() >>> 32) ;
+    }
+
+    @Test public void duplicate() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        assertTrue(w.accept(1)) ;
+        assertFalse(w.accept(1)) ;
+        assertTrue(w.accept(2)) ;
+        assertFalse(w.accept(1)) ;
+        assertFalse(w.accept(2)) ;
+    }
+
+    @Test public void outOfOrder() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        assertTrue(w.accept(5)) ;
+        assertTrue(w.accept(3)) ;
+        assertTrue(w.accept(4)) ;
+        assertTrue(w.accept(1)) ;
+        assertFalse(w.accept(3)) ;
+        assertTrue(w.accept(2)) ;
+        assertFalse(w.accept(5)) ;
+        assertTrue(w.accept(6)) ;
+    }
+
+    @Test public void tooOld() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        assertTrue(w.accept(100)) ;
+        // The window is the highest and the WIDTH-1 values below it.
+        long oldest = 100 - NonceCountWindow.WIDTH + 1 ;
+        assertTrue(w.accept(oldest)) ;
+        assertFalse(w.accept(oldest-1)) ;
+        assertFalse(w.accept(1)) ;
+    }
+
+    @Test public void bigJump() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        assertTrue(w.accept(1)) ;
+        assertTrue(w.accept(2)) ;
+        // Further ahead than the window: nothing from before is kept.
+        assertTrue(w.accept(2 + NonceCountWindow.WIDTH)) ;
+        assertFalse(w.accept(2)) ;
+        assertTrue(w.accept(3 + NonceCountWindow.WIDTH)) ;
+        assertTrue(w.accept(4)) ;
+    }
+
+    @Test public void range() {
+        NonceCountWindow w = new NonceCountWindow() ;
+        assertFalse(w.accept(0)) ;
+        assertFalse(w.accept(-1)) ;
+        assertFalse(w.accept(0x1_0000_0000L)) ;
+        assertTrue(w.accept(0xFFFF_FFFFL)) ;
+        assertFalse(w.accept(0xFFFF_FFFFL)) ;
+        assertTrue(w.accept(0xFFFF_FFFEL)) ;
+        assertEquals(0xFFFF_FFFFL, w.get() >>> 32) ;
+    }
+
+    @Test public void parse() {
+        assertEquals(1, NonceCountWindow.parse("00000001")) ;
+        assertEquals(0xFFFF_FFFFL, NonceCountWindow.parse("ffffffff")) ;
+        assertEquals(0xAB, NonceCountWindow.parse("AB")) ;
+        assertEquals(-1, NonceCountWindow.parse("100000000")) ;
+        assertEquals(-1, NonceCountWindow.parse("0000000g")) ;
+        assertEquals(-1, NonceCountWindow.parse("")) ;
+        assertEquals(-1, NonceCountWindow.parse(null)) ;
+    }
+
+    @Test public void concurrent() throws InterruptedException {
+        NonceCountWindow w = new NonceCountWindow() ;
+        AtomicInteger accepted = new AtomicInteger() ;
+        List<Thread> threads = new ArrayList<>() ;
+        // Each nc offered by every thread; each accepted exactly once.
+        int N = 8 ;
+        for ( int t = 0 ; t < N ; t++ ) {
+            Thread thread = new Thread(() -> {
+                for ( long nc = 1 ; nc <= 10_000 ; nc++ ) {
+                    if ( w.accept(nc) )
+                        accepted.incrementAndGet() ;
+                }
+            }) ;
+            threads.add(thread) ;
+            thread.start() ;
+        }
+        for ( Thread thread : threads )
+            thread.join() ;
+        assertTrue(accepted.get() <= 10_000) ;
+        assertEquals(10_000, w.get() >>> 32) ;
+        for ( long nc = 10_000 - NonceCountWindow.WIDTH + 1 ; nc <= 10_000 ; nc++ )
+            assertFalse(w.accept(nc)) ;
+    }
+}
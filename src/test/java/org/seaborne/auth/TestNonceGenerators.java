@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.HashSet ;
+import java.util.Set ;
+
+import org.junit.Test ;
+
+public class TestNonceGenerators {
+    private static void check(NonceGenerator generator) {
+        Set<String> seen = new HashSet<>() ;
+        for ( int i = 0 ; i < 1000 ; i++ ) {
+            String s = generator.generate() ;
+            assertEquals(32, s.length()) ;
+            assertTrue(s, s.matches("[0-9a-f]{32}")) ;
+            assertTrue(seen.add(s)) ;
+        }
+    }
+
+    @Test public void uuid()        { check(NonceGenerators.uuid()) ; }
+    @Test public void perThread()   { check(NonceGenerators.perThread()) ; }
+    @Test public void buffered()    { check(NonceGenerators.buffered()) ; }
+    @Test public void bufferedSmall() { check(NonceGenerators.buffered(16)) ; }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferedBadSize()   { NonceGenerators.buffered(20) ; }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+import org.junit.Test ;
+
+public class TestNoncePool {
+    // Distinct, recognizable values.
+    private static NonceGenerator counter() {
+        AtomicLong x = new AtomicLong() ;
+        return () -> DigestSessionStoreOffHeap.hex128(0, x.incrementAndGet()) ;
+    }
+
+    private static void awaitFull(NoncePool pool) throws InterruptedException {
+        for ( int i = 0 ; i < 200 && pool.size() < pool.capacity() ; i++ )
+            Thread.sleep(10) ;
+        assertEquals(pool.capacity(), pool.size()) ;
+    }
+
+    @Test public void refill() throws InterruptedException {
+        try ( NoncePool pool = new NoncePool(counter(), 100) ) {
+            assertEquals(128, pool.capacity()) ;
+            awaitFull(pool) ;
+            for ( int i = 0 ; i < 100 ; i++ )
+                pool.generate() ;
+            assertEquals(100, pool.getTaken()) ;
+            assertEquals(0, pool.getMisses()) ;
+            awaitFull(pool) ;
+            assertTrue(pool.getGenerated() >= 228) ;
+        }
+    }
+
+    @Test public void empty() throws InterruptedException {
+        NoncePool pool = new NoncePool(counter(), 4) ;
+        awaitFull(pool) ;
+        pool.close() ;
+        Thread.sleep(50) ;
+        for ( int i = 0 ; i < 10 ; i++ )
+            pool.generate() ;
+        assertEquals(4, pool.getTaken()) ;
+        assertEquals(6, pool.getMisses()) ;
+    }
+
+    @Test public void unique() throws InterruptedException {
+        Set<String> seen = ConcurrentHashMap.newKeySet() ;
+        try ( NoncePool pool = new NoncePool(counter(), 64) ) {
+            List<Thread> threads = new ArrayList<>() ;
+            for ( int t = 0 ; t < 8 ; t++ ) {
+                Thread thread = new Thread(() -> {
+                    for ( int i = 0 ; i < 5000 ; i++ )
+                        assertTrue(seen.add(pool.generate())) ;
+                }) ;
+                threads.add(thread) ;
+                thread.start() ;
+            }
+            for ( Thread thread : threads )
+                thread.join() ;
+            assertEquals(40000, seen.size()) ;
+            assertEquals(40000, pool.getTaken() + pool.getMisses()) ;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertSame ;
+import static org.junit.Assert.assertTrue ;
+
+import javax.servlet.http.HttpServletResponse ;
+
+import org.junit.Test ;
+import org.seaborne.auth.PendingSessions.OverflowPolicy ;
+
+public class TestPendingSessions {
+    private static final long TIMEOUT = 60_000 ;
+
+    private static DigestSession session(String opaque, long created) {
+        return new DigestSession(opaque, "", "TestRealm", "GET", "/data", "nonce-"+opaque, created) ;
+    }
+
+    private static DigestSession session(String opaque) {
+        return session(opaque, System.currentTimeMillis()) ;
+    }
+
+    @Test public void reject() {
+        PendingSessions pending = new PendingSessions(TIMEOUT, 3, OverflowPolicy.REJECT) ;
+        assertTrue(pending.put(session("a"))) ;
+        assertTrue(pending.put(session("b"))) ;
+        assertTrue(pending.put(session("c"))) ;
+        assertFalse(pending.put(session("d"))) ;
+        assertEquals(3, pending.size()) ;
+        assertNull(pending.get("d")) ;
+        assertNotNull(pending.get("a")) ;
+    }
+
+    @Test public void evictOldest() {
+        PendingSessions pending = new PendingSessions(TIMEOUT, 2, OverflowPolicy.EVICT_OLDEST) ;
+        assertTrue(pending.put(session("a"))) ;
+        assertTrue(pending.put(session("b"))) ;
+        assertTrue(pending.put(session("c"))) ;
+        assertEquals(2, pending.size()) ;
+        assertNull(pending.get("a")) ;
+        assertNotNull(pending.get("b")) ;
+        assertNotNull(pending.get("c")) ;
+    }
+
+    @Test public void answeredFreesSlot() {
+        PendingSessions pending = new PendingSessions(TIMEOUT, 2, OverflowPolicy.REJECT) ;
+        pending.put(session("a")) ;
+        pending.put(session("b")) ;
+        assertNotNull(pending.take("a")) ;
+        assertTrue(pending.put(session("c"))) ;
+        pending.remove("b") ;
+        assertTrue(pending.put(session("d"))) ;
+        assertFalse(pending.put(session("e"))) ;
+    }
+
+    @Test public void evictSkipsAnswered() {
+        PendingSessions pending = new PendingSessions(TIMEOUT, 2, OverflowPolicy.EVICT_OLDEST) ;
+        pending.put(session("a")) ;
+        pending.put(session("b")) ;
+        pending.take("a") ;
+        pending.put(session("c")) ;
+        assertNotNull(pending.get("b")) ;
+        // "a" is still at the head of the queue, but "b" is the oldest outstanding.
+        pending.put(session("d")) ;
+        assertNull(pending.get("b")) ;
+        assertNotNull(pending.get("c")) ;
+        assertNotNull(pending.get("d")) ;
+        assertEquals(2, pending.size()) ;
+    }
+
+    @Test public void manyAnswered() {
+        PendingSessions pending = new PendingSessions(TIMEOUT, 4, OverflowPolicy.REJECT) ;
+        for ( int i = 0 ; i < 10_000 ; i++ ) {
+            assertTrue(pending.put(session("s"+i))) ;
+            assertNotNull(pending.take("s"+i)) ;
+        }
+        assertEquals(0, pending.size()) ;
+        assertEquals(0, pending.timeToNextExpiry(System.currentTimeMillis())) ;
+    }
+
+    @Test public void expiry() {
+        long now = System.currentTimeMillis() ;
+        PendingSessions pending = new PendingSessions(1000, 2, OverflowPolicy.REJECT) ;
+        pending.put(session("a", now-2000)) ;
+        pending.put(session("b", now-500)) ;
+        assertNull(pending.get("a")) ;
+        assertNotNull(pending.get("b")) ;
+        assertFalse(pending.put(session("c"))) ;
+        long wait = pending.timeToNextExpiry(now) ;
+        assertEquals(0, wait) ;
+
+        assertEquals(1, pending.sweep(now)) ;
+        assertEquals(1, pending.size()) ;
+        assertEquals(500, pending.timeToNextExpiry(now)) ;
+        assertTrue(pending.put(session("c"))) ;
+        assertEquals(2, pending.sweep(now+2000)) ;
+        assertEquals(0, pending.size()) ;
+    }
+
+    @Test public void takeExpired() {
+        long now = System.currentTimeMillis() ;
+        PendingSessions pending = new PendingSessions(1000, 1, OverflowPolicy.REJECT) ;
+        pending.put(session("a", now-2000)) ;
+        assertNull(pending.take("a")) ;
+        assertTrue(pending.put(session("b"))) ;
+    }
+
+    @Test public void promote() {
+        DigestSessionStoreBounded store = new DigestSessionStoreBounded(TIMEOUT, 10, OverflowPolicy.REJECT, TIMEOUT, 10*TIMEOUT, 100) ;
+        store.putPending(session("a")) ;
+        assertEquals(1, store.pendingSize()) ;
+        assertNull(store.get("a")) ;
+        DigestSession active = store.promote("a", "user") ;
+        assertNotNull(active) ;
+        assertEquals("user", active.username) ;
+        assertSame(active, store.promote("a", "user")) ;
+        assertNull(store.promote("a", "other")) ;
+        assertSame(active, store.get("a")) ;
+        assertEquals(0, store.pendingSize()) ;
+        assertEquals(1, store.activeSize()) ;
+        assertNull(store.promote("unknown", "user")) ;
+    }
+
+    @Test public void serviceUnavailable() {
+        DigestSessionStoreBounded store = new DigestSessionStoreBounded(TIMEOUT, 1, OverflowPolicy.REJECT, TIMEOUT, 10*TIMEOUT, 100) ;
+        DigestHttp engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw", store) ;
+        try {
+            FakeHttp.Response r1 = new FakeHttp.Response() ;
+            engine.sendChallenge(FakeHttp.request("GET", "/data", null), r1.response) ;
+            assertEquals(HttpServletResponse.SC_UNAUTHORIZED, r1.status) ;
+            FakeHttp.Response r2 = new FakeHttp.Response() ;
+            engine.sendChallenge(FakeHttp.request("GET", "/data", null), r2.response) ;
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, r2.status) ;
+            assertNull(r2.headers.get("WWW-Authenticate")) ;
+            long retryAfter = Long.parseLong(r2.headers.get("Retry-After")) ;
+            assertTrue(retryAfter >= 1 && retryAfter <= TIMEOUT/1000) ;
+        } finally {
+            engine.close() ;
+        }
+    }
+}
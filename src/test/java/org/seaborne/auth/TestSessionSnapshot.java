@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.DataOutputStream ;
+import java.io.IOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.Collections ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Handing sessions from one engine to another. */
+public class TestSessionSnapshot {
+    private static final String URI = "/data" ;
+
+    private DigestHttp engine1 ;
+    private DigestHttp engine2 ;
+
+    @Before public void before() {
+        engine1 = engine(DigestSessionStores.typeBounded) ;
+        engine2 = engine(DigestSessionStores.typeOffHeap) ;
+    }
+
+    @After public void after() {
+        engine1.close() ;
+        engine2.close() ;
+    }
+
+    private static DigestHttp engine(String storeType) {
+        DigestSessionStore store = DigestSessionStores.create(storeType, Collections.emptyMap()) ;
+        return new DigestHttp(null, "TestRealm", (cxt, u) -> "pw", store) ;
+    }
+
+    private static String challenge(DigestHttp engine) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private static AccessStatus access(DigestHttp engine, String challenge, String user, long nc) {
+        String auth = FakeHttp.authorization(challenge, "GET", URI, user, "pw", nc) ;
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    @Test public void stream() throws IOException {
+        String c1 = challenge(engine1) ;
+        String c2 = challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 1)) ;
+        assertEquals(AccessStatus.YES, access(engine1, c2, "bob", 1)) ;
+        assertEquals(AccessStatus.YES, access(engine1, c2, "bob", 2)) ;
+        challenge(engine1) ;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+        assertEquals(2, engine1.exportSessions(out)) ;
+        assertEquals(2, engine2.importSessions(new ByteArrayInputStream(out.toByteArray()))) ;
+
+        assertEquals(2, engine2.getSessionStore().activeSize()) ;
+        assertEquals(0, engine2.getSessionStore().pendingSize()) ;
+        // The nonce counts come too.
+        assertEquals(AccessStatus.NO,  access(engine2, c2, "bob", 2)) ;
+        assertEquals(AccessStatus.YES, access(engine2, c2, "bob", 3)) ;
+        assertEquals(AccessStatus.YES, access(engine2, c1, "alice", 2)) ;
+        assertEquals(1, engine2.getSessions("alice").size()) ;
+    }
+
+    private static String nonce(String challenge) {
+        return AuthChallengeHeader.parse(challenge, URI, "GET").nonce ;
+    }
+
+    private static byte[] export(DigestHttp engine) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+        engine.exportSessions(out) ;
+        return out.toByteArray() ;
+    }
+
+    // A session older than the nonce lifetime, with a recent nonce, is still current after the move.
+    @Test public void oldSession() throws Exception {
+        engine1.setNonceMaxAge(500) ;
+        engine2.setNonceMaxAge(500) ;
+        String c1 = challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 1)) ;
+        Thread.sleep(600) ;
+        HttpServletRequest request = FakeHttp.request("GET", URI, FakeHttp.authorization(c1, "GET", URI, "alice", "pw", 2)) ;
+        assertEquals(AccessStatus.NO, engine1.accessYesOrNo(request, new FakeHttp.Response().response)) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine1.sendChallenge(request, response.response) ;
+        String c2 = response.headers.get("WWW-Authenticate") ;
+        assertTrue(c2, c2.contains("stale=true")) ;
+        assertEquals(AccessStatus.YES, access(engine1, c2, "alice", 1)) ;
+
+        engine2.importSessions(new ByteArrayInputStream(export(engine1))) ;
+        assertEquals(AccessStatus.YES, access(engine2, c2, "alice", 2)) ;
+    }
+
+    // The next nonce offered before the move is accepted after it.
+    @Test public void nextNonce() throws IOException {
+        engine1.setNonceMaxUses(4) ;
+        engine2.setNonceMaxUses(4) ;
+        String c1 = challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 1)) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 2)) ;
+        String next = engine1.getCredentials(AuthChallengeHeader.parse(c1, URI, "GET").opaque).nextNonce ;
+        assertNotNull(next) ;
+
+        engine2.importSessions(new ByteArrayInputStream(export(engine1))) ;
+        String c2 = c1.replace(nonce(c1), next) ;
+        assertEquals(AccessStatus.YES, access(engine2, c2, "alice", 1)) ;
+    }
+
+    // A snapshot written before the nonce issue time and next nonce were included.
+    @Test public void version1() throws IOException {
+        String c1 = challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 1)) ;
+        DigestSession session = engine1.getCredentials(AuthChallengeHeader.parse(c1, URI, "GET").opaque) ;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream() ;
+        DataOutputStream out = new DataOutputStream(bytes) ;
+        out.writeInt(0x4447534E) ;
+        out.writeInt(1) ;
+        out.writeByte(1) ;
+        out.writeUTF(session.opaque) ;
+        out.writeUTF(session.username) ;
+        out.writeUTF(session.realm) ;
+        out.writeUTF(session.nonce) ;
+        out.writeLong(session.created) ;
+        out.writeLong(session.lastAccess) ;
+        out.writeLong(session.nonceCounts.get()) ;
+        out.writeByte(0) ;
+        out.flush() ;
+        assertEquals(1, engine2.importSessions(new ByteArrayInputStream(bytes.toByteArray()))) ;
+        assertEquals(AccessStatus.NO,  access(engine2, c1, "alice", 1)) ;
+        assertEquals(AccessStatus.YES, access(engine2, c1, "alice", 2)) ;
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws IOException {
+        challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, challenge(engine1), "alice", 1)) ;
+        ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+        engine1.exportSessions(out) ;
+        byte[] bytes = out.toByteArray() ;
+        engine2.importSessions(new ByteArrayInputStream(bytes, 0, bytes.length-5)) ;
+    }
+
+    @Test public void socket() throws IOException {
+        String c1 = challenge(engine1) ;
+        assertEquals(AccessStatus.YES, access(engine1, c1, "alice", 1)) ;
+        Path dir = Files.createTempDirectory("snapshot") ;
+        Path socket = dir.resolve("sessions.sock") ;
+        SessionSnapshotServer server = SessionSnapshotServer.start(engine1, socket) ;
+        try {
+            assertEquals(1, SessionSnapshotServer.fetch(engine2, socket)) ;
+        } finally {
+            server.close() ;
+            Files.deleteIfExists(socket) ;
+            Files.delete(dir) ;
+        }
+        assertEquals(AccessStatus.YES, access(engine2, c1, "alice", 2)) ;
+        assertEquals(-1, SessionSnapshotServer.fetch(engine2, socket)) ;
+    }
+}
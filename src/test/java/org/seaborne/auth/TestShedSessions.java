@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.junit.runner.RunWith ;
+import org.junit.runners.Parameterized ;
+import org.junit.runners.Parameterized.Parameters ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Removing sessions when memory is short. */
+@RunWith(Parameterized.class)
+public class TestShedSessions {
+    private static final String URI = "/data" ;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { DigestSessionStores.typeMemory },
+            { DigestSessionStores.typeBounded }
+        }) ;
+    }
+
+    private final String storeType ;
+    private DigestHttp engine ;
+
+    public TestShedSessions(String storeType) {
+        this.storeType = storeType ;
+    }
+
+    @Before public void before() {
+        DigestSessionStore store = DigestSessionStores.create(storeType, Collections.emptyMap()) ;
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw", store) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private String login(long lastAccess) {
+        String challenge = challenge() ;
+        String auth = FakeHttp.authorization(challenge, "GET", URI, "user", "pw", 1) ;
+        assertEquals(AccessStatus.YES, engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response)) ;
+        String opaque = AuthChallengeHeader.parse(challenge, URI, "GET").opaque ;
+        engine.getSessionStore().touch(engine.getCredentials(opaque), lastAccess) ;
+        return opaque ;
+    }
+
+    @Test public void pending_then_least_recently_used() {
+        long now = System.currentTimeMillis() ;
+        String s1 = login(now-3000) ;
+        String s2 = login(now-1000) ;
+        String s3 = login(now-4000) ;
+        String s4 = login(now-2000) ;
+        challenge() ;
+        challenge() ;
+        DigestSessionStore store = engine.getSessionStore() ;
+        assertEquals(2, store.pendingSize()) ;
+
+        engine.setShedFraction(0.5) ;
+        engine.shed() ;
+        // 3 of 6: both pending, then the least recently used session.
+        assertEquals(0, store.pendingSize()) ;
+        assertEquals(3, store.activeSize()) ;
+        assertNull(engine.getCredentials(s3)) ;
+        assertNotNull(engine.getCredentials(s1)) ;
+        assertNotNull(engine.getCredentials(s2)) ;
+        assertNotNull(engine.getCredentials(s4)) ;
+        assertEquals(3, engine.getShedCount()) ;
+        assertEquals(3, engine.getSessions("user").size()) ;
+
+        engine.setShedFraction(0) ;
+        engine.shed() ;
+        assertEquals(3, store.activeSize()) ;
+    }
+}
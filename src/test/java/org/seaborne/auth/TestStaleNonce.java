@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import javax.servlet.http.HttpServletRequest ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.junit.runner.RunWith ;
+import org.junit.runners.Parameterized ;
+import org.junit.runners.Parameterized.Parameters ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Nonce expiry, {@code stale=true} challenges and {@code nextnonce}. */
+@RunWith(Parameterized.class)
+public class TestStaleNonce {
+    private static final String URI = "/data" ;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { DigestSessionStores.typeMemory },
+            { DigestSessionStores.typeBounded },
+            { DigestSessionStores.typeOffHeap }
+        }) ;
+    }
+
+    private final String storeType ;
+    private DigestHttp engine ;
+    private final AtomicInteger lookups = new AtomicInteger() ;
+
+    public TestStaleNonce(String storeType) {
+        this.storeType = storeType ;
+    }
+
+    @Before public void before() {
+        DigestSessionStore store = DigestSessionStores.create(storeType, Collections.emptyMap()) ;
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> { lookups.incrementAndGet() ; return "pw-"+u ; }, store) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String auth) {
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    // A request that is refused, then the challenge sent for it.
+    private String refused(String auth) {
+        HttpServletRequest request = FakeHttp.request("GET", URI, auth) ;
+        assertEquals(AccessStatus.NO, engine.accessYesOrNo(request, new FakeHttp.Response().response)) ;
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(request, response.response) ;
+        assertEquals(401, response.status) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private static String opaque(String challenge) {
+        return AuthChallengeHeader.parse(challenge, URI, "GET").opaque ;
+    }
+
+    private static String nonce(String challenge) {
+        return AuthChallengeHeader.parse(challenge, URI, "GET").nonce ;
+    }
+
+    @Test public void maxUses() {
+        engine.setNonceMaxUses(2) ;
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2))) ;
+        int before = lookups.get() ;
+        String ch2 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 3)) ;
+        // The heap stores keep H(A1); the off-heap store looks up the password.
+        int expected = storeType.equals(DigestSessionStores.typeOffHeap) ? before+1 : before ;
+        assertEquals(expected, lookups.get()) ;
+        assertTrue(ch2, ch2.contains("stale=true")) ;
+        assertEquals(opaque(ch), opaque(ch2)) ;
+        assertNotEquals(nonce(ch), nonce(ch2)) ;
+        // Same session, new nonce, nonce count starts again.
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 1))) ;
+        assertEquals(1, engine.getSessionStore().activeSize()) ;
+    }
+
+    @Test public void maxAge() throws InterruptedException {
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        engine.setNonceMaxAge(1) ;
+        Thread.sleep(5) ;
+        String ch2 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2)) ;
+        assertTrue(ch2, ch2.contains("stale=true")) ;
+        engine.setNonceMaxAge(DigestHttp.DEFAULT_NONCE_MAX_AGE) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 1))) ;
+    }
+
+    @Test public void replacedNonce() {
+        engine.setNonceMaxUses(1) ;
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        String ch2 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2)) ;
+        // A request still using the first nonce is sent the current one.
+        String ch3 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 3)) ;
+        assertTrue(ch3, ch3.contains("stale=true")) ;
+        assertEquals(nonce(ch2), nonce(ch3)) ;
+    }
+
+    @Test public void unknownNonce() {
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        String other = ch.replace(nonce(ch), NonceGenerators.DEFAULT.generate()) ;
+        String ch2 = refused(FakeHttp.authorization(other, "GET", URI, "alice", "pw-alice", 2)) ;
+        assertTrue(ch2, ch2.contains("stale=true")) ;
+        assertEquals(nonce(ch), nonce(ch2)) ;
+    }
+
+    @Test public void wrongPassword() {
+        engine.setNonceMaxUses(1) ;
+        String ch = challenge() ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1))) ;
+        String ch2 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "wrong", 2)) ;
+        // Checked with the session's H(A1), or the password for the off-heap store.
+        assertFalse(ch2, ch2.contains("stale=true")) ;
+        assertFalse(nonce(ch).equals(nonce(ch2))) ;
+    }
+
+    private static String nextNonce(FakeHttp.Response response) {
+        String info = response.headers.get("Authentication-Info") ;
+        if ( info == null )
+            return null ;
+        assertTrue(info, info.startsWith("nextnonce=\"")) ;
+        return info.substring("nextnonce=\"".length(), info.length()-1) ;
+    }
+
+    private FakeHttp.Response accepted(String auth) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        assertEquals(AccessStatus.YES, engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), response.response)) ;
+        return response ;
+    }
+
+    @Test public void nextNonce() {
+        engine.setNonceMaxUses(4) ;
+        String ch = challenge() ;
+        assertNull(nextNonce(accepted(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1)))) ;
+        String next = nextNonce(accepted(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2))) ;
+        assertNotNull(next) ;
+        // Same next nonce until the client changes to it; the current nonce is still accepted.
+        assertEquals(next, nextNonce(accepted(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 3)))) ;
+        String ch2 = ch.replace(nonce(ch), next) ;
+        int before = lookups.get() ;
+        assertNull(nextNonce(accepted(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 1)))) ;
+        assertEquals(before+1, lookups.get()) ;
+        // The new nonce has its own nonce count; the old nonce is no longer current.
+        assertEquals(AccessStatus.NO, access(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 1))) ;
+        accepted(FakeHttp.authorization(ch2, "GET", URI, "alice", "pw-alice", 2)) ;
+        String ch3 = refused(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 4)) ;
+        assertTrue(ch3, ch3.contains("stale=true")) ;
+        assertEquals(next, nonce(ch3)) ;
+    }
+
+    @Test public void nextNonceDisabled() {
+        engine.setNonceMaxUses(2) ;
+        engine.setNextNonce(false) ;
+        String ch = challenge() ;
+        assertNull(nextNonce(accepted(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1)))) ;
+        assertNull(nextNonce(accepted(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2)))) ;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.Arrays ;
+
+import org.junit.Test ;
+
+public class TestStatelessNonces {
+    private static final long LIFETIME = 60_000 ;
+    private static final String REALM = "TestRealm" ;
+
+    private static byte[] secret(int x) {
+        byte[] b = new byte[32] ;
+        Arrays.fill(b, (byte)x) ;
+        return b ;
+    }
+
+    private final StatelessNonces nonces = new StatelessNonces(secret(1), LIFETIME) ;
+
+    // Change one hex digit.
+    private static String tamper(String s, int i) {
+        char c = s.charAt(i) == '0' ? '1' : '0' ;
+        return s.substring(0, i)+c+s.substring(i+1) ;
+    }
+
+    @Test public void roundTrip() {
+        long now = System.currentTimeMillis() ;
+        String opaque = nonces.newOpaque(REALM) ;
+        String nonce = nonces.newNonce(REALM, opaque, now) ;
+        assertEquals(32, opaque.length()) ;
+        assertEquals(32, nonce.length()) ;
+        assertTrue(nonces.verify(REALM, opaque, nonce, now)) ;
+        assertEquals(now/1000*1000, StatelessNonces.issueTime(nonce)) ;
+        // Another server with the same secret.
+        assertTrue(new StatelessNonces(secret(1), LIFETIME).verify(REALM, opaque, nonce, now)) ;
+    }
+
+    @Test public void tampered() {
+        long now = System.currentTimeMillis() ;
+        String opaque = nonces.newOpaque(REALM) ;
+        String nonce = nonces.newNonce(REALM, opaque, now) ;
+        for ( int i = 0 ; i < 32 ; i++ ) {
+            assertFalse(nonces.verify(REALM, tamper(opaque, i), nonce, now)) ;
+            assertFalse(nonces.verify(REALM, opaque, tamper(nonce, i), now)) ;
+        }
+        // Nonce from another challenge.
+        String opaque2 = nonces.newOpaque(REALM) ;
+        assertFalse(nonces.verify(REALM, opaque2, nonce, now)) ;
+        assertFalse(nonces.verify("OtherRealm", opaque, nonce, now)) ;
+        assertFalse(new StatelessNonces(secret(2), LIFETIME).verify(REALM, opaque, nonce, now)) ;
+    }
+
+    @Test public void malformed() {
+        long now = System.currentTimeMillis() ;
+        String opaque = nonces.newOpaque(REALM) ;
+        String nonce = nonces.newNonce(REALM, opaque, now) ;
+        assertFalse(nonces.verify(REALM, opaque, nonce.substring(1), now)) ;
+        assertFalse(nonces.verify(REALM, opaque+"0", nonce, now)) ;
+        assertFalse(nonces.verify(REALM, opaque, "z"+nonce.substring(1), now)) ;
+        assertFalse(nonces.verify(REALM, null, nonce, now)) ;
+        assertFalse(nonces.verify(REALM, opaque, null, now)) ;
+    }
+
+    @Test public void expiry() {
+        long now = System.currentTimeMillis() ;
+        String opaque = nonces.newOpaque(REALM) ;
+        String nonce = nonces.newNonce(REALM, opaque, now) ;
+        assertTrue(nonces.verify(REALM, opaque, nonce, now + LIFETIME - 1000)) ;
+        assertFalse(nonces.verify(REALM, opaque, nonce, now + LIFETIME + 2000)) ;
+        // Issued by a server whose clock is a little ahead, but not far ahead.
+        assertTrue(nonces.verify(REALM, opaque, nonce, now - 10_000)) ;
+        assertFalse(nonces.verify(REALM, opaque, nonce, now - 60_000)) ;
+    }
+
+    @Test public void rotation() {
+        long now = System.currentTimeMillis() ;
+        StatelessNonces old = nonces ;
+        StatelessNonces rotated = new StatelessNonces(secret(2), secret(1), LIFETIME) ;
+        String opaque1 = old.newOpaque(REALM) ;
+        String nonce1 = old.newNonce(REALM, opaque1, now) ;
+        String opaque2 = rotated.newOpaque(REALM) ;
+        String nonce2 = rotated.newNonce(REALM, opaque2, now) ;
+        // Old challenges still accepted, new challenges use the new secret.
+        assertTrue(rotated.verify(REALM, opaque1, nonce1, now)) ;
+        assertTrue(rotated.verify(REALM, opaque2, nonce2, now)) ;
+        assertFalse(old.verify(REALM, opaque2, nonce2, now)) ;
+        // An opaque from one secret and a nonce from the other.
+        assertFalse(rotated.verify(REALM, opaque1, rotated.newNonce(REALM, opaque1, now), now)) ;
+        // The previous secret dropped.
+        StatelessNonces done = new StatelessNonces(secret(2), LIFETIME) ;
+        assertFalse(done.verify(REALM, opaque1, nonce1, now)) ;
+        assertTrue(done.verify(REALM, opaque2, nonce2, now)) ;
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void shortSecret() {
+        new StatelessNonces(new byte[8], LIFETIME) ;
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void shortPreviousSecret() {
+        new StatelessNonces(secret(1), new byte[8], LIFETIME) ;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNotEquals ;
+import static org.junit.Assert.assertNotNull ;
+import static org.junit.Assert.assertNull ;
+
+import java.util.Collections ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** A captured response to a stateless challenge must not start a session again once it has ended. */
+public class TestStatelessReplay {
+    private static final String URI = "/data" ;
+
+    private DigestHttp engine ;
+
+    @Before public void before() {
+        DigestSessionStore store = DigestSessionStores.create(DigestSessionStores.typeMemory, Collections.emptyMap()) ;
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw-"+u, store) ;
+        engine.setStatelessNonces(new StatelessNonces(new byte[32], 60_000)) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    private String challenge() {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        return response.headers.get("WWW-Authenticate") ;
+    }
+
+    private AccessStatus access(String auth) {
+        return engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+    }
+
+    private static String opaque(String challenge) {
+        return AuthChallengeHeader.parse(challenge, URI, "GET").opaque ;
+    }
+
+    @Test public void replayAfterRevoke() {
+        String ch = challenge() ;
+        String auth = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        assertEquals(AccessStatus.YES, access(auth)) ;
+        assertEquals(1, engine.revokeSessions("alice")) ;
+        assertNotEquals(AccessStatus.YES, access(auth)) ;
+        assertNull(engine.getCredentials(opaque(ch))) ;
+        assertEquals(Collections.emptyList(), engine.getSessions("alice")) ;
+        // A new challenge is answered as usual.
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(challenge(), "GET", URI, "alice", "pw-alice", 1))) ;
+    }
+
+    @Test public void replayAfterRemove() {
+        String ch = challenge() ;
+        String auth = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        assertEquals(AccessStatus.YES, access(auth)) ;
+        engine.getSessionStore().remove(opaque(ch)) ;
+        assertNotEquals(AccessStatus.YES, access(auth)) ;
+        assertNotEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 2))) ;
+        assertNull(engine.getCredentials(opaque(ch))) ;
+    }
+
+    // A wrong digest does not end the session, which would lose the record of the nonce counts used.
+    @Test public void replayAfterMismatch() {
+        String ch = challenge() ;
+        String auth = FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 1) ;
+        assertEquals(AccessStatus.YES, access(auth)) ;
+        assertEquals(AccessStatus.NO, access(FakeHttp.authorization(ch, "GET", URI, "alice", "wrong", 2))) ;
+        assertNotNull(engine.getCredentials(opaque(ch))) ;
+        assertNotEquals(AccessStatus.YES, access(auth)) ;
+        assertEquals(AccessStatus.YES, access(FakeHttp.authorization(ch, "GET", URI, "alice", "pw-alice", 3))) ;
+    }
+}
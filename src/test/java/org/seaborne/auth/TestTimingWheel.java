@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+public class TestTimingWheel {
+
+    // Advance one millisecond (one tick) at a time, recording when each item is delivered.
+    private static Map<Long, Long> run(TimingWheel<Long> wheel, long from, long to) {
+        Map<Long, Long> delivered = new HashMap<>() ;
+        for ( long now = from ; now <= to ; now++ ) {
+            long t = now ;
+            wheel.advance(now, item -> delivered.put(item, t)) ;
+        }
+        return delivered ;
+    }
+
+    @Test public void levelBoundaries() {
+        // 64 ticks per level 0 revolution, 4096 for level 1, 262144 for level 2.
+        long[] deadlines = { 1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 4160, 262143, 262144, 262145, 300_000 } ;
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 0) ;
+        for ( long d : deadlines )
+            wheel.schedule(d, d) ;
+        Map<Long, Long> delivered = run(wheel, 0, 300_000) ;
+        for ( long d : deadlines )
+            assertEquals("Deadline "+d, Long.valueOf(d), delivered.get(d)) ;
+    }
+
+    @Test public void scheduleLater() {
+        // Scheduled part way through, so the deadlines cross a boundary relative to the current tick.
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 0) ;
+        run(wheel, 0, 4000) ;
+        List<Long> deadlines = new ArrayList<>() ;
+        for ( long d = 4001 ; d < 4000 + 5000 ; d += 37 ) {
+            deadlines.add(d) ;
+            wheel.schedule(d, d) ;
+        }
+        Map<Long, Long> delivered = run(wheel, 4001, 9000) ;
+        for ( long d : deadlines )
+            assertEquals("Deadline "+d, Long.valueOf(d), delivered.get(d)) ;
+    }
+
+    @Test public void roundUp() {
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 1000) ;
+        wheel.schedule(1L, 1021) ;
+        Map<Long, Long> delivered = new HashMap<>() ;
+        wheel.advance(1029, item -> delivered.put(item, 1029L)) ;
+        assertTrue(delivered.isEmpty()) ;
+        wheel.advance(1030, item -> delivered.put(item, 1030L)) ;
+        assertEquals(Long.valueOf(1030), delivered.get(1L)) ;
+    }
+
+    @Test public void pastDeadline() {
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 0) ;
+        run(wheel, 0, 100) ;
+        wheel.schedule(1L, 50) ;
+        List<Long> delivered = new ArrayList<>() ;
+        wheel.advance(100, delivered::add) ;
+        assertEquals(1, delivered.size()) ;
+    }
+
+    @Test public void beyondRange() {
+        long range = 1L << 24 ;
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 0) ;
+        wheel.schedule(1L, 2*range+5) ;
+        List<Long> delivered = new ArrayList<>() ;
+        wheel.advance(2*range+4, delivered::add) ;
+        assertTrue(delivered.isEmpty()) ;
+        wheel.advance(2*range+5, delivered::add) ;
+        assertEquals(1, delivered.size()) ;
+    }
+
+    private static DigestSession session(String opaque, long created) {
+        return new DigestSession(opaque, "user", "TestRealm", "GET", "/data", "nonce", created) ;
+    }
+
+    @Test public void expiryAcrossLevels() {
+        // An idle timeout of 5000 ticks goes in level 2 of the wheel and cascades down.
+        ActiveSessions active = new ActiveSessions(5000, 100_000, 1) ;
+        long now = System.currentTimeMillis() ;
+        DigestSession session = session("a", now) ;
+        active.put(session) ;
+        active.touch(session, now) ;
+        List<String> removed = new ArrayList<>() ;
+        active.setRemovalListener((opaque, username) -> removed.add(opaque)) ;
+        for ( long t = now ; t < now + 5000 ; t += 7 )
+            assertEquals(0, active.sweep(t)) ;
+        assertEquals(1, active.size()) ;
+        assertEquals(1, active.sweep(now+5001)) ;
+        assertEquals(0, active.size()) ;
+        assertEquals(1, removed.size()) ;
+    }
+
+    @Test public void touchReschedules() {
+        ActiveSessions active = new ActiveSessions(1000, 100_000, 10) ;
+        long now = System.currentTimeMillis() ;
+        DigestSession session = session("a", now) ;
+        active.put(session) ;
+        active.touch(session, now) ;
+        active.touch(session, now+800) ;
+        // Delivered at the first expiry time, and rescheduled.
+        assertEquals(0, active.sweep(now+1000)) ;
+        assertEquals(0, active.sweep(now+1700)) ;
+        active.touch(session, now+1700) ;
+        assertEquals(0, active.sweep(now+1900)) ;
+        assertEquals(0, active.sweep(now+2600)) ;
+        assertEquals(1, active.sweep(now+2710)) ;
+        assertEquals(0, active.size()) ;
+    }
+
+    @Test public void maxLifetime() {
+        ActiveSessions active = new ActiveSessions(1000, 2500, 10) ;
+        long now = System.currentTimeMillis() ;
+        DigestSession session = session("a", now) ;
+        active.put(session) ;
+        int removed = 0 ;
+        for ( long t = now ; t < now + 2500 ; t += 100 ) {
+            active.touch(session, t) ;
+            removed += active.sweep(t) ;
+        }
+        assertEquals(0, removed) ;
+        active.touch(session, now+2500) ;
+        assertEquals(1, active.sweep(now+2510)) ;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.seaborne.auth;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.List ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Test ;
+import org.junit.runner.RunWith ;
+import org.junit.runners.Parameterized ;
+import org.junit.runners.Parameterized.Parameters ;
+import org.seaborne.auth.DigestHttp.AccessStatus ;
+
+/** Per-user session limit and revocation. */
+@RunWith(Parameterized.class)
+public class TestUserSessions {
+    private static final String URI = "/data" ;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            { DigestSessionStores.typeMemory },
+            { DigestSessionStores.typeBounded },
+            { DigestSessionStores.typeOffHeap }
+        }) ;
+    }
+
+    private final String storeType ;
+    private DigestHttp engine ;
+
+    public TestUserSessions(String storeType) {
+        this.storeType = storeType ;
+    }
+
+    @Before public void before() {
+        DigestSessionStore store = DigestSessionStores.create(storeType, Collections.emptyMap()) ;
+        engine = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw-"+u, store) ;
+    }
+
+    @After public void after() {
+        engine.close() ;
+    }
+
+    // Log in, returning the opaque of the new session.
+    private String login(String user) {
+        FakeHttp.Response response = new FakeHttp.Response() ;
+        engine.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+        String challenge = response.headers.get("WWW-Authenticate") ;
+        String auth = FakeHttp.authorization(challenge, "GET", URI, user, "pw-"+user, 1) ;
+        assertEquals(AccessStatus.YES, engine.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response)) ;
+        return AuthChallengeHeader.parse(challenge, URI, "GET").opaque ;
+    }
+
+    @Test public void index() {
+        String s1 = login("alice") ;
+        String s2 = login("alice") ;
+        String s3 = login("bob") ;
+        assertEquals(Arrays.asList(s1, s2), engine.getSessions("alice")) ;
+        assertEquals(Arrays.asList(s3), engine.getSessions("bob")) ;
+        engine.getSessionStore().remove(s1) ;
+        assertEquals(Arrays.asList(s2), engine.getSessions("alice")) ;
+    }
+
+    @Test public void limit() {
+        engine.setMaxSessionsPerUser(2) ;
+        String s1 = login("alice") ;
+        String s2 = login("alice") ;
+        String s3 = login("alice") ;
+        assertEquals(Arrays.asList(s2, s3), engine.getSessions("alice")) ;
+        assertNull(engine.getCredentials(s1)) ;
+        assertEquals(2, engine.getSessionStore().activeSize()) ;
+    }
+
+    @Test public void revoke() {
+        List<String> alice = Arrays.asList(login("alice"), login("alice"), login("alice")) ;
+        String bob = login("bob") ;
+        assertEquals(3, engine.revokeSessions("alice")) ;
+        for ( String opaque : alice )
+            assertNull(engine.getCredentials(opaque)) ;
+        assertEquals(Collections.emptyList(), engine.getSessions("alice")) ;
+        assertEquals(1, engine.getSessionStore().activeSize()) ;
+        assertEquals(bob, engine.getCredentials(bob).opaque) ;
+        assertEquals(0, engine.revokeSessions("alice")) ;
+    }
+
+    @Test public void revokeWhileActivating() {
+        // A revoke that lands between the lookup and the promotion must not leave a live session.
+        DigestHttp[] holder = new DigestHttp[1] ;
+        DigestSessionStore store = new DigestSessionStoreMem() {
+            @Override
+            public DigestSession promote(String opaque, String username) {
+                holder[0].revokeSessions(username) ;
+                return super.promote(opaque, username) ;
+            }
+        } ;
+        DigestHttp racing = new DigestHttp(null, "TestRealm", (cxt, u) -> "pw-"+u, store) ;
+        holder[0] = racing ;
+        try {
+            FakeHttp.Response response = new FakeHttp.Response() ;
+            racing.sendChallenge(FakeHttp.request("GET", URI, null), response.response) ;
+            String challenge = response.headers.get("WWW-Authenticate") ;
+            String auth = FakeHttp.authorization(challenge, "GET", URI, "alice", "pw-alice", 1) ;
+            AccessStatus status = racing.accessYesOrNo(FakeHttp.request("GET", URI, auth), new FakeHttp.Response().response) ;
+            assertEquals(AccessStatus.NO, status) ;
+            assertEquals(Collections.emptyList(), racing.getSessions("alice")) ;
+            assertEquals(0, store.activeSize()) ;
+        } finally {
+            racing.close() ;
+        }
+    }
+}